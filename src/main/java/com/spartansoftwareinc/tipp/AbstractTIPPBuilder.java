@@ -1,11 +1,18 @@
 package com.spartansoftwareinc.tipp;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 abstract class AbstractTIPPBuilder {
     private PayloadBuilder payloadBuilder = new PayloadBuilder();
     private ManifestBuilder manifestBuilder = new ManifestBuilder();
+    private CompressionPolicy compressionPolicy;
 
     AbstractTIPPBuilder(boolean isRequest) {
         manifestBuilder.setIsRequest(isRequest);
@@ -40,6 +47,47 @@ abstract class AbstractTIPPBuilder {
         return this;
     }
 
+    /**
+     * Set where file contents are held between being added to the builder
+     * and the built package being closed.  The default is
+     * {@link PayloadStorage#TEMP_FILES}.
+     * @throws IllegalStateException if files have already been added
+     */
+    public AbstractTIPPBuilder setPayloadStorage(PayloadStorage storage) {
+        if (storage == null) {
+            throw new IllegalArgumentException("storage must not be null");
+        }
+        payloadBuilder.setStore(storage.newStore());
+        return this;
+    }
+
+    /**
+     * Set the store that holds file contents between being added to the
+     * builder and the built package being closed.  This takes the place of
+     * the {@link PayloadStorage} setting.
+     * @throws IllegalStateException if files have already been added
+     */
+    public AbstractTIPPBuilder setPackageStore(PackageStore store) {
+        if (store == null) {
+            throw new IllegalArgumentException("store must not be null");
+        }
+        payloadBuilder.setStore(store);
+        return this;
+    }
+
+    /**
+     * Set how payload files are compressed when the built package is saved.
+     * This can be overridden for an individual save with
+     * {@link TIPPSaveOptions#setCompressionPolicy(CompressionPolicy)}.
+     */
+    public AbstractTIPPBuilder setCompressionPolicy(CompressionPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy must not be null");
+        }
+        this.compressionPolicy = policy;
+        return this;
+    }
+
     public AbstractTIPPBuilder addFile(TIPPSectionType sectionType, String name, InputStream is) throws IOException {
         payloadBuilder.addFile(getManifestBuilder().addFile(sectionType, name), is);
         return this;
@@ -51,10 +99,146 @@ abstract class AbstractTIPPBuilder {
         return this;
     }
 
+    /**
+     * Add a file whose contents are read from disk when the package is
+     * saved (or the file is read from the built package), instead of being
+     * copied when it is added.  The file must not change or be removed
+     * until the built package has been closed.
+     * @throws FileNotFoundException if there is no such file
+     */
+    public AbstractTIPPBuilder addFile(TIPPSectionType sectionType, String name, Path path) throws IOException {
+        checkFile(path);
+        payloadBuilder.addFile(getManifestBuilder().addFile(sectionType, name), path);
+        return this;
+    }
+
+    /**
+     * Add a file whose contents are fetched from a supplier when the package
+     * is saved (or the file is read from the built package), instead of
+     * being copied when it is added.  The supplier is called each time the
+     * contents are needed, which may be more than once per save, so it must
+     * return a new stream over the same data each time.  Streams are closed
+     * after use.
+     */
+    public AbstractTIPPBuilder addFile(TIPPSectionType sectionType, String name,
+                                       Supplier<? extends InputStream> supplier) {
+        if (supplier == null) {
+            throw new IllegalArgumentException("supplier must not be null");
+        }
+        payloadBuilder.addFile(getManifestBuilder().addFile(sectionType, name), supplier);
+        return this;
+    }
+
+    /**
+     * Add a reference file whose contents are read from disk when needed.
+     * @see #addFile(TIPPSectionType, String, Path)
+     */
+    public AbstractTIPPBuilder addReferenceFile(TIPPReferenceFile.LanguageChoice langChoice, String name, Path path)
+                                    throws IOException {
+        checkFile(path);
+        payloadBuilder.addFile(getManifestBuilder().addReferenceFile(name, langChoice), path);
+        return this;
+    }
+
+    /**
+     * Add a reference file whose contents are fetched from a supplier when
+     * needed.
+     * @see #addFile(TIPPSectionType, String, Supplier)
+     */
+    public AbstractTIPPBuilder addReferenceFile(TIPPReferenceFile.LanguageChoice langChoice, String name,
+                                                Supplier<? extends InputStream> supplier) {
+        if (supplier == null) {
+            throw new IllegalArgumentException("supplier must not be null");
+        }
+        payloadBuilder.addFile(getManifestBuilder().addReferenceFile(name, langChoice), supplier);
+        return this;
+    }
+
+    private static void checkFile(Path path) throws FileNotFoundException {
+        if (path == null) {
+            throw new IllegalArgumentException("path must not be null");
+        }
+        if (!Files.isRegularFile(path)) {
+            throw new FileNotFoundException(path.toString());
+        }
+    }
+
+    /**
+     * Add a file from another package, keeping its section, name and (for
+     * reference files) language choice.  The contents are not copied: the
+     * new package reads them from wherever the other package holds them, and
+     * where the other package still has them in compressed form, saving the
+     * new package copies the compressed data as it is.  The other package
+     * must therefore stay open until the new package has been closed.
+     * @param tipp package containing the file
+     * @param file file to add
+     * @throws FileNotFoundException if the package doesn't contain the file
+     */
+    public AbstractTIPPBuilder addFileFrom(TIPP tipp, TIPPFile file) throws IOException {
+        PayloadEntry entry = (tipp instanceof PackageBase) ?
+                ((PackageBase)tipp).getPayloadEntry(file) : null;
+        InputStream is = (entry == null) ? tipp.getFile(file) : null;
+        if (entry == null && is == null) {
+            throw new FileNotFoundException(file.toString());
+        }
+        TIPPFile added = (file instanceof TIPPReferenceFile) ?
+                getManifestBuilder().addReferenceFile(file.getName(),
+                        ((TIPPReferenceFile)file).getLanguageChoice()) :
+                getManifestBuilder().addFile(file.getSectionType(), file.getName());
+        if (entry != null) {
+            payloadBuilder.addEntry(added, entry);
+        }
+        else {
+            // Some other implementation; all we can do is copy it
+            try {
+                payloadBuilder.addFile(added, is);
+            }
+            finally {
+                is.close();
+            }
+        }
+        return this;
+    }
+
     protected abstract TIPP buildTIPP(Payload payload, Manifest manifest);
 
+    /**
+     * Build the package without blocking the calling thread.  If the future
+     * is cancelled before the package is built, it is never built; if it is
+     * cancelled afterwards, the package is closed, releasing the files added
+     * to the builder.
+     * @param executor executor to build the package on
+     * @return a future for the package
+     */
+    public CompletableFuture<? extends TIPP> buildAsync(Executor executor) {
+        return buildAsync(executor, TIPP.class);
+    }
+
+    <T extends TIPP> CompletableFuture<T> buildAsync(Executor executor, final Class<T> type) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                T tipp = type.cast(build());
+                if (!result.complete(tipp)) {
+                    tipp.close();
+                }
+            }
+            catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
     public TIPP build() throws IOException {
         manifestBuilder.setLocationMap(payloadBuilder.getLocationMap());
-        return buildTIPP(payloadBuilder.build(), manifestBuilder.build());
+        TIPP tipp = buildTIPP(payloadBuilder.build(), manifestBuilder.build());
+        if (compressionPolicy != null) {
+            ((PackageBase)tipp).setCompressionPolicy(compressionPolicy);
+        }
+        return tipp;
     }
 }
@@ -0,0 +1,149 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * PackageSource that reads a zipped package archive that is available
+ * for random access, either as a local file or as a buffer in memory.
+ * Unlike {@link StreamPackageSource}, the archive is read through its central
+ * directory, so the manifest is parsed in place and the payload is read
+ * straight out of the package without being staged first.
+ */
+class ArchivePackageSource extends PackageSource {
+
+    private Path path;
+    private ByteBuffer buffer;
+    private RandomAccessData data;
+    private ZipDirectory archive;
+    private ZipDirectory.Entry payloadEntry;
+    private boolean payloadOwnsData = false;
+
+    ArchivePackageSource(Path path, TIPPErrorHandler errorHandler) {
+        super(errorHandler);
+        this.path = path;
+    }
+
+    /**
+     * Read a package from the remaining bytes of a buffer.  The buffer must
+     * not be modified until the package is closed.
+     */
+    ArchivePackageSource(ByteBuffer buffer, TIPPErrorHandler errorHandler) {
+        super(errorHandler);
+        this.buffer = buffer;
+    }
+
+    @Override
+    InputStream getManifest() throws IOException {
+        ZipDirectory.Entry entry = (archive != null) ?
+                archive.getEntry(PackageBase.MANIFEST) : null;
+        if (entry == null) {
+            throw new FileNotFoundException("Missing manifest.xml");
+        }
+        return archive.open(entry);
+    }
+
+    /**
+     * The payload archive is read again in place, as long as the source is
+     * open.
+     */
+    @Override
+    InputStream getPayloadArchive() throws IOException {
+        return (payloadEntry != null) ? archive.open(payloadEntry) : null;
+    }
+
+    @Override
+    protected boolean needsStagedPayloadArchive() {
+        return false;
+    }
+
+    @Override
+    void expand() throws IOException {
+        openArchive();
+        for (ZipDirectory.Entry entry : archive.getEntries()) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            String name = entry.getName();
+            if (name.equals(PackageBase.PAYLOAD_FILE)) {
+                payloadEntry = entry;
+            }
+            else if (!name.equals(PackageBase.MANIFEST)) {
+                errorHandler.reportError(TIPPErrorType.UNEXPECTED_PACKAGE_CONTENTS, 
+                        "Unexpected package contents: " + name, null);
+            }
+        }
+        if (payloadEntry != null) {
+            expandPayload(payloadEntry);
+        }
+    }
+
+    @Override
+    void expandManifest() throws IOException {
+        // The manifest is read in place when it is opened
+        openArchive();
+    }
+
+    private void openArchive() throws IOException {
+        try {
+            data = (path != null) ?
+                RandomAccessData.forChannel(FileChannel.open(path, StandardOpenOption.READ)) :
+                RandomAccessData.forBuffer(buffer);
+            archive = ZipDirectory.read(data);
+        }
+        catch (IOException e) {
+            errorHandler.reportError(TIPPErrorType.INVALID_PACKAGE_ZIP,
+                            "Could not read package zip", e);
+            throw new ReportedException(e);
+        }
+    }
+
+    private void expandPayload(ZipDirectory.Entry payloadEntry) throws IOException {
+        // An uncompressed resources.zip can be addressed directly within
+        // the package.  Otherwise, it has to be inflated: either unpacked in
+        // a single pass, or staged so its entries can be read on demand (or
+        // unpacked concurrently).
+        if (payloadEntry.getMethod() == ZipEntry.STORED) {
+            ZipDirectory payload;
+            try {
+                payload = archive.openNested(payloadEntry);
+            }
+            catch (IOException e) {
+                errorHandler.reportError(TIPPErrorType.INVALID_PAYLOAD_ZIP,
+                        "Could not read payload zip", e);
+                return;
+            }
+            if (getExtraction() != PayloadExtraction.EAGER) {
+                // The payload now reads from the package itself, so it
+                // gets to decide when to close it.
+                addPayloadResource(data);
+                payloadOwnsData = true;
+            }
+            loadPayload(payload);
+        }
+        else if (getExtraction() == PayloadExtraction.EAGER && getExecutor() == null) {
+            try (ZipInputStream zis = new ZipInputStream(archive.open(payloadEntry))) {
+                expandPayload(zis);
+            }
+        }
+        else {
+            try (InputStream is = archive.open(payloadEntry)) {
+                loadStagedPayload(is);
+            }
+        }
+    }
+
+    @Override
+    void close() throws IOException {
+        if (data != null && !payloadOwnsData) {
+            data.close();
+        }
+    }
+}
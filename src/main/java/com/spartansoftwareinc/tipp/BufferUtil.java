@@ -0,0 +1,94 @@
+package com.spartansoftwareinc.tipp;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helpers for working with (especially direct) byte buffers.
+ * <p>
+ * Note that code in this package calls position/limit/flip through a
+ * {@link java.nio.Buffer} reference.  Newer JDKs override those methods in
+ * ByteBuffer, and calling the overrides would break on older runtimes.
+ */
+class BufferUtil {
+    /**
+     * Size of the direct buffers handed out by {@link #acquire()}.
+     */
+    static final int POOLED_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 16;
+
+    private static final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * Get a cleared direct buffer for copying between channels.  Direct
+     * buffers are expensive to allocate, so a few are kept for reuse.  The
+     * buffer should be given back with {@link #release(ByteBuffer)}.
+     */
+    static ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(POOLED_BUFFER_SIZE);
+        }
+        pooled.decrementAndGet();
+        ((Buffer)buffer).clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer obtained from {@link #acquire()}.
+     */
+    static void release(ByteBuffer buffer) {
+        if (pooled.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            pool.offer(buffer);
+        }
+        else {
+            pooled.decrementAndGet();
+            free(buffer);
+        }
+    }
+
+    /**
+     * Release the native memory behind a direct buffer now, rather than
+     * waiting for the buffer to be garbage collected.  The buffer (and any
+     * views of it) must not be used afterwards.  Heap buffers are ignored,
+     * and if the runtime doesn't give us a way to do this, the buffer is
+     * simply left for the collector.
+     */
+    static void free(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            // Java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        }
+        catch (Exception e) {
+            // Fall through to the older mechanism
+        }
+        try {
+            // Java 7 and 8
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method clean = cleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(cleaner);
+            }
+        }
+        catch (Exception e) {
+            // Leave it to the garbage collector
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only channel over the contents of a buffer.  Closing the channel
+ * does not release the buffer; whoever allocated it is responsible for that.
+ */
+class ByteBufferChannel implements SeekableByteChannel {
+    private ByteBuffer buffer;
+    private int position;
+    private boolean open = true;
+
+    /**
+     * @param buffer buffer whose contents, from 0 to its limit, will be read
+     */
+    ByteBufferChannel(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        if (position >= buffer.limit()) {
+            return -1;
+        }
+        ByteBuffer src = buffer.duplicate();
+        ((Buffer)src).position(position);
+        int count = Math.min(src.remaining(), dst.remaining());
+        ((Buffer)src).limit(position + count);
+        dst.put(src);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        position = (int)Math.min(newPosition, buffer.limit());
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        checkOpen();
+        return buffer.limit();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+    }
+
+    private synchronized void checkOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Decides how each file in the payload is compressed when a package is
+ * saved.  A file can be deflated at any {@link Deflater} level, or stored
+ * without compression using {@link #STORED}.  Levels can be set for a whole
+ * section or for a single file; a file setting takes precedence over its
+ * section, which takes precedence over the default.
+ * <p>
+ * In adaptive mode, files that would otherwise be deflated are sampled
+ * first, and stored instead if the sample looks incompressible (for example,
+ * images or archives that are already compressed).  Files with their own
+ * level are always written at that level.
+ */
+public class CompressionPolicy {
+    /**
+     * Level that stores a file without compressing it.
+     */
+    public static final int STORED = -2;
+
+    /**
+     * Number of bytes sampled from each file in adaptive mode.
+     */
+    static final int SAMPLE_SIZE = 64 * 1024;
+
+    /**
+     * Samples smaller than this aren't worth judging; small files are cheap
+     * to deflate either way.
+     */
+    static final int MIN_SAMPLE_SIZE = 1024;
+
+    /**
+     * Estimated entropy, in bits per byte, above which a sample is considered
+     * incompressible.
+     */
+    static final double INCOMPRESSIBLE_ENTROPY = 7.5;
+
+    private int defaultLevel = Deflater.DEFAULT_COMPRESSION;
+    private boolean defaultLevelSet = false;
+    private Map<TIPPSectionType, Integer> sectionLevels = new EnumMap<>(TIPPSectionType.class);
+    private Map<TIPPSectionType, Map<String, Integer>> fileLevels =
+            new EnumMap<>(TIPPSectionType.class);
+    private boolean adaptive = false;
+
+    public int getDefaultLevel() {
+        return defaultLevel;
+    }
+
+    /**
+     * Set the level for files without a section or file level of their own.
+     * The default is {@link Deflater#DEFAULT_COMPRESSION}.
+     * @param level a {@link Deflater} level, or {@link #STORED}
+     * @return this object
+     */
+    public CompressionPolicy setDefaultLevel(int level) {
+        this.defaultLevel = checkLevel(level);
+        this.defaultLevelSet = true;
+        return this;
+    }
+
+    /**
+     * Set the level for files in a section.
+     * @param sectionType section
+     * @param level a {@link Deflater} level, or {@link #STORED}
+     * @return this object
+     */
+    public CompressionPolicy setSectionLevel(TIPPSectionType sectionType, int level) {
+        if (sectionType == null) {
+            throw new IllegalArgumentException("sectionType must not be null");
+        }
+        sectionLevels.put(sectionType, checkLevel(level));
+        return this;
+    }
+
+    /**
+     * Set the level for a single file.
+     * @param sectionType section containing the file
+     * @param name name of the file within the section
+     * @param level a {@link Deflater} level, or {@link #STORED}
+     * @return this object
+     */
+    public CompressionPolicy setFileLevel(TIPPSectionType sectionType, String name, int level) {
+        if (sectionType == null || name == null) {
+            throw new IllegalArgumentException("sectionType and name must not be null");
+        }
+        Map<String, Integer> levels = fileLevels.get(sectionType);
+        if (levels == null) {
+            levels = new HashMap<>();
+            fileLevels.put(sectionType, levels);
+        }
+        levels.put(name, checkLevel(level));
+        return this;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Sample files before deflating them, and store those that don't look
+     * compressible.  This is off by default.
+     * @param adaptive true to enable adaptive mode
+     * @return this object
+     */
+    public CompressionPolicy setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        return this;
+    }
+
+    /**
+     * Get the configured level for a file, without sampling it.
+     * @param file file
+     * @return a {@link Deflater} level, or {@link #STORED}
+     */
+    public int getLevel(TIPPFile file) {
+        Integer level = getFileLevel(file);
+        if (level != null) {
+            return level;
+        }
+        level = sectionLevels.get(file.getSectionType());
+        return (level != null) ? level : defaultLevel;
+    }
+
+    /**
+     * Choose the level for a file, sampling its contents if necessary.
+     * The stream must support mark/reset; it is left positioned at the
+     * start of the file.
+     */
+    int chooseLevel(TIPPFile file, InputStream is) throws IOException {
+        int level = getLevel(file);
+        if (!adaptive || level == STORED || getFileLevel(file) != null) {
+            return level;
+        }
+        byte[] sample = new byte[SAMPLE_SIZE];
+        is.mark(SAMPLE_SIZE);
+        int length = 0;
+        for (int n; length < sample.length &&
+                (n = is.read(sample, length, sample.length - length)) != -1; ) {
+            length += n;
+        }
+        is.reset();
+        return isIncompressible(sample, length) ? STORED : level;
+    }
+
+    /**
+     * Check whether a file that is already compressed with the given zip
+     * method can be copied as it is, rather than compressed again.  The
+     * original compression level isn't known, so any deflated file is
+     * acceptable where the policy would deflate it.  A stored file is left
+     * alone too, unless a level has been set that applies to it (other than
+     * in adaptive mode, where it may well have been stored for a reason).
+     */
+    boolean canCopy(TIPPFile file, int method) {
+        int level = getLevel(file);
+        if (level == STORED) {
+            return method == ZipEntry.STORED;
+        }
+        if (method == ZipEntry.STORED) {
+            return (adaptive && getFileLevel(file) == null) || !isConfigured(file);
+        }
+        return method == ZipEntry.DEFLATED;
+    }
+
+    private boolean isConfigured(TIPPFile file) {
+        return defaultLevelSet || sectionLevels.containsKey(file.getSectionType()) ||
+               getFileLevel(file) != null;
+    }
+
+    /**
+     * Estimate whether data is worth compressing, from the order-0 entropy
+     * of a sample.  Deflate can't do much with data whose bytes are close to
+     * uniformly distributed.
+     */
+    static boolean isIncompressible(byte[] sample, int length) {
+        if (length < MIN_SAMPLE_SIZE) {
+            return false;
+        }
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[sample[i] & 0xff]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double)count / length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2) > INCOMPRESSIBLE_ENTROPY;
+    }
+
+    private Integer getFileLevel(TIPPFile file) {
+        Map<String, Integer> levels = fileLevels.get(file.getSectionType());
+        return (levels != null) ? levels.get(file.getName()) : null;
+    }
+
+    private static int checkLevel(int level) {
+        if (level != STORED && level != Deflater.DEFAULT_COMPRESSION &&
+                (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        return level;
+    }
+}
@@ -0,0 +1,321 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * {@link PackageStore} that keeps a single copy of identical content,
+ * however many packages it appears in.  Resources are identified by the
+ * SHA-256 digest of their content, and the copies themselves are held by
+ * another store (by default, a {@link TempFileStore}).
+ * <p>
+ * Each copy is reference counted.  When the last resource for it is closed,
+ * the copy is kept around in case the same content turns up again, until
+ * the total size of everything held exceeds the store's budget; copies no
+ * longer in use are then discarded, least recently used first.  Copies that
+ * are in use are never discarded, so the budget can be exceeded while they
+ * are open.
+ * <p>
+ * Content passed as a stream has to be read in full to be identified, so a
+ * duplicate costs the time it takes to read, but it doesn't take any more
+ * space.  Payload files are passed with the CRC-32 and size from the
+ * archive's central directory (see
+ * {@link PackageStore#store(Contents, long, long, String)}), which pick out
+ * a candidate among the copies already held.  The CRC-32 and size come from
+ * the package and aren't a digest, so a candidate is only used once its
+ * content has been compared byte for byte with the file; that costs a read
+ * of both, but nothing is written.  Files with no matching candidate are
+ * stored as usual.  A single store can be shared by any number of factories
+ * and builders.
+ */
+public class ContentAddressedStore implements PackageStore {
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private PackageStore blobStore;
+    private long maxCachedBytes;
+    // Copies by digest, with the least recently used first
+    private Map<String, Blob> blobs = new LinkedHashMap<>(16, 0.75f, true);
+    // Copies by the CRC-32 of their content
+    private Map<Long, List<Blob>> blobsByCrc = new HashMap<>();
+    private long storedBytes = 0;
+
+    private static class Blob {
+        String key;
+        long crc;
+        StoredResource resource;
+        int refs;
+    }
+
+    /**
+     * Create a store that holds its copies in temporary files in the system
+     * temporary directory.
+     * @param maxCachedBytes the most data to keep once it is no longer in use,
+     *        in bytes
+     */
+    public ContentAddressedStore(long maxCachedBytes) {
+        this(new TempFileStore(), maxCachedBytes);
+    }
+
+    /**
+     * @param blobStore store that holds the copies
+     * @param maxCachedBytes the most data to keep once it is no longer in use,
+     *        in bytes
+     */
+    public ContentAddressedStore(PackageStore blobStore, long maxCachedBytes) {
+        if (blobStore == null) {
+            throw new IllegalArgumentException("blobStore can't be null");
+        }
+        if (maxCachedBytes < 0) {
+            throw new IllegalArgumentException("Invalid budget: " + maxCachedBytes);
+        }
+        this.blobStore = blobStore;
+        this.maxCachedBytes = maxCachedBytes;
+    }
+
+    public long getMaxCachedBytes() {
+        return maxCachedBytes;
+    }
+
+    /**
+     * @return the total size of the copies currently held, in bytes
+     */
+    public synchronized long getStoredBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * @return the number of distinct copies currently held
+     */
+    public synchronized int getBlobCount() {
+        return blobs.size();
+    }
+
+    @Override
+    public StoredResource store(InputStream is, String name) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        // We don't know what the content is until we've read it all, so it
+        // goes into the blob store either way.
+        CRC32 crc = new CRC32();
+        StoredResource copy = blobStore.store(
+                new DigestInputStream(new CheckedInputStream(is, crc), digest), name);
+        String key = toHex(digest.digest());
+        Blob blob;
+        boolean duplicate;
+        synchronized (this) {
+            blob = blobs.get(key);
+            duplicate = (blob != null);
+            if (!duplicate) {
+                blob = new Blob();
+                blob.key = key;
+                blob.crc = crc.getValue();
+                blob.resource = copy;
+                blobs.put(key, blob);
+                List<Blob> sameCrc = blobsByCrc.get(blob.crc);
+                if (sameCrc == null) {
+                    sameCrc = new ArrayList<>(1);
+                    blobsByCrc.put(blob.crc, sameCrc);
+                }
+                sameCrc.add(blob);
+                storedBytes += copy.getSize();
+            }
+            blob.refs++;
+        }
+        if (duplicate) {
+            copy.close();
+        }
+        else {
+            evict();
+        }
+        return new BlobResource(blob);
+    }
+
+    /**
+     * Use a copy already held if one has the given CRC-32 and size and the
+     * same content; otherwise the contents are opened and stored as usual.
+     */
+    @Override
+    public StoredResource store(Contents contents, long crc, long size, String name)
+                    throws IOException {
+        Blob blob = (crc >= 0 && size >= 0) ? acquire(crc, size) : null;
+        if (blob != null) {
+            boolean same = false;
+            try {
+                same = sameContents(contents, blob);
+            }
+            finally {
+                if (!same) {
+                    release(blob);
+                }
+            }
+            if (same) {
+                return new BlobResource(blob);
+            }
+        }
+        try (InputStream is = contents.open()) {
+            return store(is, name);
+        }
+    }
+
+    /**
+     * Find a copy with the given CRC-32 and size, and take a reference to it.
+     */
+    private synchronized Blob acquire(long crc, long size) {
+        List<Blob> sameCrc = blobsByCrc.get(crc);
+        if (sameCrc != null) {
+            for (Blob blob : sameCrc) {
+                if (blob.resource.getSize() == size) {
+                    blob.refs++;
+                    // Mark it as recently used
+                    blobs.get(blob.key);
+                    return blob;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean sameContents(Contents contents, Blob blob) throws IOException {
+        try (InputStream expected = blob.resource.openInputStream();
+             InputStream actual = contents.open()) {
+            byte[] expectedBuf = new byte[8192];
+            byte[] actualBuf = new byte[8192];
+            while (true) {
+                int count = expected.read(expectedBuf);
+                if (count == -1) {
+                    return actual.read() == -1;
+                }
+                int offset = 0;
+                while (offset < count) {
+                    int read = actual.read(actualBuf, offset, count - offset);
+                    if (read == -1) {
+                        return false;
+                    }
+                    offset += read;
+                }
+                for (int i = 0; i < count; i++) {
+                    if (expectedBuf[i] != actualBuf[i]) {
+                        return false;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Discard every copy that is not in use.
+     */
+    public void clear() throws IOException {
+        evict(0);
+    }
+
+    private void evict() throws IOException {
+        evict(maxCachedBytes);
+    }
+
+    private void evict(long budget) throws IOException {
+        List<StoredResource> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Blob> it = blobs.values().iterator();
+            while (storedBytes > budget && it.hasNext()) {
+                Blob blob = it.next();
+                if (blob.refs == 0) {
+                    it.remove();
+                    List<Blob> sameCrc = blobsByCrc.get(blob.crc);
+                    sameCrc.remove(blob);
+                    if (sameCrc.isEmpty()) {
+                        blobsByCrc.remove(blob.crc);
+                    }
+                    storedBytes -= blob.resource.getSize();
+                    evicted.add(blob.resource);
+                }
+            }
+        }
+        // Closing a copy may mean deleting a file, so don't hold the lock
+        IOException failure = null;
+        for (StoredResource resource : evicted) {
+            try {
+                resource.close();
+            }
+            catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void release(Blob blob) throws IOException {
+        synchronized (this) {
+            blob.refs--;
+        }
+        evict();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+              .append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * One reference to a shared copy.
+     */
+    private class BlobResource implements StoredResource {
+        private Blob blob;
+        private boolean closed = false;
+
+        BlobResource(Blob blob) {
+            this.blob = blob;
+        }
+
+        @Override
+        public long getSize() {
+            return blob.resource.getSize();
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            return blob.resource.openInputStream();
+        }
+
+        @Override
+        public SeekableByteChannel openChannel() throws IOException {
+            return blob.resource.openChannel();
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release(blob);
+        }
+    }
+}
@@ -3,6 +3,11 @@ package com.spartansoftwareinc.tipp;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -14,15 +19,23 @@ import java.util.zip.ZipInputStream;
 class FileUtil {
 
     static Path copyToTemp(InputStream is, String prefix, String suffix) throws IOException {
-        Path temp = Files.createTempFile(prefix, suffix);
-        Files.copy(is, temp, StandardCopyOption.REPLACE_EXISTING);
-        return temp;
+        return copyToTemp(is, Files.createTempFile(prefix, suffix));
     }
 
     static Path copyToTemp(InputStream is, Path parent, String prefix, String suffix) throws IOException {
-        Path temp = Files.createTempFile(parent, prefix, suffix);
-        Files.copy(is, temp, StandardCopyOption.REPLACE_EXISTING);
-        return temp;
+        return copyToTemp(is, Files.createTempFile(parent, prefix, suffix));
+    }
+
+    private static Path copyToTemp(InputStream is, Path temp) throws IOException {
+        try {
+            Files.copy(is, temp, StandardCopyOption.REPLACE_EXISTING);
+            return temp;
+        }
+        catch (IOException | RuntimeException e) {
+            // Don't leave a partial copy behind
+            Files.deleteIfExists(temp);
+            throw e;
+        }
     }
 
     static ZipInputStream getZipInputStream(InputStream inputStream) 
@@ -66,4 +79,93 @@ class FileUtil {
         }
         os.flush();
     }
+
+    /**
+     * Copy the rest of a channel's contents to another channel.  File
+     * channels hand the work to {@link FileChannel#transferTo} or
+     * {@link FileChannel#transferFrom}, which can avoid copying the data
+     * through user space altogether; buffers in memory are written out
+     * directly.  Anything else is copied through a pooled direct buffer.
+     * Leave both channels open afterwards.
+     * @return the number of bytes copied
+     */
+    static long transfer(ReadableByteChannel src, WritableByteChannel dst) throws IOException {
+        long total = 0;
+        if (src instanceof FileChannel) {
+            FileChannel fc = (FileChannel)src;
+            long position = fc.position();
+            long size = fc.size();
+            while (position < size) {
+                long n = fc.transferTo(position, size - position, dst);
+                if (n <= 0) {
+                    // The target isn't taking any more this way; copy
+                    // the rest by hand
+                    fc.position(position);
+                    break;
+                }
+                position += n;
+                total += n;
+            }
+            if (position >= size) {
+                fc.position(position);
+                return total;
+            }
+        }
+        else if (src instanceof ByteBufferChannel) {
+            ByteBufferChannel bc = (ByteBufferChannel)src;
+            ByteBuffer view = bc.getBuffer().duplicate();
+            ((Buffer)view).position((int)Math.min(bc.position(), view.limit()));
+            total = view.remaining();
+            while (view.hasRemaining()) {
+                dst.write(view);
+            }
+            bc.position(view.limit());
+            return total;
+        }
+        else if (dst instanceof FileChannel) {
+            FileChannel fc = (FileChannel)dst;
+            long position = fc.position();
+            for (long n; (n = fc.transferFrom(src, position, BufferUtil.POOLED_BUFFER_SIZE)) > 0; ) {
+                position += n;
+                total += n;
+            }
+            fc.position(position);
+            return total;
+        }
+        ByteBuffer buffer = BufferUtil.acquire();
+        try {
+            while (src.read(buffer) != -1) {
+                ((Buffer)buffer).flip();
+                total += buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    dst.write(buffer);
+                }
+                ((Buffer)buffer).clear();
+            }
+        }
+        finally {
+            BufferUtil.release(buffer);
+        }
+        return total;
+    }
+
+    /**
+     * Copy contents of an input stream to a channel.  Leave both open
+     * afterwards.
+     * @return the number of bytes copied
+     */
+    static long copyStreamToChannel(InputStream is, WritableByteChannel dst) throws IOException {
+        byte[] bytes = new byte[8192];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long total = 0;
+        for (int read = is.read(bytes); read != -1; read = is.read(bytes)) {
+            ((Buffer)buffer).clear();
+            ((Buffer)buffer).limit(read);
+            while (buffer.hasRemaining()) {
+                dst.write(buffer);
+            }
+            total += read;
+        }
+        return total;
+    }
 }
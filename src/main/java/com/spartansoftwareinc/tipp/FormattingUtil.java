@@ -18,6 +18,15 @@ class FormattingUtil {
         }
     }
 
+    /**
+     * Return a canonical copy of a string that is likely to be repeated
+     * across many manifests (locales, creator and tool details), so that
+     * manifests held in memory share a single copy.
+     */
+    static String intern(String s) {
+        return (s != null) ? s.intern() : null;
+    }
+
     static Date parseTIPPDate(String dateString) {
         try {
             SimpleDateFormat df = new SimpleDateFormat(FORMAT);
@@ -0,0 +1,69 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link PackageStore} that keeps small resources on the heap, and hands
+ * anything larger than a threshold to another store (by default, a
+ * {@link TempFileStore}).  Only up to the threshold is ever buffered, so
+ * large resources cost no more memory than small ones.
+ */
+public class HybridStore implements PackageStore {
+    private int threshold;
+    private PackageStore spillStore;
+
+    /**
+     * Create a store that spills resources larger than the threshold to
+     * temporary files in the system temporary directory.
+     * @param threshold largest resource to keep in memory, in bytes
+     */
+    public HybridStore(int threshold) {
+        this(threshold, new TempFileStore());
+    }
+
+    /**
+     * @param threshold largest resource to keep in memory, in bytes
+     * @param spillStore store for resources larger than the threshold
+     */
+    public HybridStore(int threshold, PackageStore spillStore) {
+        if (threshold < 0 || threshold == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid threshold: " + threshold);
+        }
+        if (spillStore == null) {
+            throw new IllegalArgumentException("spillStore can't be null");
+        }
+        this.threshold = threshold;
+        this.spillStore = spillStore;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public PackageStore getSpillStore() {
+        return spillStore;
+    }
+
+    @Override
+    public StoredResource store(InputStream is, String name) throws IOException {
+        // Read one byte past the threshold, so we know which side of
+        // it we're on
+        ByteArrayOutputStream head = new ByteArrayOutputStream(Math.min(threshold + 1, 8192));
+        byte[] chunk = new byte[8192];
+        int wanted = threshold + 1;
+        while (head.size() < wanted) {
+            int read = is.read(chunk, 0, Math.min(chunk.length, wanted - head.size()));
+            if (read == -1) {
+                return new MemoryStore.BufferResource(ByteBuffer.wrap(head.toByteArray()));
+            }
+            head.write(chunk, 0, read);
+        }
+        return spillStore.store(new SequenceInputStream(
+                new ByteArrayInputStream(head.toByteArray()), is), name);
+    }
+}
@@ -0,0 +1,92 @@
+package com.spartansoftwareinc.tipp;
+
+/**
+ * A set of ints, for keeping track of sequence numbers without boxing
+ * each one.  Sequence numbers are usually dense, but nothing stops a
+ * manifest from using very large ones, so this is an open-addressed hash
+ * table rather than a bit set.
+ */
+class IntSet {
+    // 0 marks an empty slot, so it is tracked separately
+    private static final int EMPTY = 0;
+
+    private int[] slots;
+    private int size = 0;
+    private boolean hasEmpty = false;
+
+    IntSet() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize the number of values the set is expected to hold
+     */
+    IntSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2 && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        slots = new int[capacity];
+    }
+
+    /**
+     * Add a value.
+     * @return true if the value was added, false if it was already present
+     */
+    boolean add(int value) {
+        if (value == EMPTY) {
+            if (hasEmpty) {
+                return false;
+            }
+            hasEmpty = true;
+            size++;
+            return true;
+        }
+        int i = indexOf(slots, value);
+        if (slots[i] == value) {
+            return false;
+        }
+        slots[i] = value;
+        size++;
+        // Keep the table no more than half full
+        if (size * 2 > slots.length) {
+            grow();
+        }
+        return true;
+    }
+
+    boolean contains(int value) {
+        if (value == EMPTY) {
+            return hasEmpty;
+        }
+        return slots[indexOf(slots, value)] == value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Find the slot holding a value, or the empty slot where it belongs.
+     */
+    private static int indexOf(int[] slots, int value) {
+        int mask = slots.length - 1;
+        // Spread the bits, since sequence numbers are mostly consecutive
+        int h = value * 0x9E3779B9;
+        int i = (h ^ (h >>> 16)) & mask;
+        while (slots[i] != EMPTY && slots[i] != value) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        int[] old = slots;
+        slots = new int[old.length * 2];
+        for (int value : old) {
+            if (value != EMPTY) {
+                slots[indexOf(slots, value)] = value;
+            }
+        }
+    }
+}
@@ -1,18 +1,29 @@
 package com.spartansoftwareinc.tipp;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumMap;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
-class Manifest {
-    private TIPPTask task;
-    private String packageId;
-    private TIPPCreator creator;
-    private boolean isRequest;
-    private EnumMap<TIPPSectionType, TIPPSection> sections = new EnumMap<>(TIPPSectionType.class);
-    private Map<TIPPFile, String> locationMap = new HashMap<>();
+/**
+ * The contents of a package manifest.  Manifests can't be changed once
+ * built, and are kept compact, since applications may hold many of them:
+ * rather than a map from every file to its location, the locations are
+ * kept in arrays that line up with each section's files.
+ */
+class Manifest implements TIPPManifest {
+    private final TIPPTask task;
+    private final String packageId;
+    private final TIPPCreator creator;
+    private final boolean isRequest;
+    private final EnumMap<TIPPSectionType, TIPPSection> sections;
+    private final Collection<TIPPSection> sectionValues;
+    // Locations of each section's files, in the same order as the files
+    private final EnumMap<TIPPSectionType, String[]> locations =
+            new EnumMap<>(TIPPSectionType.class);
+    private int hash;
 
     Manifest(String packageId, TIPPCreator creator, TIPPTask task, boolean isRequest,
              EnumMap<TIPPSectionType, TIPPSection> sections,
@@ -21,11 +32,20 @@ class Manifest {
         this.isRequest = isRequest;
         this.packageId = packageId;
         this.creator = creator;
-        this.sections = sections;
-        this.locationMap = locationMap;
+        this.sections = new EnumMap<>(sections);
+        this.sectionValues = Collections.unmodifiableCollection(this.sections.values());
+        for (TIPPSection section : this.sections.values()) {
+            List<? extends TIPPFile> files = section.getFileResources();
+            String[] sectionLocations = new String[files.size()];
+            for (int i = 0; i < sectionLocations.length; i++) {
+                sectionLocations[i] = locationMap.get(files.get(i));
+            }
+            locations.put(section.getType(), sectionLocations);
+        }
     }
 
-    boolean isRequest() {
+    @Override
+    public boolean isRequest() {
         return isRequest;
     }
 
@@ -33,20 +53,42 @@ class Manifest {
         return task;
     }
 
-    String getPackageId() {
+    @Override
+    public String getPackageId() {
         return packageId;
     }
 
-    TIPPCreator getCreator() {
+    @Override
+    public TIPPCreator getCreator() {
         return creator;
     }
 
+    @Override
+    public TIPPTaskType getTaskType() {
+        return task.getTaskType();
+    }
+
+    @Override
+    public String getSourceLocale() {
+        return task.getSourceLocale();
+    }
+
+    @Override
+    public String getTargetLocale() {
+        return task.getTargetLocale();
+    }
+
     boolean hasSection(TIPPSectionType type) {
         return sections.containsKey(type);
     }
 
     String getLocationForFile(TIPPFile file) {
-        return locationMap.get(file);
+        TIPPSection section = sections.get(file.getSectionType());
+        if (section == null) {
+            return null;
+        }
+        int i = section.indexOf(file);
+        return (i < 0) ? null : locations.get(section.getType())[i];
     }
 
     /**
@@ -55,7 +97,8 @@ class Manifest {
      * @return object section for the specified section type, or
      *         null if no section with that type exists in the TIPP
      */
-    TIPPSection getSection(TIPPSectionType type) {
+    @Override
+    public TIPPSection getSection(TIPPSectionType type) {
         return sections.get(type);
     }
 
@@ -63,8 +106,9 @@ class Manifest {
      * Return a collection of all non-empty sections.
      * @return (possibly empty) collection of sections that each contain at least one resource
      */
-    Collection<TIPPSection> getSections() {
-        return sections.values();
+    @Override
+    public Collection<TIPPSection> getSections() {
+        return sectionValues;
     }
 
     TIPPReferenceSection getReferenceSection() {
@@ -79,13 +123,18 @@ class Manifest {
         return Objects.equals(getPackageId(), m.getPackageId()) &&
                Objects.equals(getCreator(), m.getCreator()) &&
                Objects.equals(getTask(), m.getTask()) &&
-               Objects.equals(getSections(), m.getSections());
+               Objects.equals(sections.values(), m.sections.values());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(getPackageId(), getCreator(),
-                            getTask(), getSections());
+        int h = hash;
+        if (h == 0) {
+            h = Objects.hash(getPackageId(), getCreator(),
+                             getTask(), sections.values());
+            hash = h;
+        }
+        return h;
     }
 
     @Override
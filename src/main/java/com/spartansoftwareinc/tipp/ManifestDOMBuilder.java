@@ -1,7 +1,6 @@
 package com.spartansoftwareinc.tipp;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.w3c.dom.Document;
@@ -31,12 +30,9 @@ class ManifestDOMBuilder {
             "http://schema.interoperability-now.org/tipp/1_5/";
     
     Document makeDocument() throws ParserConfigurationException {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        // Namespaces are required for xml-dsig
-        factory.setNamespaceAware(true);
-        DocumentBuilder docBuilder = factory.newDocumentBuilder();
-        Document document = docBuilder.newDocument();
-        Element root = document.createElement(MANIFEST);
+        // The engine's parsers are namespace-aware, as xml-dsig requires
+        Document document = XMLEngine.get().getDocumentBuilder().newDocument();
+        Element root = document.createElementNS(TIPP_NAMESPACE, MANIFEST);
         // QUESTIONABLE: I'm disabling writing out the schema location, because
         // a) it is causes havoc with the xml-dsig signing, for some reason, and
         // b) it's only meant to be a hint anyways.
@@ -45,7 +41,7 @@ class ManifestDOMBuilder {
         root.appendChild(makeDescriptor(document));
         root.appendChild(taskToElement(manifest.getTask(), manifest.isRequest(), document));
         root.appendChild(makePackageObjects(document));
-        root.setAttribute("xmlns", TIPP_NAMESPACE);
+        root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns", TIPP_NAMESPACE);
         root.setAttribute(ATTR_VERSION, SCHEMA_VERSION);
         document.appendChild(root);
         return document;
@@ -61,12 +57,12 @@ class ManifestDOMBuilder {
     }
 
     private Element requestTaskToElement(TIPPTask task, Document doc) {
-        Element requestEl = doc.createElement(TASK_REQUEST);
+        Element requestEl = doc.createElementNS(TIPP_NAMESPACE, TASK_REQUEST);
         return addTaskData(task, doc, requestEl);
     }
 
     Element responseTaskToElement(TIPPTaskResponse task, Document doc) {
-        Element responseEl = doc.createElement(TASK_RESPONSE);
+        Element responseEl = doc.createElementNS(TIPP_NAMESPACE, TASK_RESPONSE);
         responseEl.appendChild(makeInResponseTo(task, doc));
         appendElementChildWithText(doc, responseEl,
                 TaskResponse.MESSAGE, task.getMessage().toString());
@@ -77,7 +73,7 @@ class ManifestDOMBuilder {
     }
 
     private Element makeInResponseTo(TIPPTaskResponse task, Document doc) {
-        Element inReEl = doc.createElement(TaskResponse.IN_RESPONSE_TO);
+        Element inReEl = doc.createElementNS(TIPP_NAMESPACE, TaskResponse.IN_RESPONSE_TO);
         addTaskData(task, doc, inReEl);
         appendElementChildWithText(doc, inReEl, UNIQUE_PACKAGE_ID, task.getRequestPackageId());
         inReEl.appendChild(creatorToElement(task.getRequestCreator(), doc));
@@ -92,7 +88,7 @@ class ManifestDOMBuilder {
     }
 
     private Element makeDescriptor(Document doc) {
-        Element descriptor = doc.createElement(GLOBAL_DESCRIPTOR);
+        Element descriptor = doc.createElementNS(TIPP_NAMESPACE, GLOBAL_DESCRIPTOR);
         appendElementChildWithText(doc,
                 descriptor, UNIQUE_PACKAGE_ID, manifest.getPackageId());
         descriptor.appendChild(creatorToElement(manifest.getCreator(), doc));
@@ -100,7 +96,7 @@ class ManifestDOMBuilder {
     }
 
     private Element creatorToElement(TIPPCreator creator, Document doc) {
-        Element creatorEl = doc.createElement(PACKAGE_CREATOR);
+        Element creatorEl = doc.createElementNS(TIPP_NAMESPACE, PACKAGE_CREATOR);
         appendElementChildWithText(doc, creatorEl, Creator.NAME, creator.getName());
         appendElementChildWithText(doc, creatorEl, Creator.ID, creator.getId());
         appendElementChildWithText(doc, creatorEl, Creator.UPDATE, FormattingUtil.writeTIPPDate(creator.getDate()));
@@ -109,7 +105,7 @@ class ManifestDOMBuilder {
     }
 
     private Element toolToElement(TIPPTool tool, Document doc) {
-        Element toolEl = doc.createElement(TOOL);
+        Element toolEl = doc.createElementNS(TIPP_NAMESPACE, TOOL);
         appendElementChildWithText(doc, toolEl, ContributorTool.NAME, tool.getName());
         appendElementChildWithText(doc, toolEl, ContributorTool.ID, tool.getId());
         appendElementChildWithText(doc, toolEl, ContributorTool.VERSION, tool.getVersion());
@@ -117,7 +113,7 @@ class ManifestDOMBuilder {
     }
 
     private Element makePackageObjects(Document doc) {
-        Element objects = doc.createElement(PACKAGE_OBJECTS);
+        Element objects = doc.createElementNS(TIPP_NAMESPACE, PACKAGE_OBJECTS);
         for (TIPPSection section : manifest.getSections()) {
             objects.appendChild(sectionToElement(section, doc));
         }
@@ -125,7 +121,7 @@ class ManifestDOMBuilder {
     }
 
     private Element sectionToElement(TIPPSection section, Document doc) {
-        Element sectionEl = doc.createElement(section.getType().getElementName());
+        Element sectionEl = doc.createElementNS(TIPP_NAMESPACE, section.getType().getElementName());
         sectionEl.setAttribute(ATTR_SECTION_NAME, section.getType().getElementName());
         for (TIPPFile resource : section.getFileResources()) {
             if (resource.getType() == TIPPResourceType.REFERENCE_FILE) {
@@ -145,7 +141,7 @@ class ManifestDOMBuilder {
     }
 
     private Element fileToElement(TIPPFile file, Document doc) {
-        return addFileChildren(file, doc, doc.createElement(FILE_RESOURCE));
+        return addFileChildren(file, doc, doc.createElementNS(TIPP_NAMESPACE, FILE_RESOURCE));
     }
 
     private Element addFileChildren(TIPPFile file, Document doc, Element resourceElement) {
@@ -155,7 +151,7 @@ class ManifestDOMBuilder {
     }
 
     private Element referenceFileToElement(TIPPReferenceFile file, Document doc) {
-        Element el = doc.createElement(REFERENCE_FILE_RESOURCE);
+        Element el = doc.createElementNS(TIPP_NAMESPACE, REFERENCE_FILE_RESOURCE);
         if (file.getLanguageChoice() != null) {
             el.setAttribute(ObjectFile.ATTR_LANGUAGE_CHOICE, file.getLanguageChoice().name());
         }
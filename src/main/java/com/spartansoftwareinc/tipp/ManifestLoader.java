@@ -14,37 +14,32 @@ import static com.spartansoftwareinc.tipp.TIPPErrorType.DUPLICATE_RESOURCE_SEQUE
 import static com.spartansoftwareinc.tipp.TIPPErrorType.INVALID_RESOURCE_LOCATION_IN_MANIFEST;
 import static com.spartansoftwareinc.tipp.TIPPErrorType.INVALID_SIGNATURE;
 import static com.spartansoftwareinc.tipp.TIPPErrorType.UNABLE_TO_VERIFY_SIGNATURE;
-import static com.spartansoftwareinc.tipp.XMLUtil.getChildTextByName;
-import static com.spartansoftwareinc.tipp.XMLUtil.getFirstChildByName;
-import static com.spartansoftwareinc.tipp.XMLUtil.getFirstChildElement;
-import static com.spartansoftwareinc.tipp.XMLUtil.getTextContent;
 import static javax.xml.XMLConstants.W3C_XML_SCHEMA_NS_URI;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import javax.xml.crypto.KeySelector;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.crypto.MarshalException;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureException;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.dom.DOMSource;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
 
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.w3c.dom.ls.DOMImplementationLS;
 import org.w3c.dom.ls.LSInput;
 import org.w3c.dom.ls.LSResourceResolver;
@@ -57,13 +52,47 @@ import com.spartansoftwareinc.tipp.TIPPConstants.Task;
 import com.spartansoftwareinc.tipp.TIPPConstants.TaskResponse;
 import com.spartansoftwareinc.tipp.TIPPReferenceFile.LanguageChoice;
 
+/**
+ * Loads a manifest.  The manifest is read in a single forward pass with a
+ * StAX reader, and checked against the schema by a streaming validator, so
+ * no DOM is built for it; the only exception is a signed manifest being
+ * verified, since verification needs the whole document.
+ */
 class ManifestLoader {
     static final String XMLDSIG_SCHEMA_URI = 
             "http://www.w3.org/TR/xmldsig-core/xmldsig-core-schema.xsd";
     static final String XMLDSIG_NS_PREFIX =
             "http://www.w3.org/2000/09/xmldsig#";
     
+    // The compiled schema is thread-safe, and expensive enough to build that
+    // it's shared by every load.  Validators aren't thread-safe, so each
+    // thread gets its own.
+    private static Schema schema;
+    private static final ThreadLocal<Validator> validators = new ThreadLocal<>();
+
     private TIPPErrorHandler errorHandler;
+    private ValidationLevel validationLevel = ValidationLevel.FULL;
+    private boolean allowSHA1Signatures = false;
+    // What a deferred validation needs from the load
+    private byte[] deferredBytes;
+    private List<TIPPError> deferredErrors;
+    // Number of signature elements seen while reading
+    private int signatureCount;
+
+    /**
+     * Set which checks are made.  With {@link ValidationLevel#DEFERRED},
+     * they are left for {@link #validateDeferred}.
+     */
+    void setValidationLevel(ValidationLevel validationLevel) {
+        this.validationLevel = validationLevel;
+    }
+
+    /**
+     * @see TIPPFactory#setAllowSHA1Signatures(boolean)
+     */
+    void setAllowSHA1Signatures(boolean allowSHA1Signatures) {
+        this.allowSHA1Signatures = allowSHA1Signatures;
+    }
 
     Manifest loadFromStream(InputStream manifestStream, TIPPErrorHandler errorHandler)
             throws IOException {
@@ -78,29 +107,105 @@ class ManifestLoader {
                     "Package contained no manifest", null);
             return null;
         }
-        this.errorHandler = errorHandler;
+        // The manifest is read more than once, so hold on to it
+        byte[] bytes;
         try {
-            Document document = parse(manifestStream);
-            if (document == null) {
-                return null;
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            FileUtil.copyStreamToStream(manifestStream, os);
+            bytes = os.toByteArray();
+        }
+        finally {
+            manifestStream.close();
+        }
+        // Anything reported while reading is held back until we know the
+        // manifest is valid, as it would be if the schema were checked first.
+        CollectingErrorHandler readErrors = new CollectingErrorHandler();
+        this.errorHandler = readErrors;
+        Manifest manifest = null;
+        RuntimeException readFailure = null;
+        try {
+            manifest = read(bytes);
+        }
+        catch (XMLStreamException e) {
+            errorHandler.reportError(TIPPErrorType.CORRUPT_MANIFEST, "Could not parse manifest", e);
+            return null;
+        }
+        catch (RuntimeException e) {
+            // Most likely the manifest is invalid, which we'll find out next
+            readFailure = e;
+        }
+        this.errorHandler = errorHandler;
+        // Validate the schema
+        boolean checkSchema = (validationLevel == ValidationLevel.FULL);
+        if (checkSchema && !validate(bytes)) {
+            return null;
+        }
+        if (readFailure != null) {
+            if (checkSchema) {
+                throw readFailure;
             }
-            // Validate the schema
-            if (!validate(document)) {
+            // We didn't look, but it can't have been valid
+            errorHandler.reportError(TIPPErrorType.INVALID_MANIFEST, "Invalid manifest", readFailure);
+            return null;
+        }
+        // Validate the XML Signature if we are given a key
+        if (signatureCount > 1) {
+            // A manifest is only ever signed once, in its descriptor.  Any
+            // other signature (perhaps nested in the signature's own
+            // Object, where the schema allows anything) could only be there
+            // to confuse verification.
+            errorHandler.reportError(INVALID_SIGNATURE,
+                    "Manifest has more than one digital signature", null);
+            return null;
+        }
+        if (signatureCount == 1) {
+            if (keySelector == null) {
+                // The manifest has a signature, but we're not able to 
+                // validate it because no key was provided by the user.
+                errorHandler.reportError(UNABLE_TO_VERIFY_SIGNATURE,
+                        "No key provided to verify digital signature", null);
                 return null;
             }
-            // Validate the XML Signature if we are given a key
-            if (!validateSignature(document, keySelector, payloadStream)) {
-                return null;
+            try {
+                Document document = parse(new ByteArrayInputStream(bytes));
+                if (document == null || !validateSignature(document, keySelector, payloadStream)) {
+                    return null;
+                }
+            }
+            catch (ParserConfigurationException e) {
+                throw new RuntimeException(e);
             }
-            Manifest manifest = loadManifest(document);
-            // Extra validation
-            validateManifest(manifest);
-            return manifest;
         }
-        catch (ParserConfigurationException e) {
-            throw new RuntimeException(e);
+        if (validationLevel == ValidationLevel.DEFERRED) {
+            deferredBytes = bytes;
+            deferredErrors = readErrors.getErrors();
+        }
+        else if (validationLevel != ValidationLevel.NONE) {
+            checkManifest(manifest, readErrors.getErrors());
         }
-    }    
+        return manifest;
+    }
+
+    /**
+     * Make the checks put off by loading with {@link ValidationLevel#DEFERRED}.
+     * @return false if the manifest is not valid against the schema
+     */
+    boolean validateDeferred(Manifest manifest, TIPPErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+        if (!validate(deferredBytes)) {
+            return false;
+        }
+        checkManifest(manifest, deferredErrors);
+        return true;
+    }
+
+    private void checkManifest(Manifest manifest, List<TIPPError> readErrors) {
+        for (TIPPError e : readErrors) {
+            errorHandler.reportError(e.getErrorType(), e.getMessage(), e.getException());
+        }
+        // Extra validation
+        validateManifest(manifest);
+    }
 
     private void validateManifest(Manifest manifest) {
         TIPPTaskType taskType = manifest.getTask().getTaskType();
@@ -117,99 +222,206 @@ class ManifestLoader {
     }
 
     private void checkSectionForDuplicateSequence(TIPPSection section) {
-        Set<Integer> seen = new HashSet<Integer>();
+        // The resources are sorted by sequence, so duplicates are adjacent
+        boolean first = true;
+        int previous = 0;
         for (TIPPFile r : section.getFileResources()) {
-            if (seen.contains(r.getSequence())) {
+            if (!first && r.getSequence() == previous) {
                 errorHandler.reportError(DUPLICATE_RESOURCE_SEQUENCE_IN_MANIFEST,
                         "Duplicate sequence number in " + section.getType().getElementName() +
                         ": " + r.getSequence(), null);
             }
-            seen.add(r.getSequence());
+            first = false;
+            previous = r.getSequence();
         }
     }
 
-    private Manifest loadManifest(Document document) {
-        ManifestBuilder builder = new ManifestBuilder();
-        Element manifestEl = getFirstChildElement(document);
-        loadDescriptor(builder, getFirstChildByName(manifestEl, GLOBAL_DESCRIPTOR));
-        // Either load the request or the response, depending on which is
-        // present
-        loadTaskRequestOrResponse(builder, manifestEl);
-        
-        loadPackageObjects(builder, getFirstChildByName(manifestEl, PACKAGE_OBJECTS));
-        return builder.build();
+    private Manifest read(byte[] bytes) throws XMLStreamException {
+        XMLStreamReader r = XMLEngine.get().getXMLInputFactory().createXMLStreamReader(
+                new ByteArrayInputStream(bytes));
+        try {
+            signatureCount = 0;
+            ManifestBuilder builder = new ManifestBuilder();
+            if (!nextChild(r)) {
+                throw new XMLStreamException("No document element");
+            }
+            while (nextChild(r)) {
+                String name = r.getLocalName();
+                if (name.equals(GLOBAL_DESCRIPTOR)) {
+                    loadDescriptor(builder, r);
+                }
+                else if (name.equals(TASK_REQUEST)) {
+                    loadTaskRequest(builder, r);
+                }
+                else if (name.equals(TASK_RESPONSE)) {
+                    loadTaskResponse(builder, r);
+                }
+                else if (name.equals(PACKAGE_OBJECTS)) {
+                    loadPackageObjects(builder, r);
+                }
+                else {
+                    skip(r);
+                }
+            }
+            // Make sure the rest of the document is well-formed
+            while (r.hasNext()) {
+                r.next();
+            }
+            return builder.build();
+        }
+        finally {
+            r.close();
+        }
     }
 
-    private void loadDescriptor(ManifestBuilder builder, Element descriptor) {
-        builder.setPackageId(getChildTextByName(descriptor, UNIQUE_PACKAGE_ID));
-        builder.setCreator(loadCreator(getFirstChildByName(descriptor, PACKAGE_CREATOR)));
+    private void loadDescriptor(ManifestBuilder builder, XMLStreamReader r)
+                    throws XMLStreamException {
+        while (nextChild(r)) {
+            String name = r.getLocalName();
+            if (name.equals(UNIQUE_PACKAGE_ID)) {
+                builder.setPackageId(readText(r));
+            }
+            else if (name.equals(PACKAGE_CREATOR)) {
+                builder.setCreator(loadCreator(r));
+            }
+            else {
+                skip(r);
+            }
+        }
     }
 
-    private TIPPCreator loadCreator(Element creatorEl) {
-        TIPPCreator creator = new TIPPCreator(
-                getChildTextByName(creatorEl, Creator.NAME),
-                getChildTextByName(creatorEl, Creator.ID),
-                loadDate(getFirstChildByName(creatorEl, Creator.UPDATE)),
-                loadTool(getFirstChildByName(creatorEl, TOOL)));
-        return creator;
+    private TIPPCreator loadCreator(XMLStreamReader r) throws XMLStreamException {
+        String name = null, id = null, date = null;
+        TIPPTool tool = null;
+        while (nextChild(r)) {
+            String el = r.getLocalName();
+            if (el.equals(Creator.NAME)) {
+                name = readText(r);
+            }
+            else if (el.equals(Creator.ID)) {
+                id = readText(r);
+            }
+            else if (el.equals(Creator.UPDATE)) {
+                date = readText(r);
+            }
+            else if (el.equals(TOOL)) {
+                tool = loadTool(r);
+            }
+            else {
+                skip(r);
+            }
+        }
+        return new TIPPCreator(name, id, FormattingUtil.parseTIPPDate(date), tool);
     }
 
-    private void loadTaskRequestOrResponse(ManifestBuilder builder, Element descriptor) {
-        Element requestEl = getFirstChildByName(descriptor, TASK_REQUEST);
-        if (requestEl != null) {
-            loadTaskRequest(builder, requestEl);
-        }
-        else {
-            loadTaskResponse(builder, getFirstChildByName(descriptor, TASK_RESPONSE));
+    private TIPPTool loadTool(XMLStreamReader r) throws XMLStreamException {
+        String name = null, id = null, version = null;
+        while (nextChild(r)) {
+            String el = r.getLocalName();
+            if (el.equals(ContributorTool.NAME)) {
+                name = readText(r);
+            }
+            else if (el.equals(ContributorTool.ID)) {
+                id = readText(r);
+            }
+            else if (el.equals(ContributorTool.VERSION)) {
+                version = readText(r);
+            }
+            else {
+                skip(r);
+            }
         }
+        return new TIPPTool(name, id, version);
     }
 
-    private void loadTask(ManifestBuilder builder, Element taskEl) {
-        builder.setSourceLocale(getChildTextByName(taskEl, Task.SOURCE_LANGUAGE));
-        builder.setTargetLocale(getChildTextByName(taskEl, Task.TARGET_LANGUAGE));
-        builder.setTaskType(getChildTextByName(taskEl, Task.TYPE));
+    /**
+     * Load a field common to requests and responses.
+     * @return false if the current element isn't one
+     */
+    private boolean loadTaskField(ManifestBuilder builder, XMLStreamReader r)
+                    throws XMLStreamException {
+        String name = r.getLocalName();
+        if (name.equals(Task.SOURCE_LANGUAGE)) {
+            builder.setSourceLocale(readText(r));
+        }
+        else if (name.equals(Task.TARGET_LANGUAGE)) {
+            builder.setTargetLocale(readText(r));
+        }
+        else if (name.equals(Task.TYPE)) {
+            builder.setTaskType(readText(r));
+        }
+        else {
+            return false;
+        }
+        return true;
     }
 
-    private void loadTaskRequest(ManifestBuilder builder, Element requestEl) {
-        loadTask(builder, requestEl);
+    private void loadTaskRequest(ManifestBuilder builder, XMLStreamReader r)
+                    throws XMLStreamException {
         builder.setIsRequest(true);
+        while (nextChild(r)) {
+            if (!loadTaskField(builder, r)) {
+                skip(r);
+            }
+        }
     }
 
-    private void loadTaskResponse(ManifestBuilder builder, Element responseEl) {
-        loadTask(builder, responseEl);
+    private void loadTaskResponse(ManifestBuilder builder, XMLStreamReader r)
+                    throws XMLStreamException {
         builder.setIsRequest(false);
-        Element inResponseTo = getFirstChildByName(responseEl, 
-                                TaskResponse.IN_RESPONSE_TO);
-        builder.setRequestPackageId(getChildTextByName(inResponseTo, UNIQUE_PACKAGE_ID));
-        builder.setRequestCreator(loadCreator(getFirstChildByName(inResponseTo, PACKAGE_CREATOR)));
-        builder.setComment(getChildTextByName(responseEl, TaskResponse.COMMENT));
-        String rawMessage = getChildTextByName(responseEl, TaskResponse.MESSAGE);
-        TIPPResponseCode msg = TIPPResponseCode.fromSchemaValue(rawMessage);
-        builder.setResponseCode(msg);
-    }
-
-    private Date loadDate(Element dateNode) {
-        return FormattingUtil.parseTIPPDate(getTextContent(dateNode));
+        while (nextChild(r)) {
+            if (loadTaskField(builder, r)) {
+                continue;
+            }
+            String name = r.getLocalName();
+            if (name.equals(TaskResponse.IN_RESPONSE_TO)) {
+                loadInResponseTo(builder, r);
+            }
+            else if (name.equals(TaskResponse.COMMENT)) {
+                builder.setComment(readText(r));
+            }
+            else if (name.equals(TaskResponse.MESSAGE)) {
+                builder.setResponseCode(TIPPResponseCode.fromSchemaValue(readText(r)));
+            }
+            else {
+                skip(r);
+            }
+        }
     }
 
-    private TIPPTool loadTool(Element toolEl) {
-        TIPPTool tool = new TIPPTool(
-                getChildTextByName(toolEl, ContributorTool.NAME),
-                getChildTextByName(toolEl, ContributorTool.ID),
-                getChildTextByName(toolEl, ContributorTool.VERSION));
-        return tool;
+    private void loadInResponseTo(ManifestBuilder builder, XMLStreamReader r)
+                    throws XMLStreamException {
+        while (nextChild(r)) {
+            // The task being responded to is described here
+            if (loadTaskField(builder, r)) {
+                continue;
+            }
+            String name = r.getLocalName();
+            if (name.equals(UNIQUE_PACKAGE_ID)) {
+                builder.setRequestPackageId(readText(r));
+            }
+            else if (name.equals(PACKAGE_CREATOR)) {
+                builder.setRequestCreator(loadCreator(r));
+            }
+            else {
+                skip(r);
+            }
+        }
     }
 
-    private void loadPackageObjects(ManifestBuilder builder, Element parent) {
-        NodeList children = parent.getChildNodes();
+    private void loadPackageObjects(ManifestBuilder builder, XMLStreamReader r)
+                    throws XMLStreamException {
         EnumSet<TIPPSectionType> seenSections = EnumSet.noneOf(TIPPSectionType.class);
         // parse all the sections
         Map<TIPPFile, String> locationMap = new HashMap<>();
-        for (int i = 0; i < children.getLength(); i++) {
-            if (children.item(i).getNodeType() != Node.ELEMENT_NODE) {
+        while (nextChild(r)) {
+            TIPPSectionType type = TIPPSectionType.byElementName(r.getLocalName());
+            if (type == null) {
+                // The schema won't allow this
+                skip(r);
                 continue;
             }
-            TIPPSection section = loadPackageObjectSection((Element)children.item(i), errorHandler, locationMap);
+            TIPPSection section = loadPackageObjectSection(type, r, locationMap);
             // Don't allow duplicate sections
             if (seenSections.contains(section.getType())) {
                 errorHandler.reportError(TIPPErrorType.DUPLICATE_SECTION_IN_MANIFEST, 
@@ -224,7 +436,7 @@ class ManifestLoader {
 
     static class Sequences {
         private int nextSequence = 1;
-        private Set<Integer> seenSequences = new HashSet<>();
+        private IntSet seenSequences = new IntSet();
 
         int see(int sequence) {
             seenSequences.add(sequence);
@@ -240,78 +452,131 @@ class ManifestLoader {
         }
     }
 
-    private TIPPSection loadPackageObjectSection(Element section,
-            TIPPErrorHandler errorHandler, Map<TIPPFile, String> locationMap) {
-        TIPPSectionType type = 
-                TIPPSectionType.byElementName(section.getNodeName());
-        if (type == null) {
-            throw new IllegalStateException("Invalid section element"); // Should never happen
-        }
+    private TIPPSection loadPackageObjectSection(TIPPSectionType type, XMLStreamReader r,
+            Map<TIPPFile, String> locationMap) throws XMLStreamException {
         List<TIPPFile> resources = new ArrayList<>();
         Sequences sequences = new Sequences();
-        if (type.equals(TIPPSectionType.REFERENCE)) {
-            NodeList children = section.getElementsByTagName(REFERENCE_FILE_RESOURCE);
-            for (int i = 0; i < children.getLength(); i++) {
-                resources.add(loadReferenceFileResource((Element)children.item(i), type, locationMap, sequences));
+        boolean isReference = type.equals(TIPPSectionType.REFERENCE);
+        String resourceName = isReference ? REFERENCE_FILE_RESOURCE : FILE_RESOURCE;
+        while (nextChild(r)) {
+            if (r.getLocalName().equals(resourceName)) {
+                resources.add(loadFileResource(r, type, isReference, locationMap, sequences));
             }
-        }
-        else {
-            NodeList children = section.getElementsByTagName(FILE_RESOURCE);
-            for (int i = 0; i < children.getLength(); i++) {
-                resources.add(loadFileResource((Element)children.item(i), type, locationMap, sequences));
+            else {
+                skip(r);
             }
         }
-        return type == TIPPSectionType.REFERENCE ? new TIPPReferenceSection(resources) :
+        return isReference ? new TIPPReferenceSection(resources) :
                 new TIPPSection(type, resources);
     }
 
-    private int getSequence(Element el, Sequences sequences) {
+    private TIPPFile loadFileResource(XMLStreamReader r, TIPPSectionType sectionType,
+                                      boolean isReference, Map<TIPPFile, String> locationMap,
+                                      Sequences sequences) throws XMLStreamException {
         // The schema should enforce that this is an integer > 0
-        Integer sequence = FormattingUtil.parseInt(el.getAttribute(ObjectFile.ATTR_SEQUENCE));
-        return (sequence == null) ? sequence = sequences.nextSequence() : sequences.see(sequence);
-    }
-
-    private TIPPReferenceFile loadReferenceFileResource(Element el, TIPPSectionType sectionType,
-                    Map<TIPPFile, String> locationMap, Sequences sequences) {
-        int sequence = getSequence(el, sequences);
-        String location = getChildTextByName(el, ObjectFile.LOCATION);
+        Integer sequence = FormattingUtil.parseInt(r.getAttributeValue(null, ObjectFile.ATTR_SEQUENCE));
+        int seq = (sequence == null) ? sequences.nextSequence() : sequences.see(sequence);
+        LanguageChoice lc = null;
+        if (isReference) {
+            String value = r.getAttributeValue(null, ObjectFile.ATTR_LANGUAGE_CHOICE);
+            if (value != null) {
+                lc = TIPPReferenceFile.LanguageChoice.valueOf(value);
+            }
+        }
+        String location = null, name = null;
+        while (nextChild(r)) {
+            String el = r.getLocalName();
+            if (el.equals(ObjectFile.LOCATION)) {
+                location = readText(r);
+            }
+            else if (el.equals(ObjectFile.NAME)) {
+                name = readText(r);
+            }
+            else {
+                skip(r);
+            }
+        }
         if (!FormattingUtil.validLocationString(sectionType, location)) {
             errorHandler.reportError(INVALID_RESOURCE_LOCATION_IN_MANIFEST,
                             "Invalid location: " + location, null);
         }
-        String name = getChildTextByName(el, ObjectFile.NAME);
         if (name == null) name = location;
-        LanguageChoice lc = null;
-        if (el.hasAttribute(ObjectFile.ATTR_LANGUAGE_CHOICE)) {
-            lc = TIPPReferenceFile.LanguageChoice.valueOf(
-                            el.getAttribute(ObjectFile.ATTR_LANGUAGE_CHOICE));
-        }
-        TIPPReferenceFile file = new TIPPReferenceFile(sectionType, name, sequence, lc);
+        TIPPFile file = isReference ? new TIPPReferenceFile(sectionType, name, seq, lc) :
+                new TIPPFile(sectionType, name, seq);
         locationMap.put(file, location);
         return file;
     }
 
-    private TIPPFile loadFileResource(Element el, TIPPSectionType sectionType, Map<TIPPFile, String> locationMap,
-                                      Sequences sequences) {  
-        int sequence = getSequence(el, sequences);
-        String location = getChildTextByName(el, ObjectFile.LOCATION);
-        if (!FormattingUtil.validLocationString(sectionType, location)) {
-            errorHandler.reportError(INVALID_RESOURCE_LOCATION_IN_MANIFEST,
-                            "Invalid location: " + location, null);
+    /**
+     * Move to the next child element of the current element.
+     * @return true if there is one, false if the end of the current element
+     *         was reached instead
+     */
+    private boolean nextChild(XMLStreamReader r) throws XMLStreamException {
+        while (r.hasNext()) {
+            switch (next(r)) {
+            case XMLStreamConstants.START_ELEMENT:
+                return true;
+            case XMLStreamConstants.END_ELEMENT:
+                return false;
+            }
         }
-        String name = getChildTextByName(el, ObjectFile.NAME);
-        if (name == null) name = location;
-        TIPPFile file = new TIPPFile(sectionType, name, sequence);
-        locationMap.put(file, location);
-        return file;
+        return false;
+    }
+
+    /**
+     * Read the text content of the current element, up to its end, the way
+     * DOM's getTextContent() would, trimmed.
+     */
+    private String readText(XMLStreamReader r) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        for (int depth = 1; depth > 0; ) {
+            switch (next(r)) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                sb.append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+                break;
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * Skip to the end of the current element.
+     */
+    private void skip(XMLStreamReader r) throws XMLStreamException {
+        for (int depth = 1; depth > 0; ) {
+            switch (next(r)) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                break;
+            }
+        }
+    }
+
+    private int next(XMLStreamReader r) throws XMLStreamException {
+        int event = r.next();
+        if (event == XMLStreamConstants.START_ELEMENT &&
+                "Signature".equals(r.getLocalName()) &&
+                XMLSignature.XMLNS.equals(r.getNamespaceURI())) {
+            signatureCount++;
+        }
+        return event;
     }
 
     Document parse(InputStream is) throws ParserConfigurationException, IOException {
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            return builder.parse(is);
+            return XMLEngine.get().getDocumentBuilder().parse(is);
         }
         catch (Exception e) {
             errorHandler.reportError(TIPPErrorType.CORRUPT_MANIFEST, "Could not parse manifest", e);
@@ -322,43 +587,15 @@ class ManifestLoader {
         }
     }
 
-    boolean validate(final Document dom) {
+    boolean validate(byte[] manifest) {
         try {
-            InputStream is = 
-                getClass().getResourceAsStream("/TIPPManifest-1_5.xsd");
-            SchemaFactory factory = 
-                SchemaFactory.newInstance(W3C_XML_SCHEMA_NS_URI);
-            factory.setResourceResolver(new LSResourceResolver() {
-                public LSInput resolveResource(String type, String namespaceURI, 
-                        String publicId, String systemId, String baseURI)  {
-                    LSInput input = ((DOMImplementationLS)dom
-                            .getImplementation()).createLSInput();
-                    if (("TIPPCommon.xsd".equals(systemId) && W3C_XML_SCHEMA_NS_URI.equals(type)) ||
-                         COMMON_SCHEMA_LOCATION.equalsIgnoreCase(baseURI)) {
-                        input.setByteStream(getClass().getResourceAsStream("/TIPPCommon-1_5.xsd"));
-                    }
-                    else if (XMLDSIG_SCHEMA_URI.equalsIgnoreCase(baseURI) ||
-                        XMLDSIG_NS_PREFIX.equalsIgnoreCase(namespaceURI)) {
-                        input.setByteStream(getClass().getResourceAsStream("/xmldsig-core-schema.xsd"));
-                    }
-                    else if ("http://www.w3.org/2001/XMLSchema.dtd".equals(baseURI) ||
-                             "http://www.w3.org/2001/XMLSchema.dtd".equals(systemId)) {
-                        input.setByteStream(getClass().getResourceAsStream("/XMLSchema.dtd"));
-                    }
-                    else if ("datatypes.dtd".equals(systemId)) {
-                        input.setByteStream(getClass().getResourceAsStream("/datatypes.dtd"));
-                    }
-                    else {
-                        return null;
-                    }
-                    return input;
-                }
-            });
-            Schema schema = factory.newSchema(new StreamSource(is));
-            // need an errorHandler.reportError handler
-            Validator validator = schema.newValidator();
-            validator.validate(new DOMSource(dom));
-            is.close();
+            Validator validator = getValidator();
+            try {
+                validator.validate(new StreamSource(new ByteArrayInputStream(manifest)));
+            }
+            finally {
+                validator.reset();
+            }
             return true;
         }
         catch (SAXException | IOException e) {
@@ -367,16 +604,86 @@ class ManifestLoader {
         }
     }
 
+    private static Validator getValidator() throws SAXException {
+        Validator validator = validators.get();
+        if (validator == null) {
+            validator = getSchema().newValidator();
+            validators.set(validator);
+        }
+        return validator;
+    }
+
+    /**
+     * Get the manifest schema, compiling it the first time it is needed.
+     */
+    static synchronized Schema getSchema() throws SAXException {
+        if (schema == null) {
+            schema = compileSchema();
+        }
+        return schema;
+    }
+
+    private static Schema compileSchema() throws SAXException {
+        final DOMImplementationLS ls;
+        try {
+            ls = (DOMImplementationLS)XMLEngine.get().getDocumentBuilder().getDOMImplementation();
+        }
+        catch (ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+        final Class<?> base = ManifestLoader.class;
+        SchemaFactory factory = 
+            SchemaFactory.newInstance(W3C_XML_SCHEMA_NS_URI);
+        factory.setResourceResolver(new LSResourceResolver() {
+            public LSInput resolveResource(String type, String namespaceURI, 
+                    String publicId, String systemId, String baseURI)  {
+                LSInput input = ls.createLSInput();
+                if (("TIPPCommon.xsd".equals(systemId) && W3C_XML_SCHEMA_NS_URI.equals(type)) ||
+                     COMMON_SCHEMA_LOCATION.equalsIgnoreCase(baseURI)) {
+                    input.setByteStream(base.getResourceAsStream("/TIPPCommon-1_5.xsd"));
+                }
+                else if (XMLDSIG_SCHEMA_URI.equalsIgnoreCase(baseURI) ||
+                    XMLDSIG_NS_PREFIX.equalsIgnoreCase(namespaceURI)) {
+                    input.setByteStream(base.getResourceAsStream("/xmldsig-core-schema.xsd"));
+                }
+                else if ("http://www.w3.org/2001/XMLSchema.dtd".equals(baseURI) ||
+                         "http://www.w3.org/2001/XMLSchema.dtd".equals(systemId)) {
+                    input.setByteStream(base.getResourceAsStream("/XMLSchema.dtd"));
+                }
+                else if ("datatypes.dtd".equals(systemId)) {
+                    input.setByteStream(base.getResourceAsStream("/datatypes.dtd"));
+                }
+                else {
+                    return null;
+                }
+                return input;
+            }
+        });
+        try (InputStream is = base.getResourceAsStream("/TIPPManifest-1_5.xsd")) {
+            return factory.newSchema(new StreamSource(is));
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
     boolean validateSignature(final Document doc,
                            KeySelector keySelector,
                            InputStream payloadStream) {
-        ManifestSigner signer = new ManifestSigner();
+        ManifestSigner signer = new ManifestSigner().setAllowSHA1(allowSHA1Signatures);
         if (signer.hasSignature(doc)) {
             if (keySelector != null) {
-                if (!signer.validateSignature(doc, keySelector,
-                            payloadStream)) {
-                    errorHandler.reportError(INVALID_SIGNATURE, 
-                            "Invalid digital signature", null);
+                try {
+                    if (!signer.validateSignature(doc, keySelector,
+                                payloadStream)) {
+                        errorHandler.reportError(INVALID_SIGNATURE, 
+                                "Invalid digital signature", null);
+                        return false;
+                    }
+                }
+                catch (MarshalException | XMLSignatureException e) {
+                    errorHandler.reportError(INVALID_SIGNATURE,
+                            "Could not verify digital signature", e);
                     return false;
                 }
             }
@@ -5,9 +5,9 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.KeyException;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 import javax.xml.crypto.Data;
@@ -36,18 +36,56 @@ import javax.xml.crypto.dsig.SignatureMethod;
 import javax.xml.crypto.dsig.dom.DOMValidateContext;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 class ManifestSigner {
-    
+    /**
+     * Algorithm (in {@link java.security.MessageDigest} terms) for the payload
+     * digest.
+     */
+    static final String PAYLOAD_DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * The same digest algorithm, in xml-dsig terms.
+     */
+    private static final String DIGEST_METHOD = DigestMethod.SHA256;
+
+    private static final String SECURE_VALIDATION = "org.jcp.xml.dsig.secureValidation";
+
     XMLSignatureFactory factory;
+    private boolean allowSHA1 = false;
     
     ManifestSigner() {
         factory = XMLSignatureFactory.getInstance("DOM"); 
     }
 
+    /**
+     * Accept signatures made with SHA-1, as packages were once signed.
+     * The JDK's secure validation refuses SHA-1, and can only be turned
+     * off as a whole, so this also gives up its other protections (such as
+     * its limits on transforms and references) for those signatures.
+     */
+    ManifestSigner setAllowSHA1(boolean allowSHA1) {
+        this.allowSHA1 = allowSHA1;
+        return this;
+    }
+
     void sign(Document manifest, InputStream payload, KeyPair kp) {
+        sign(manifest, payload, null, kp);
+    }
+
+    /**
+     * Sign a manifest using a digest of the payload that was computed
+     * ahead of time (with {@link #PAYLOAD_DIGEST_ALGORITHM}), rather than
+     * reading the payload again.
+     */
+    void sign(Document manifest, byte[] payloadDigest, KeyPair kp) {
+        sign(manifest, null, payloadDigest, kp);
+    }
+
+    private void sign(Document manifest, InputStream payload, byte[] payloadDigest, KeyPair kp) {
         try {            
             // In accordance with the schema, place it last in the 
             // <GlobalDescriptor>
@@ -57,13 +95,20 @@ class ManifestSigner {
             transforms.add(factory.newTransform(Transform.ENVELOPED, (TransformParameterSpec)null));
             transforms.add(factory.newTransform(CanonicalizationMethod.EXCLUSIVE, (TransformParameterSpec)null));
             Reference ref = factory.newReference
-                    ("", factory.newDigestMethod(DigestMethod.SHA1, null),
+                    ("", factory.newDigestMethod(DIGEST_METHOD, null),
                       transforms, null, null); 
             List<Reference> refs = new ArrayList<Reference>();
             refs.add(ref);
-            if (payload != null) {
+            if (payloadDigest != null) {
+                // A reference with a digest value is already digested, so the
+                // payload won't be dereferenced
+                refs.add(factory.newReference(PackageBase.PAYLOAD_FILE,
+                        factory.newDigestMethod(DIGEST_METHOD, null),
+                        new ArrayList<Transform>(), null, null, payloadDigest));
+            }
+            else if (payload != null) {
                 Reference payloadRef = factory.newReference(PackageBase.PAYLOAD_FILE,
-                        factory.newDigestMethod(DigestMethod.SHA1, null),
+                        factory.newDigestMethod(DIGEST_METHOD, null),
                         new ArrayList<Transform>(),
 //                        Collections.singletonList(
                                 //factory.newTransform(Transform.BASE64, (TransformParameterSpec)null)),
@@ -74,7 +119,7 @@ class ManifestSigner {
                     (factory.newCanonicalizationMethod
                         (CanonicalizationMethod.EXCLUSIVE,
                         (C14NMethodParameterSpec) null),
-                        factory.newSignatureMethod(SignatureMethod.DSA_SHA1, null),
+                        factory.newSignatureMethod(getSignatureMethod(kp.getPublic()), null),
                       refs);
             KeyInfoFactory kif = factory.getKeyInfoFactory(); 
             KeyValue kv = kif.newKeyValue(kp.getPublic());
@@ -92,6 +137,20 @@ class ManifestSigner {
         }
     }
     
+    private static String getSignatureMethod(PublicKey key) {
+        switch (key.getAlgorithm()) {
+        case "DSA":
+            return SignatureMethod.DSA_SHA256;
+        case "RSA":
+            return SignatureMethod.RSA_SHA256;
+        case "EC":
+            return SignatureMethod.ECDSA_SHA256;
+        default:
+            throw new IllegalArgumentException("Unsupported key algorithm: " +
+                                               key.getAlgorithm());
+        }
+    }
+
     class TIPPUriDereferencer implements URIDereferencer {
         private InputStream is;
         public TIPPUriDereferencer(InputStream is) {
@@ -118,39 +177,41 @@ class ManifestSigner {
      *        only working with a manifest.)
      * @return true if validation succeeds or if no signature was present,
      *         false if validation failed
-     * @throws MarshalException 
-     * @throws XMLSignatureException 
+     * @throws MarshalException if the signature can't be read, or uses an
+     *         algorithm that isn't allowed
+     * @throws XMLSignatureException if the signature can't be checked
      */
     boolean validateSignature(Document doc, KeySelector keySelector, 
-                              InputStream payloadStream) {
-        try {
-            Node sig = findSignatureElement(doc);
-            if (sig == null) return true;
-            
-            DOMValidateContext valContext = 
-                    new DOMValidateContext(keySelector, sig);
-            valContext.setURIDereferencer(new TIPPUriDereferencer(payloadStream));
-            XMLSignature signature =
-                    factory.unmarshalXMLSignature(valContext);
-            boolean success = signature.validate(valContext);
-            if (!success) {
-                // Debug: if validation fails, see where things went wrong
-                @SuppressWarnings("rawtypes")
-                Iterator it = signature.getSignedInfo().getReferences().iterator();
-                while (it.hasNext()) {
-                    Reference ref = (Reference)it.next();
-                    boolean valid = ref.validate(valContext);
-                    System.out.println("validating ref " + ref.getURI() + "... " + valid);
-                } 
-            }
-            return success;
+                              InputStream payloadStream)
+                    throws MarshalException, XMLSignatureException {
+        Node sig = findSignatureElement(doc);
+        if (sig == null) return true;
+
+        DOMValidateContext valContext = 
+                new DOMValidateContext(keySelector, sig);
+        valContext.setURIDereferencer(new TIPPUriDereferencer(payloadStream));
+        if (allowSHA1 && usesSHA1((Element)sig)) {
+            valContext.setProperty(SECURE_VALIDATION, Boolean.FALSE);
         }
-        catch (Exception e) { 
-            // Possible exceptions: 
-            // - javax.xml.crypto.MarshalException
-            // - javax.xml.crypto.dsig.XMLSignatureException
-            throw new RuntimeException(e);
+        XMLSignature signature =
+                factory.unmarshalXMLSignature(valContext);
+        return signature.validate(valContext);
+    }
+
+    private static boolean usesSHA1(Element signature) {
+        return hasAlgorithm(signature, "SignatureMethod", SignatureMethod.DSA_SHA1) ||
+               hasAlgorithm(signature, "SignatureMethod", SignatureMethod.RSA_SHA1) ||
+               hasAlgorithm(signature, "DigestMethod", DigestMethod.SHA1);
+    }
+
+    private static boolean hasAlgorithm(Element signature, String name, String algorithm) {
+        NodeList nl = signature.getElementsByTagNameNS(XMLSignature.XMLNS, name);
+        for (int i = 0; i < nl.getLength(); i++) {
+            if (algorithm.equals(((Element)nl.item(i)).getAttribute("Algorithm"))) {
+                return true;
+            }
         }
+        return false;
     }
     
     boolean hasSignature(Document doc) {
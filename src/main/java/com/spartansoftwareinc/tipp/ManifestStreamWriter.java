@@ -0,0 +1,186 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.spartansoftwareinc.tipp.TIPPConstants.ContributorTool;
+import com.spartansoftwareinc.tipp.TIPPConstants.Creator;
+import com.spartansoftwareinc.tipp.TIPPConstants.ObjectFile;
+import com.spartansoftwareinc.tipp.TIPPConstants.Task;
+import com.spartansoftwareinc.tipp.TIPPConstants.TaskResponse;
+
+import static com.spartansoftwareinc.tipp.TIPPConstants.*;
+
+/**
+ * Write a manifest straight to a stream with StAX, without building a DOM
+ * tree first.  This produces the same bytes as serializing the document
+ * from {@link ManifestDOMBuilder} with the identity transformer, so the
+ * two can be used interchangeably; the DOM is only still needed when the
+ * manifest is signed.
+ * <p>
+ * To match the transformer, the XML declaration is written by hand (StAX
+ * has no way to write <code>standalone="no"</code>), and the characters the
+ * transformer writes as character references, which a StAX writer would
+ * write as they are, are written as entity references.
+ */
+class ManifestStreamWriter {
+    private static final byte[] XML_DECLARATION =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private Manifest manifest;
+    private XMLStreamWriter writer;
+
+    ManifestStreamWriter(Manifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Write the manifest.  The stream is flushed, but not closed.
+     */
+    void write(OutputStream os) throws IOException, XMLStreamException {
+        os.write(XML_DECLARATION);
+        writer = XMLEngine.get().getXMLOutputFactory().createXMLStreamWriter(os, "UTF-8");
+        try {
+            writer.writeStartElement(MANIFEST);
+            writer.writeDefaultNamespace(ManifestDOMBuilder.TIPP_NAMESPACE);
+            writer.writeAttribute(ATTR_VERSION, SCHEMA_VERSION);
+            writeDescriptor();
+            if (manifest.isRequest()) {
+                writeRequestTask(manifest.getTask());
+            }
+            else {
+                writeResponseTask((TIPPTaskResponse)manifest.getTask());
+            }
+            writePackageObjects();
+            writer.writeEndElement();
+            writer.flush();
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    private void writeDescriptor() throws XMLStreamException {
+        writer.writeStartElement(GLOBAL_DESCRIPTOR);
+        writeElementWithText(UNIQUE_PACKAGE_ID, manifest.getPackageId());
+        writeCreator(manifest.getCreator());
+        writer.writeEndElement();
+    }
+
+    private void writeCreator(TIPPCreator creator) throws XMLStreamException {
+        writer.writeStartElement(PACKAGE_CREATOR);
+        writeElementWithText(Creator.NAME, creator.getName());
+        writeElementWithText(Creator.ID, creator.getId());
+        writeElementWithText(Creator.UPDATE, FormattingUtil.writeTIPPDate(creator.getDate()));
+        TIPPTool tool = creator.getTool();
+        writer.writeStartElement(TOOL);
+        writeElementWithText(ContributorTool.NAME, tool.getName());
+        writeElementWithText(ContributorTool.ID, tool.getId());
+        writeElementWithText(ContributorTool.VERSION, tool.getVersion());
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private void writeRequestTask(TIPPTask task) throws XMLStreamException {
+        writer.writeStartElement(TASK_REQUEST);
+        writeTaskData(task);
+        writer.writeEndElement();
+    }
+
+    private void writeResponseTask(TIPPTaskResponse task) throws XMLStreamException {
+        writer.writeStartElement(TASK_RESPONSE);
+        writer.writeStartElement(TaskResponse.IN_RESPONSE_TO);
+        writeTaskData(task);
+        writeElementWithText(UNIQUE_PACKAGE_ID, task.getRequestPackageId());
+        writeCreator(task.getRequestCreator());
+        writer.writeEndElement();
+        writeElementWithText(TaskResponse.MESSAGE, task.getMessage().toString());
+        writeElementWithText(TaskResponse.COMMENT,
+                task.getComment() != null ? task.getComment() : "");
+        writer.writeEndElement();
+    }
+
+    private void writeTaskData(TIPPTask task) throws XMLStreamException {
+        writeElementWithText(Task.TYPE, task.getTaskType().getTaskURI());
+        writeElementWithText(Task.SOURCE_LANGUAGE, task.getSourceLocale());
+        writeElementWithText(Task.TARGET_LANGUAGE, task.getTargetLocale());
+    }
+
+    private void writePackageObjects() throws XMLStreamException {
+        writer.writeStartElement(PACKAGE_OBJECTS);
+        for (TIPPSection section : manifest.getSections()) {
+            String name = section.getType().getElementName();
+            writer.writeStartElement(name);
+            writer.writeAttribute(ATTR_SECTION_NAME, name);
+            for (TIPPFile file : section.getFileResources()) {
+                writeFile(file);
+            }
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeFile(TIPPFile file) throws XMLStreamException {
+        if (file.getType() == TIPPResourceType.REFERENCE_FILE) {
+            writer.writeStartElement(REFERENCE_FILE_RESOURCE);
+            // The transformer puts attributes in alphabetical order
+            TIPPReferenceFile.LanguageChoice choice =
+                    ((TIPPReferenceFile)file).getLanguageChoice();
+            if (choice != null) {
+                writer.writeAttribute(ObjectFile.ATTR_LANGUAGE_CHOICE, choice.name());
+            }
+        }
+        else {
+            writer.writeStartElement(FILE_RESOURCE);
+        }
+        writer.writeAttribute(ObjectFile.ATTR_SEQUENCE, String.valueOf(file.getSequence()));
+        writeElementWithText(ObjectFile.NAME, file.getName());
+        writeElementWithText(ObjectFile.LOCATION, manifest.getLocationForFile(file));
+        writer.writeEndElement();
+    }
+
+    private void writeElementWithText(String name, String text) throws XMLStreamException {
+        if (text == null || text.isEmpty()) {
+            writer.writeEmptyElement(name);
+            return;
+        }
+        writer.writeStartElement(name);
+        writeText(text);
+        writer.writeEndElement();
+    }
+
+    /**
+     * Write text, escaping it the way the identity transformer does.  The
+     * StAX writer takes care of <code>&amp;</code>, <code>&lt;</code> and
+     * <code>&gt;</code>; control characters (other than tab and newline),
+     * C1 controls and supplementary characters are written as character
+     * references.
+     */
+    private void writeText(String text) throws XMLStreamException {
+        int start = 0;
+        for (int i = 0; i < text.length(); ) {
+            int c = text.codePointAt(i);
+            int length = Character.charCount(c);
+            if (Character.isSurrogate((char)c)) {
+                throw new XMLStreamException("Unpaired surrogate in text: " + text);
+            }
+            if ((c < 0x20 && c != '\t' && c != '\n') ||
+                (c >= 0x7f && c <= 0x9f) || c > 0xffff) {
+                if (i > start) {
+                    writer.writeCharacters(text.substring(start, i));
+                }
+                writer.writeEntityRef("#" + c);
+                start = i + length;
+            }
+            i += length;
+        }
+        if (start < text.length()) {
+            writer.writeCharacters(start == 0 ? text : text.substring(start));
+        }
+    }
+}
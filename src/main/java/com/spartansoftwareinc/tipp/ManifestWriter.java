@@ -5,7 +5,6 @@ import java.io.OutputStream;
 import java.security.KeyPair;
 
 import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
@@ -15,6 +14,7 @@ class ManifestWriter {
 
     private KeyPair keyPair;
     private InputStream payloadStream;
+    private byte[] payloadDigest;
     
     ManifestWriter() {
     }
@@ -34,11 +34,28 @@ class ManifestWriter {
     InputStream getPayload() {
         return payloadStream;
     }
+
+    /**
+     * Set a precomputed digest of the payload, for signing, in place of
+     * the payload itself.
+     * @see ManifestSigner#PAYLOAD_DIGEST_ALGORITHM
+     */
+    void setPayloadDigest(byte[] payloadDigest) {
+        this.payloadDigest = payloadDigest;
+    }
     
     void saveToStream(Manifest manifest, OutputStream saveStream) throws TIPPException { 
         try (InputStream payloadIs = getPayload()) {
+            if (keyPair == null) {
+                // Without a signature there's no need for the whole DOM
+                new ManifestStreamWriter(manifest).write(saveStream);
+                return;
+            }
             Document document = new ManifestDOMBuilder(manifest).makeDocument();
-            if (keyPair != null) {
+            if (payloadDigest != null) {
+                new ManifestSigner().sign(document, payloadDigest, keyPair);
+            }
+            else {
                 new ManifestSigner().sign(document, payloadIs, keyPair);
             }
             CollectingErrorHandler errorHandler = new CollectingErrorHandler();
@@ -47,8 +64,7 @@ class ManifestWriter {
                 // XXX What to do with the errors?
                 throw new TIPPException("Saved manifest was invalid");
             }
-            TransformerFactory factory = TransformerFactory.newInstance();
-            Transformer transformer = factory.newTransformer();
+            Transformer transformer = XMLEngine.get().getTransformer();
             //transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
             // Can't use these or it messes up xml-dsig
             //transformer.setOutputProperty(OutputKeys.INDENT, "yes");
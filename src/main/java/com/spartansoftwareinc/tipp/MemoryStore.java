@@ -0,0 +1,184 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * {@link PackageStore} that keeps resources in memory, either on the heap
+ * or in direct buffers.  Direct buffers are released as soon as their
+ * resource, and every stream and channel opened from it, is closed.  Each
+ * resource is limited to just under 2GB.
+ */
+public class MemoryStore implements PackageStore {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    // Some VMs can't allocate arrays quite as large as Integer.MAX_VALUE
+    static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private boolean direct;
+
+    /**
+     * @param direct true to hold resources in direct (off-heap) buffers,
+     *        false to hold them on the heap
+     */
+    public MemoryStore(boolean direct) {
+        this.direct = direct;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    @Override
+    public StoredResource store(InputStream is, String name) throws IOException {
+        ByteBuffer buffer = allocate(INITIAL_CAPACITY);
+        try {
+            byte[] chunk = new byte[8192];
+            for (int read = is.read(chunk); read != -1; read = is.read(chunk)) {
+                if (buffer.remaining() < read) {
+                    buffer = grow(buffer, read);
+                }
+                buffer.put(chunk, 0, read);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            BufferUtil.free(buffer);
+            throw e;
+        }
+        ((Buffer)buffer).flip();
+        return new BufferResource(buffer);
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private ByteBuffer grow(ByteBuffer buffer, int needed) throws IOException {
+        long capacity = nextCapacity(buffer.capacity(), buffer.position(), needed);
+        if (capacity < 0) {
+            throw new IOException("Resource is too large to hold in memory");
+        }
+        ByteBuffer bigger = allocate((int)capacity);
+        ((Buffer)buffer).flip();
+        bigger.put(buffer);
+        BufferUtil.free(buffer);
+        return bigger;
+    }
+
+    /**
+     * Work out how big a buffer has to grow to hold more data: double its
+     * size, but no larger than {@link #MAX_CAPACITY}.
+     * @return the new capacity, or -1 if the data can't fit in a buffer
+     */
+    static long nextCapacity(int capacity, int position, int needed) {
+        long required = (long)position + needed;
+        if (required > MAX_CAPACITY) {
+            return -1;
+        }
+        return Math.max(Math.min((long)capacity * 2, MAX_CAPACITY), required);
+    }
+
+    /**
+     * A resource held in a buffer.  Streams and channels read the buffer
+     * directly, so it is only freed once the resource and every stream and
+     * channel opened from it have been closed.
+     */
+    static class BufferResource implements StoredResource {
+        private ByteBuffer buffer;
+        private final long size;
+        private int readers = 0;
+        private boolean closed = false;
+
+        BufferResource(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.size = buffer.limit();
+        }
+
+        synchronized ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            ByteBuffer b = acquire();
+            return new RangeInputStream(RandomAccessData.forBuffer(b), 0, b.limit()) {
+                private volatile boolean open = true;
+
+                @Override
+                public int read() throws IOException {
+                    checkOpen();
+                    return super.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    checkOpen();
+                    return super.read(b, off, len);
+                }
+
+                private void checkOpen() throws IOException {
+                    if (!open) {
+                        throw new IOException("Stream closed");
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    synchronized (this) {
+                        if (!open) {
+                            return;
+                        }
+                        open = false;
+                    }
+                    release();
+                }
+            };
+        }
+
+        @Override
+        public SeekableByteChannel openChannel() throws IOException {
+            return new ByteBufferChannel(acquire()) {
+                @Override
+                public synchronized void close() {
+                    if (isOpen()) {
+                        super.close();
+                        release();
+                    }
+                }
+            };
+        }
+
+        private synchronized ByteBuffer acquire() throws IOException {
+            if (closed) {
+                throw new IOException("Resource has been closed");
+            }
+            readers++;
+            return buffer;
+        }
+
+        private synchronized void release() {
+            readers--;
+            freeIfUnused();
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            freeIfUnused();
+        }
+
+        private void freeIfUnused() {
+            if (closed && readers == 0 && buffer != null) {
+                BufferUtil.free(buffer);
+                buffer = null;
+            }
+        }
+    }
+}
@@ -1,11 +1,15 @@
 package com.spartansoftwareinc.tipp;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.FilterOutputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.channels.WritableByteChannel;
+import java.security.DigestOutputStream;
 import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -19,12 +23,41 @@ abstract class PackageBase implements TIPP {
 
     private Payload payload;
     private Manifest manifest;
+    private CompressionPolicy compressionPolicy = new CompressionPolicy();
+    private Runnable deferredValidation;
     
     PackageBase(Payload payload, Manifest manifest) {
         this.payload = payload;
         this.manifest = manifest;
     }
+
+    /**
+     * Set the policy used when saving, unless the save options provide one.
+     */
+    void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
     
+    /**
+     * Set checks to be made the first time a file is read, or when
+     * {@link #validate()} is called.
+     */
+    void setDeferredValidation(Runnable deferredValidation) {
+        this.deferredValidation = deferredValidation;
+    }
+
+    @Override
+    public void validate() {
+        Runnable validation;
+        synchronized (this) {
+            validation = deferredValidation;
+            deferredValidation = null;
+        }
+        if (validation != null) {
+            validation.run();
+        }
+    }
+
     static final String MANIFEST = "manifest.xml";
     static final String PAYLOAD_FILE = "resources.zip";
 
@@ -123,11 +156,30 @@ abstract class PackageBase implements TIPP {
 
     @Override
     public InputStream getFile(TIPPFile file) throws IOException {
+        validate();
         // Does not include section prefix
         String location = getManifest().getLocationForFile(file);
         return payload.getFileObject(file.getSectionType(), location);
     }
 
+    /**
+     * @return the payload entry that holds a file, or null
+     */
+    PayloadEntry getPayloadEntry(TIPPFile file) {
+        String location = getManifest().getLocationForFile(file);
+        return (location != null) ? payload.getEntry(file.getSectionType(), location) : null;
+    }
+
+    @Override
+    public long transferFile(TIPPFile file, WritableByteChannel target) throws IOException {
+        validate();
+        PayloadEntry entry = getPayloadEntry(file);
+        if (entry == null) {
+            throw new FileNotFoundException(file.toString());
+        }
+        return entry.transferTo(target);
+    }
+
     /**
      * Write this package to an output stream as a ZIP archive
      * @param outputStream
@@ -135,7 +187,7 @@ abstract class PackageBase implements TIPP {
      */
     @Override
     public void saveToStream(OutputStream outputStream) throws TIPPException, IOException {
-        saveToStream(new ManifestWriter(), outputStream);
+        saveToStream(outputStream, new TIPPSaveOptions());
     }
 
     /**
@@ -148,72 +200,95 @@ abstract class PackageBase implements TIPP {
      */
     @Override
     public void saveToStream(OutputStream outputStream, KeyPair keyPair) throws TIPPException, IOException {
+        saveToStream(outputStream, new TIPPSaveOptions().setKeyPair(keyPair));
+    }
+
+    @Override
+    public void saveToStream(OutputStream outputStream, TIPPSaveOptions options)
+                    throws TIPPException, IOException {
         ManifestWriter mw = new ManifestWriter();
-        mw.setKeyPair(keyPair);
-        saveToStream(mw, outputStream);
+        mw.setKeyPair(options.getKeyPair());
+        saveToStream(mw, outputStream, options);
     }
 
-    private void saveToStream(ManifestWriter mw, OutputStream outputStream) throws TIPPException, IOException {
-        Path tempPayload = Files.createTempFile("resources", ".zip");
+    private void saveToStream(ManifestWriter mw, OutputStream outputStream,
+                              TIPPSaveOptions options) throws TIPPException, IOException {
+        // Everything is written in a single pass, with resources.zip going
+        // straight into its entry in the package.
         try (ZipOutputStream zos = new ZipOutputStream(outputStream)) {
-            // For some reason writing the zip stream out within another
-            // zip stream gives me strange zip corruption errors.  Write
-            // resources.zip out to a temp file and copy it over.
-            try (OutputStream tempOutputStream = Files.newOutputStream(tempPayload)) {
-                writePayload(tempOutputStream);
+            if (mw.getKeyPair() == null) {
+                // With nothing to sign, put the manifest first, so that
+                // readers can see it without getting through the payload.
+                writeManifest(mw, zos);
+                writePayloadEntry(zos, options, null);
+            }
+            else {
+                // The signature covers the payload, so it has to come first.
+                // Digest it on the way out.
+                MessageDigest digest;
+                try {
+                    digest = MessageDigest.getInstance(ManifestSigner.PAYLOAD_DIGEST_ALGORITHM);
+                }
+                catch (NoSuchAlgorithmException e) {
+                    throw new TIPPException(e);
+                }
+                writePayloadEntry(zos, options, digest);
+                mw.setPayloadDigest(digest.digest());
+                writeManifest(mw, zos);
             }
-
-            // Write out all the parts as an inner archive
-            zos.putNextEntry(new ZipEntry(PAYLOAD_FILE));
-            FileUtil.copyStreamToStream(Files.newInputStream(tempPayload), zos);
-            zos.closeEntry();
-
-            // Now write out the manifest.  We do this last so we can
-            // pass the objects reference.
-            // Add the payload as well, in case we are signing.
-            mw.setPayload(Files.newInputStream(tempPayload));
-            zos.putNextEntry(new ZipEntry(MANIFEST));
-            mw.saveToStream(manifest, zos);
-            zos.closeEntry();
-    
             zos.flush();
         }
-        finally {
-            if (tempPayload != null) {
-                Files.delete(tempPayload);
-            }
+    }
+
+    private void writeManifest(ManifestWriter mw, ZipOutputStream zos)
+                    throws TIPPException, IOException {
+        zos.putNextEntry(new ZipEntry(MANIFEST));
+        mw.saveToStream(manifest, zos);
+        zos.closeEntry();
+    }
+
+    private void writePayloadEntry(ZipOutputStream zos, TIPPSaveOptions options,
+                                   MessageDigest digest) throws IOException {
+        zos.putNextEntry(new ZipEntry(PAYLOAD_FILE));
+        // Writing the payload archive closes the stream it writes to, which
+        // mustn't close the package too.
+        OutputStream os = new EntryOutputStream(zos);
+        if (digest != null) {
+            os = new DigestOutputStream(os, digest);
         }
+        writePayload(os, options);
+        zos.closeEntry();
     }
 
     /**
-     * Create a zip archive of the package objects as a file on disk.
-     * @return 
+     * Passes writes through to a zip entry, but not close().
      */
-    void writePayload(OutputStream os) throws IOException {
-        ZipOutputStream zos = new ZipOutputStream(os);
-        writeZipPayload(zos);
-        zos.close();
+    static class EntryOutputStream extends FilterOutputStream {
+        EntryOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
     }
 
     /**
-     * Write out objects as a zip archive to the specified stream.  
-     * Leaves the output stream open.
-     * @param outputStream
-     * @throws IOException
+     * Write the package objects as a zip archive.  The stream is closed
+     * afterwards.
      */
-    void writeZipPayload(ZipOutputStream zos) throws IOException { 
-        for (TIPPSection section : manifest.getSections()) {
-            for (TIPPFile resource : section.getFileResources()) {
-                String location = manifest.getLocationForFile(resource);
-                String path = Payload.getFilePath(section.getType(), location);
-                zos.putNextEntry(new ZipEntry(path));
-                try (InputStream is = payload.getFileObject(section.getType(), location)) {
-                    FileUtil.copyStreamToStream(is, zos);
-                    zos.closeEntry();
-                }
-            }
-        }
-        zos.flush();
+    void writePayload(OutputStream os, TIPPSaveOptions options) throws IOException {
+        CompressionPolicy policy = (options.getCompressionPolicy() != null) ?
+                options.getCompressionPolicy() : compressionPolicy;
+        PackageStore store = (options.getExecutor() != null) ?
+                options.getPackageStoreOrDefault() : null;
+        new PayloadWriter(options.getExecutor(), store, policy).write(manifest, payload, os);
     }
 
     /**
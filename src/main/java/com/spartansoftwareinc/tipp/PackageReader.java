@@ -2,18 +2,35 @@ package com.spartansoftwareinc.tipp;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.xml.crypto.KeySelector;
 
 class PackageReader {
-    private StreamPackageSource source;
-    PackageReader(StreamPackageSource source) {
+    private PackageSource source;
+    private ValidationLevel validationLevel = ValidationLevel.FULL;
+    private boolean allowSHA1Signatures = false;
+
+    PackageReader(PackageSource source) {
         this.source = source;
     }
 
-    PackageBase load(TIPPErrorHandler errorHandler, KeySelector keySelector) throws IOException {
+    PackageReader setValidationLevel(ValidationLevel validationLevel) {
+        this.validationLevel = validationLevel;
+        return this;
+    }
+
+    PackageReader setAllowSHA1Signatures(boolean allowSHA1Signatures) {
+        this.allowSHA1Signatures = allowSHA1Signatures;
+        return this;
+    }
+
+    PackageBase load(final TIPPErrorHandler errorHandler, KeySelector keySelector) throws IOException {
         try {
-            Manifest manifest = new ManifestLoader().loadFromStream(source.getManifest(), errorHandler);
+            final ManifestLoader loader = new ManifestLoader();
+            loader.setValidationLevel(validationLevel);
+            loader.setAllowSHA1Signatures(allowSHA1Signatures);
+            final Manifest manifest = loadManifest(loader, errorHandler, keySelector);
             if (manifest == null) {
                 return null;
             }
@@ -27,16 +44,50 @@ class PackageReader {
             }
 
             // Verify the manifest against the package contents
-            new PayloadValidator().validate(manifest, source.getPayload(), errorHandler);
+            final Payload payload = source.getPayload();
+            if (validationLevel == ValidationLevel.DEFERRED) {
+                tipp.setDeferredValidation(() -> {
+                    if (loader.validateDeferred(manifest, errorHandler)) {
+                        new PayloadValidator().validate(manifest, payload, errorHandler);
+                    }
+                });
+            }
+            else if (validationLevel != ValidationLevel.NONE) {
+                new PayloadValidator().validate(manifest, payload, errorHandler);
+            }
             return tipp;
         }
+        finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Load just the manifest.  The source is left open.
+     */
+    Manifest loadManifest(TIPPErrorHandler errorHandler) throws IOException {
+        ManifestLoader loader = new ManifestLoader();
+        // There's nothing to defer the checks to
+        loader.setValidationLevel(validationLevel == ValidationLevel.DEFERRED ?
+                ValidationLevel.FULL : validationLevel);
+        return loadManifest(loader, errorHandler, null);
+    }
+
+    /**
+     * @param keySelector key used to verify the package signature, or null
+     */
+    private Manifest loadManifest(ManifestLoader loader, TIPPErrorHandler errorHandler,
+                                  KeySelector keySelector) throws IOException {
+        // The signature covers the payload archive, so that's needed too
+        try (InputStream payloadArchive = (keySelector != null) ?
+                source.getPayloadArchive() : null) {
+            return loader.loadFromStream(source.getManifest(), errorHandler,
+                                         keySelector, payloadArchive);
+        }
         catch (FileNotFoundException e) {
             errorHandler.reportError(TIPPErrorType.MISSING_MANIFEST, 
                                "Package contained no manifest", null);
             throw new ReportedException(e);
         }
-        finally {
-            source.close();
-        }
     }
 }
@@ -0,0 +1,358 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Source of package data for a {@link PackageReader}: the manifest, and
+ * the payload objects it describes.
+ */
+abstract class PackageSource {
+    public static final String SEPARATOR = "/";
+
+    protected TIPPErrorHandler errorHandler;
+    private PayloadExtraction extraction = PayloadExtraction.EAGER;
+    private PackageStore store = new TempFileStore();
+    private ExecutorService executor;
+    private boolean keepPayloadArchive = false;
+    // A staged copy of the payload archive, kept for getPayloadArchive()
+    private StoredResource stagedPayload;
+    private boolean ownsStagedPayload;
+
+    private Map<String, PayloadEntry> payloadEntries = new LinkedHashMap<>();
+    private List<Closeable> payloadResources = new ArrayList<>();
+    private Payload payload;
+
+    PackageSource(TIPPErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    void setExtraction(PayloadExtraction extraction) {
+        this.extraction = extraction;
+    }
+
+    PayloadExtraction getExtraction() {
+        return extraction;
+    }
+
+    /**
+     * Set where unpacked or staged package data is kept.
+     */
+    void setStore(PackageStore store) {
+        this.store = store;
+    }
+
+    PackageStore getStore() {
+        return store;
+    }
+
+    /**
+     * Set an executor to unpack payload entries concurrently during eager
+     * extraction.  If this is null (the default), entries are unpacked one
+     * at a time on the calling thread.
+     */
+    void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set whether the payload archive, as it appears in the package, must
+     * remain available from {@link #getPayloadArchive()} until the source
+     * is closed, so that a signature over it can be checked.
+     */
+    void setKeepPayloadArchive(boolean keepPayloadArchive) {
+        this.keepPayloadArchive = keepPayloadArchive;
+    }
+
+    boolean getKeepPayloadArchive() {
+        return keepPayloadArchive;
+    }
+
+    /**
+     * Open the payload archive as it appears in the package.  Unless the
+     * source can read it again in place, it is only available if it was
+     * kept (see {@link #setKeepPayloadArchive(boolean)}).
+     * @return the archive, or null if there is none available
+     */
+    InputStream getPayloadArchive() throws IOException {
+        return (stagedPayload != null) ? stagedPayload.openInputStream() : null;
+    }
+
+    /**
+     * Whether a staged copy of the payload archive has to be held on to
+     * for {@link #getPayloadArchive()}.  Sources that can read the archive
+     * again in place don't need one.
+     */
+    protected boolean needsStagedPayloadArchive() {
+        return keepPayloadArchive;
+    }
+
+    /**
+     * Discard the copy of the payload archive held for
+     * {@link #getPayloadArchive()}, if there is one.  The payload itself is
+     * not affected.
+     */
+    protected void releasePayloadArchive() throws IOException {
+        StoredResource staged = stagedPayload;
+        stagedPayload = null;
+        if (staged != null && ownsStagedPayload) {
+            staged.close();
+        }
+    }
+
+    /**
+     * Locate (and, depending on the source, unpack) the package contents.
+     * Errors are reported to the error handler; fatal ones also result in
+     * a {@link ReportedException}.
+     */
+    abstract void expand() throws IOException;
+
+    /**
+     * Locate the manifest, but not the payload, reading as little of the
+     * package as possible.  Used instead of {@link #expand()} when only
+     * the manifest is needed.
+     */
+    abstract void expandManifest() throws IOException;
+
+    /**
+     * Open the manifest.
+     * @throws java.io.FileNotFoundException if the package had no manifest
+     */
+    abstract InputStream getManifest() throws IOException;
+
+    Payload getPayload() {
+        if (payload == null) {
+            payload = new Payload(payloadEntries, payloadResources);
+        }
+        return payload;
+    }
+
+    /**
+     * Register something that must stay open for as long as the
+     * payload does.
+     */
+    protected void addPayloadResource(Closeable resource) {
+        payloadResources.add(resource);
+    }
+
+    /**
+     * Load the entries of a random-access payload archive, either by
+     * unpacking them or by referencing them in place, depending on the
+     * extraction mode.  The archive must remain readable until the payload
+     * is closed if extraction is not {@link PayloadExtraction#EAGER}.
+     */
+    protected void loadPayload(ZipDirectory archive) throws IOException {
+        if (extraction == PayloadExtraction.EAGER && executor != null) {
+            extractConcurrently(archive);
+            return;
+        }
+        for (ZipDirectory.Entry entry : archive.getEntries()) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            String name = entry.getName();
+            if (extraction == PayloadExtraction.EAGER) {
+                addExtractedEntry(entry, extractEntry(archive, entry));
+            }
+            else {
+                PayloadEntry e = new PayloadEntry.ArchiveEntry(archive, entry);
+                if (extraction == PayloadExtraction.LAZY_CACHED) {
+                    PayloadEntry.CachedEntry cached = new PayloadEntry.CachedEntry(e, store, name);
+                    addPayloadResource(cached);
+                    e = cached;
+                }
+                payloadEntries.put(name, e);
+            }
+        }
+    }
+
+    /**
+     * Unpack the entries of a payload archive on the executor, but add them
+     * to the payload in archive order, so the result is the same as for
+     * serial extraction.
+     */
+    private void extractConcurrently(final ZipDirectory archive) throws IOException {
+        List<ZipDirectory.Entry> entries = new ArrayList<>();
+        List<Future<StoredResource>> results = new ArrayList<>();
+        for (final ZipDirectory.Entry entry : archive.getEntries()) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            entries.add(entry);
+            results.add(executor.submit(new Callable<StoredResource>() {
+                @Override
+                public StoredResource call() throws IOException {
+                    return extractEntry(archive, entry);
+                }
+            }));
+        }
+        // Collect every result, even after a failure, so that everything
+        // that was stored gets registered (and eventually cleaned up).
+        Throwable failure = null;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                addExtractedEntry(entries.get(i), results.get(i).get());
+            }
+            catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+            catch (InterruptedException e) {
+                // Stop waiting, but keep whatever already finished
+                for (int j = i; j < results.size(); j++) {
+                    Future<StoredResource> result = results.get(j);
+                    if (!result.cancel(true) && !result.isCancelled()) {
+                        try {
+                            addExtractedEntry(entries.get(j), result.get());
+                        }
+                        catch (ExecutionException | InterruptedException ignored) {
+                        }
+                    }
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while unpacking payload");
+            }
+        }
+        if (failure instanceof IOException) {
+            throw (IOException)failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error)failure;
+        }
+    }
+
+    /**
+     * Store an archive entry, passing along the CRC-32 and size from the
+     * central directory so a store that already holds the content doesn't
+     * need to inflate it.
+     */
+    private StoredResource extractEntry(ZipDirectory archive, ZipDirectory.Entry entry)
+                    throws IOException {
+        return store.store(() -> archive.open(entry), entry.getCrc(), entry.getSize(),
+                           entry.getName());
+    }
+
+    private void addExtractedEntry(ZipDirectory.Entry entry, StoredResource resource) {
+        addPayloadResource(resource);
+        payloadEntries.put(entry.getName(), new PayloadEntry.StoredEntry(resource));
+    }
+
+    /**
+     * Copy a payload archive into the store and load it from there.  The
+     * copy is discarded once it is no longer needed: immediately, for eager
+     * extraction, or otherwise when the payload is closed.
+     */
+    protected void loadStagedPayload(InputStream is) throws IOException {
+        StoredResource staged = store.store(is, PackageBase.PAYLOAD_FILE);
+        if (extraction == PayloadExtraction.EAGER) {
+            try {
+                if (executor == null) {
+                    try (ZipInputStream zis = new ZipInputStream(staged.openInputStream())) {
+                        expandPayload(zis);
+                    }
+                }
+                else {
+                    // Concurrent extraction needs random access to the entries
+                    try (RandomAccessData data = RandomAccessData.forChannel(staged.openChannel())) {
+                        ZipDirectory archive = readPayloadArchive(data);
+                        if (archive != null) {
+                            loadPayload(archive);
+                        }
+                    }
+                }
+            }
+            finally {
+                if (needsStagedPayloadArchive()) {
+                    stagedPayload = staged;
+                    ownsStagedPayload = true;
+                }
+                else {
+                    staged.close();
+                }
+            }
+            return;
+        }
+        addPayloadResource(staged);
+        if (needsStagedPayloadArchive()) {
+            // The payload owns this one
+            stagedPayload = staged;
+            ownsStagedPayload = false;
+        }
+        RandomAccessData data = RandomAccessData.forChannel(staged.openChannel());
+        addPayloadResource(data);
+        ZipDirectory archive = readPayloadArchive(data);
+        if (archive != null) {
+            loadPayload(archive);
+        }
+    }
+
+    /**
+     * @return the payload archive, or null if it couldn't be read (which
+     *         is reported)
+     */
+    private ZipDirectory readPayloadArchive(RandomAccessData data) throws IOException {
+        try {
+            return ZipDirectory.read(data);
+        }
+        catch (IOException e) {
+            errorHandler.reportError(TIPPErrorType.INVALID_PAYLOAD_ZIP,
+                    "Could not read payload zip", e);
+            return null;
+        }
+    }
+
+    /**
+     * Unpack the entries of a payload archive into the store.
+     * The stream is read to the end but not closed.
+     */
+    protected void expandPayload(ZipInputStream zis) throws IOException {
+        for (ZipEntry entry = zis.getNextEntry(); entry != null;
+                entry = zis.getNextEntry()) {
+            if (!entry.isDirectory()) {
+                extractPayloadFile(entry.getName(), zis);
+            }
+        }
+    }
+
+    protected void extractPayloadFile(String name, InputStream is) throws IOException {
+        StoredResource resource = store.store(is, name);
+        addPayloadResource(resource);
+        payloadEntries.put(name, new PayloadEntry.StoredEntry(resource));
+    }
+
+    /**
+     * Release anything that was only needed to load the package.  The
+     * payload remains intact.
+     */
+    abstract void close() throws IOException;
+
+    /**
+     * Release everything, including the payload.  Used when loading
+     * fails and no package will ever own the payload.
+     */
+    void cleanupSource() throws IOException {
+        releasePayloadArchive();
+        close();
+        getPayload().close();
+    }
+}
@@ -0,0 +1,62 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Storage for package data that has to be held somewhere while a
+ * package is open or being built: unpacked payload files, staged archives,
+ * and the like.  A store can be set on a {@link TIPPFactory} or on a
+ * package builder.
+ * <p>
+ * The same store may be used by many packages at once, so implementations
+ * must be thread-safe.  Implementations provided here are
+ * {@link TempFileStore}, {@link MemoryStore}, {@link HybridStore} (memory
+ * for small resources, another store for large ones), and {@link QuotaStore}
+ * (a limit on the total size held by another store).
+ */
+public interface PackageStore {
+
+    /**
+     * Copy a stream into the store.  The stream is read to the end, but not
+     * closed.
+     * @param is data to store
+     * @param name name of the data, which implementations may use as a hint
+     *        (for example, to pick a file suffix)
+     * @return the stored data
+     * @throws IOException if the stream can't be read, or the data can't
+     *         be stored
+     */
+    StoredResource store(InputStream is, String name) throws IOException;
+
+    /**
+     * Store data whose CRC-32 and size are already known, such as a zip
+     * entry described by the central directory of its archive.  A store
+     * that keeps a single copy of identical data (like
+     * {@link ContentAddressedStore}) can use them to find data it may
+     * already hold, without storing another copy.  The CRC-32 and size
+     * come from the caller and are not checked, so they must only ever be
+     * used as a hint.  By default, the contents are opened and passed to
+     * {@link #store(InputStream, String)}.
+     * @param contents supplies the data
+     * @param crc CRC-32 of the data, or -1 if it isn't known
+     * @param size size of the data in bytes, or -1 if it isn't known
+     * @param name name of the data
+     * @return the stored data
+     * @throws IOException if the data can't be read or stored
+     */
+    default StoredResource store(Contents contents, long crc, long size, String name)
+                    throws IOException {
+        try (InputStream is = contents.open()) {
+            return store(is, name);
+        }
+    }
+
+    /**
+     * Opens data for {@link PackageStore#store(Contents, long, long, String)},
+     * if it turns out to be needed.
+     */
+    interface Contents {
+        InputStream open() throws IOException;
+    }
+}
@@ -1,22 +1,28 @@
 package com.spartansoftwareinc.tipp;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 class Payload {
-    private Path root;
-    private Map<String, Path> files;
+    private Map<String, PayloadEntry> files;
+    private List<Closeable> resources;
 
-    Payload(Path root, Map<String, Path> files) {
-        this.root = root;
+    /**
+     * @param files payload entries, by full path
+     * @param resources anything that backs the entries, and should be closed
+     *        when the payload is
+     */
+    Payload(Map<String, PayloadEntry> files, List<Closeable> resources) {
         this.files = files;
+        this.resources = new ArrayList<>(resources);
     }
 
-    protected Map<String, Path> getFiles() {
+    protected Map<String, PayloadEntry> getFiles() {
         return files;
     }
 
@@ -26,21 +32,39 @@ class Payload {
 
     InputStream getFileObject(TIPPSectionType type, String path) throws IOException {
         String fullPath = getFilePath(type, path);
-        Path p = getFiles().get(fullPath);
-        if (p != null) {
-            return Files.newInputStream(p);
+        PayloadEntry entry = getFiles().get(fullPath);
+        if (entry != null) {
+            return entry.open();
         }
         return null;
     }
 
+    PayloadEntry getEntry(TIPPSectionType type, String path) {
+        return getFiles().get(getFilePath(type, path));
+    }
+
     static String getFilePath(TIPPSectionType type, String name) {
         // TODO: handle '..', etc
-        return type.getDefaultName() + StreamPackageSource.SEPARATOR + name;
+        return type.getDefaultName() + PackageSource.SEPARATOR + name;
     }
 
     void close() throws IOException {
-        if (root != null) {
-            FileUtil.recursiveDelete(root);
+        // Release in the reverse of the order things were acquired,
+        // but make sure everything gets a chance to clean up.
+        IOException failure = null;
+        for (int i = resources.size() - 1; i >= 0; i--) {
+            try {
+                resources.get(i).close();
+            }
+            catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        resources.clear();
+        if (failure != null) {
+            throw failure;
         }
     }
 }
@@ -2,11 +2,15 @@ package com.spartansoftwareinc.tipp;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
+import java.io.Closeable;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 class PayloadBuilder {
 
@@ -16,24 +20,64 @@ class PayloadBuilder {
     private EnumMap<TIPPSectionType, Map<String, String>> manifestLocations = new EnumMap<>(TIPPSectionType.class);
     private EnumMap<TIPPSectionType, Map<String, String>> payloadLocations = new EnumMap<>(TIPPSectionType.class);
     private Map<TIPPFile, String> locationMap = new HashMap<>();
-    private Map<String, Path> tempFiles = new HashMap<>();
-    private Path tempRoot;
+    private Map<String, PayloadEntry> entries = new LinkedHashMap<>();
+    private List<Closeable> resources = new ArrayList<>();
+    private PackageStore store = new TempFileStore();
 
-    void addFile(TIPPFile file, InputStream is) throws IOException {
-        if (tempRoot == null) {
-            tempRoot = Files.createTempDirectory("tipp");
+    /**
+     * Set where added files are held until the package is closed.
+     * This must be called before any files are added.
+     */
+    void setStore(PackageStore store) {
+        if (!entries.isEmpty()) {
+            throw new IllegalStateException("Files have already been added");
         }
-        String suffix = getSuffix(file.getName());
-        String manifestLocation = Integer.toString(file.getSequence()) + suffix;
+        this.store = store;
+    }
+
+    void addFile(TIPPFile file, InputStream is) throws IOException {
+        String payloadLocation = addLocation(file);
+        StoredResource resource = store.store(is, payloadLocation);
+        resources.add(resource);
+        entries.put(payloadLocation, new PayloadEntry.StoredEntry(resource));
+    }
+
+    /**
+     * Add a file that is read from disk whenever its contents are needed,
+     * rather than copied into the store.
+     */
+    void addFile(TIPPFile file, Path path) {
+        entries.put(addLocation(file), new PayloadEntry.FileEntry(path));
+    }
+
+    /**
+     * Add a file whose contents are fetched from a supplier whenever they
+     * are needed, rather than copied into the store.
+     */
+    void addFile(TIPPFile file, Supplier<? extends InputStream> supplier) {
+        String payloadLocation = addLocation(file);
+        entries.put(payloadLocation, new PayloadEntry.SuppliedEntry(supplier, payloadLocation));
+    }
+
+    /**
+     * Add a file whose contents belong to another payload.  The entry is
+     * shared, not copied, so the other payload must outlive this one.
+     */
+    void addEntry(TIPPFile file, PayloadEntry entry) {
+        entries.put(addLocation(file), entry);
+    }
+
+    private String addLocation(TIPPFile file) {
+        String manifestLocation = getManifestLocation(file);
         String payloadLocation = Payload.getFilePath(file.getSectionType(), manifestLocation);
         getSectionMap(manifestLocations, file.getSectionType()).put(file.getName(), manifestLocation);
         getSectionMap(payloadLocations, file.getSectionType()).put(file.getName(), payloadLocation);
         locationMap.put(file, manifestLocation);
-        tempFiles.put(payloadLocation, FileUtil.copyToTemp(is, tempRoot, "file", suffix));
+        return payloadLocation;
     }
 
     Payload build() {
-        return new Payload(tempRoot, tempFiles);
+        return new Payload(entries, resources);
     }
 
     Map<TIPPFile, String> getLocationMap() {
@@ -50,7 +94,15 @@ class PayloadBuilder {
         return m;
     }
 
-    private String getSuffix(String filename) {
+    /**
+     * Get the location a new file is given in the manifest: its sequence
+     * number, keeping the suffix of its name.
+     */
+    static String getManifestLocation(TIPPFile file) {
+        return Integer.toString(file.getSequence()) + getSuffix(file.getName());
+    }
+
+    private static String getSuffix(String filename) {
         int i = filename.lastIndexOf('.');
         if (i == -1) {
             return "";
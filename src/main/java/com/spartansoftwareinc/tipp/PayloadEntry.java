@@ -0,0 +1,229 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+
+/**
+ * Backing storage for a single payload file.
+ */
+abstract class PayloadEntry {
+
+    /**
+     * Open the (uncompressed) contents of this entry.
+     */
+    abstract InputStream open() throws IOException;
+
+    /**
+     * Write the (uncompressed) contents of this entry to a channel, without
+     * copying them where possible.
+     * @return the number of bytes written
+     */
+    long transferTo(WritableByteChannel target) throws IOException {
+        try (InputStream is = open()) {
+            return FileUtil.copyStreamToChannel(is, target);
+        }
+    }
+
+    /**
+     * Get this entry as it appears in the payload archive it was read from,
+     * if it is still there, so that its compressed data can be copied into
+     * a new archive without being inflated and deflated again.
+     * @return the archive entry, or null
+     */
+    ZipDirectory.Entry getRawEntry() {
+        return null;
+    }
+
+    /**
+     * Open the compressed data described by {@link #getRawEntry()}.
+     * @throws IOException if there is no raw entry, or it can't be read
+     */
+    InputStream openRaw() throws IOException {
+        throw new IOException("Payload entry has no compressed data in an archive");
+    }
+
+    /**
+     * An entry that has been unpacked to a local file.
+     */
+    static class FileEntry extends PayloadEntry {
+        private Path path;
+
+        FileEntry(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        InputStream open() throws IOException {
+            return Files.newInputStream(path);
+        }
+
+        @Override
+        long transferTo(WritableByteChannel target) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return FileUtil.transfer(channel, target);
+            }
+        }
+    }
+
+    /**
+     * An entry whose contents come from a supplier each time they are
+     * needed, and are never held anywhere.
+     */
+    static class SuppliedEntry extends PayloadEntry {
+        private Supplier<? extends InputStream> supplier;
+        private String name;
+
+        SuppliedEntry(Supplier<? extends InputStream> supplier, String name) {
+            this.supplier = supplier;
+            this.name = name;
+        }
+
+        @Override
+        InputStream open() throws IOException {
+            InputStream is = supplier.get();
+            if (is == null) {
+                throw new IOException("No contents supplied for " + name);
+            }
+            return is;
+        }
+    }
+
+    /**
+     * An entry that is still inside the payload archive, and is
+     * inflated each time it is opened.
+     */
+    static class ArchiveEntry extends PayloadEntry {
+        private ZipDirectory archive;
+        private ZipDirectory.Entry entry;
+
+        ArchiveEntry(ZipDirectory archive, ZipDirectory.Entry entry) {
+            this.archive = archive;
+            this.entry = entry;
+        }
+
+        @Override
+        InputStream open() throws IOException {
+            return archive.open(entry);
+        }
+
+        @Override
+        long transferTo(WritableByteChannel target) throws IOException {
+            if (entry.getMethod() != ZipEntry.STORED || !entry.isVerified()) {
+                // The first read has to check the data against its CRC
+                return super.transferTo(target);
+            }
+            // Once checked, stored data can go straight from the archive
+            archive.transferRaw(entry, target);
+            return entry.getSize();
+        }
+
+        @Override
+        ZipDirectory.Entry getRawEntry() {
+            return entry;
+        }
+
+        @Override
+        InputStream openRaw() throws IOException {
+            return archive.openRaw(entry);
+        }
+    }
+
+    /**
+     * An entry whose contents are held by a {@link PackageStore}.
+     */
+    static class StoredEntry extends PayloadEntry {
+        private StoredResource resource;
+
+        StoredEntry(StoredResource resource) {
+            this.resource = resource;
+        }
+
+        @Override
+        InputStream open() throws IOException {
+            return resource.openInputStream();
+        }
+
+        @Override
+        long transferTo(WritableByteChannel target) throws IOException {
+            return transfer(resource, target);
+        }
+    }
+
+    /**
+     * An entry that is copied from another entry into a {@link PackageStore}
+     * the first time it is opened, and read from there afterwards.  Closing
+     * it discards the copy.
+     */
+    static class CachedEntry extends PayloadEntry implements Closeable {
+        private PayloadEntry source;
+        private PackageStore store;
+        private String name;
+        private StoredResource materialized;
+
+        CachedEntry(PayloadEntry source, PackageStore store, String name) {
+            this.source = source;
+            this.store = store;
+            this.name = name;
+        }
+
+        @Override
+        InputStream open() throws IOException {
+            return materialize().openInputStream();
+        }
+
+        @Override
+        long transferTo(WritableByteChannel target) throws IOException {
+            return transfer(materialize(), target);
+        }
+
+        @Override
+        ZipDirectory.Entry getRawEntry() {
+            return source.getRawEntry();
+        }
+
+        @Override
+        InputStream openRaw() throws IOException {
+            return source.openRaw();
+        }
+
+        private synchronized StoredResource materialize() throws IOException {
+            if (materialized == null) {
+                ZipDirectory.Entry entry = source.getRawEntry();
+                if (entry != null) {
+                    materialized = store.store(source::open, entry.getCrc(),
+                                               entry.getSize(), name);
+                }
+                else {
+                    try (InputStream is = source.open()) {
+                        materialized = store.store(is, name);
+                    }
+                }
+            }
+            return materialized;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (materialized != null) {
+                materialized.close();
+                materialized = null;
+            }
+        }
+    }
+
+    private static long transfer(StoredResource resource, WritableByteChannel target)
+                    throws IOException {
+        try (SeekableByteChannel channel = resource.openChannel()) {
+            return FileUtil.transfer(channel, target);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.spartansoftwareinc.tipp;
+
+/**
+ * Controls when the files in a package payload are unpacked as a
+ * package is opened by {@link TIPPFactory}.
+ */
+public enum PayloadExtraction {
+    /**
+     * Unpack every payload file to temporary storage while the package is
+     * being opened.  This is the default.
+     */
+    EAGER,
+
+    /**
+     * Leave payload files inside the payload archive, and inflate them each
+     * time they are read with {@link TIPP#getFile}.  Files that are never
+     * read are never unpacked.  Since the files are still in their
+     * compressed form, saving the package copies them as they are rather
+     * than compressing them again.
+     */
+    LAZY,
+
+    /**
+     * Like {@link #LAZY}, but each file is unpacked to temporary storage the
+     * first time it is read, and later reads use the unpacked copy.
+     */
+    LAZY_CACHED;
+}
@@ -0,0 +1,36 @@
+package com.spartansoftwareinc.tipp;
+
+/**
+ * Where package data is held while a package is open or being built.
+ * These are shortcuts for the standard {@link PackageStore}s; a store
+ * can also be set directly.
+ */
+public enum PayloadStorage {
+    /**
+     * Temporary files in the system temporary directory.
+     */
+    TEMP_FILES,
+
+    /**
+     * Byte arrays on the Java heap.  Nothing is written to disk.
+     */
+    HEAP,
+
+    /**
+     * Direct (off-heap) byte buffers.  Nothing is written to disk, and the
+     * buffers are released when the package is closed, rather than waiting
+     * for garbage collection.
+     */
+    DIRECT;
+
+    PackageStore newStore() {
+        switch (this) {
+        case HEAP:
+            return new MemoryStore(false);
+        case DIRECT:
+            return new MemoryStore(true);
+        default:
+            return new TempFileStore();
+        }
+    }
+}
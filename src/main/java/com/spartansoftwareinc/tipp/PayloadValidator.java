@@ -1,15 +1,42 @@
 package com.spartansoftwareinc.tipp;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import com.spartansoftwareinc.tipp.TIPPErrorType;
 import static com.spartansoftwareinc.tipp.TIPPErrorType.*;
 
 /**
- * Validates a package payload against its manifest.
+ * Validates a package payload against its manifest.  This can be done
+ * all at once with {@link #validate(Manifest, Payload, TIPPErrorHandler)},
+ * or incrementally as payload entries are encountered: call
+ * {@link #start(Manifest)}, then {@link #checkEntry(String)} for each
+ * entry, then {@link #finish()}.  Either way, the errors are the same and
+ * come in the same order.
  */
 class PayloadValidator {
+    private Map<String, Expected> expectedPaths;
+    // One for each file in the manifest, in order; files with the same
+    // path share the same one
+    private List<Expected> manifestOrder;
+    private List<String> unexpectedPaths;
+
+    /**
+     * A payload path listed in the manifest.
+     */
+    private static class Expected {
+        String path;
+        TIPPFile file;
+        boolean found = false;
+        boolean listed = false;
+
+        Expected(String path, TIPPFile file) {
+            this.path = path;
+            this.file = file;
+        }
+    }
 
     /**
      * Checks the manifest against the package source and looks for 
@@ -21,35 +48,75 @@ class PayloadValidator {
      * @return true if successful, false if an error was found
      */
     boolean validate(Manifest manifest, Payload payload, TIPPErrorHandler errorHandler) {
-        CollectingErrorHandler validationErrors = new CollectingErrorHandler();
-        Set<String> objectPaths = payload.getPaths();
-        Set<String> pathsInManifest = new HashSet<String>();
+        start(manifest);
+        for (String objectPath : payload.getPaths()) {
+            checkEntry(objectPath);
+        }
+        List<TIPPError> validationErrors = finish();
+        for (TIPPError e : validationErrors) {
+            errorHandler.reportError(e.getErrorType(), e.getMessage(), e.getException());
+        }
+        // Add all errors to the regular error.
+        return validationErrors.size() == 0;
+    }
+
+    void start(Manifest manifest) {
+        expectedPaths = new HashMap<>();
+        manifestOrder = new ArrayList<>();
+        unexpectedPaths = new ArrayList<>();
         for (TIPPSection section : manifest.getSections()) {
             for (TIPPFile obj : section.getFileResources()) {
+                // Each path is only built once
                 String expectedPath = Payload.getFilePath(section.getType(),
-                                        manifest.getLocationForFile(obj));
-                if (pathsInManifest.contains(expectedPath)) {
-                    validationErrors.reportError(DUPLICATE_RESOURCE_LOCATION_IN_MANIFEST,
-                            "Duplicate resource in manifest: " + expectedPath, null);
-                }
-                if (!objectPaths.contains(expectedPath)) {
-                    validationErrors.reportError(MISSING_PAYLOAD_RESOURCE, 
-                            "Missing resource: " + expectedPath, null);
+                                                          manifest.getLocationForFile(obj));
+                Expected expected = expectedPaths.get(expectedPath);
+                if (expected == null) {
+                    expected = new Expected(expectedPath, obj);
+                    expectedPaths.put(expectedPath, expected);
                 }
-                pathsInManifest.add(expectedPath);
+                manifestOrder.add(expected);
             }
         }
-        // Now check in the other direction
-        for (String objectPath : objectPaths) {
-            if (!pathsInManifest.contains(objectPath)) {
-                validationErrors.reportError(TIPPErrorType.UNEXPECTED_PAYLOAD_RESOURCE, 
-                                "Unexpected package resource: " + objectPath, null);
+    }
+
+    /**
+     * Record a payload entry.
+     * @param objectPath full path of the entry within the payload
+     * @return the manifest file the entry belongs to, or null if the
+     *         manifest doesn't list it
+     */
+    TIPPFile checkEntry(String objectPath) {
+        Expected expected = expectedPaths.get(objectPath);
+        if (expected == null) {
+            unexpectedPaths.add(objectPath);
+            return null;
+        }
+        expected.found = true;
+        return expected.file;
+    }
+
+    /**
+     * Return the discrepancies between the manifest and the entries
+     * that were recorded.
+     */
+    List<TIPPError> finish() {
+        CollectingErrorHandler validationErrors = new CollectingErrorHandler();
+        for (Expected expected : manifestOrder) {
+            if (expected.listed) {
+                validationErrors.reportError(DUPLICATE_RESOURCE_LOCATION_IN_MANIFEST,
+                        "Duplicate resource in manifest: " + expected.path, null);
+            }
+            if (!expected.found) {
+                validationErrors.reportError(MISSING_PAYLOAD_RESOURCE, 
+                        "Missing resource: " + expected.path, null);
             }
+            expected.listed = true;
         }
-        for (TIPPError e : validationErrors.getErrors()) {
-            errorHandler.reportError(e.getErrorType(), e.getMessage(), e.getException());
+        // Now check in the other direction
+        for (String objectPath : unexpectedPaths) {
+            validationErrors.reportError(TIPPErrorType.UNEXPECTED_PAYLOAD_RESOURCE, 
+                            "Unexpected package resource: " + objectPath, null);
         }
-        // Add all errors to the regular error.
-        return validationErrors.getErrors().size() == 0;
+        return validationErrors.getErrors();
     }
 }
@@ -0,0 +1,240 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a payload archive.  Files that are still in their compressed form
+ * in the archive they were read from are copied as they are, if the
+ * {@link CompressionPolicy} allows it, and everything else is compressed
+ * according to the policy.
+ * <p>
+ * Without an executor, files are compressed one at a time as they are
+ * written.  With one, each file is compressed independently into a
+ * {@link PackageStore}, and the results are written out in manifest order
+ * as they become available, so writing overlaps with compressing whatever
+ * comes later.
+ */
+class PayloadWriter {
+    private ExecutorService executor;
+    private PackageStore store;
+    private CompressionPolicy policy;
+
+    private static class CompressedFile {
+        String path;
+        int method;
+        long crc;
+        long size;
+        StoredResource data;
+    }
+
+    /**
+     * A file waiting to be written: either copied from its original
+     * archive, or compressed by a task.
+     */
+    private static class PendingFile {
+        String path;
+        PayloadEntry raw;
+        Future<CompressedFile> result;
+    }
+
+    /**
+     * @param executor executor to compress files on, or null to compress
+     *        them on the calling thread
+     * @param store store for compressed files (only used with an executor)
+     * @param policy compression policy
+     */
+    PayloadWriter(ExecutorService executor, PackageStore store, CompressionPolicy policy) {
+        this.executor = executor;
+        this.store = store;
+        this.policy = policy;
+    }
+
+    /**
+     * Write the payload as a zip archive.  The stream is closed afterwards.
+     */
+    void write(Manifest manifest, Payload payload, OutputStream os) throws IOException {
+        if (executor != null) {
+            writeConcurrently(manifest, payload, os);
+            return;
+        }
+        try (ZipWriter zip = new ZipWriter(os)) {
+            for (TIPPSection section : manifest.getSections()) {
+                for (TIPPFile resource : section.getFileResources()) {
+                    String location = manifest.getLocationForFile(resource);
+                    String path = Payload.getFilePath(section.getType(), location);
+                    PayloadEntry entry = payload.getEntry(section.getType(), location);
+                    if (isRawCopy(resource, entry)) {
+                        copyRaw(zip, path, entry);
+                    }
+                    else {
+                        writeFile(zip, path, resource, entry);
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeFile(ZipWriter zip, String path, TIPPFile resource, PayloadEntry entry)
+                    throws IOException {
+        try (InputStream is = new BufferedInputStream(entry.open())) {
+            int level = policy.chooseLevel(resource, is);
+            if (level != CompressionPolicy.STORED) {
+                zip.writeDeflatedEntry(path, level, is);
+                return;
+            }
+            // Stored entries need their size and checksum up front, so
+            // that takes an extra pass over the file.
+            CRC32 crc = new CRC32();
+            long size = 0;
+            try (InputStream check = entry.open()) {
+                byte[] buf = new byte[8192];
+                for (int n; (n = check.read(buf)) != -1; ) {
+                    crc.update(buf, 0, n);
+                    size += n;
+                }
+            }
+            zip.writeEntry(path, ZipEntry.STORED, crc.getValue(), size, size, is);
+        }
+    }
+
+    private void writeConcurrently(Manifest manifest, final Payload payload, OutputStream os)
+                    throws IOException {
+        List<PendingFile> files = new ArrayList<>();
+        // Files before this index have been dealt with
+        int pending = 0;
+        try (ZipWriter zip = new ZipWriter(os)) {
+            for (final TIPPSection section : manifest.getSections()) {
+                for (final TIPPFile resource : section.getFileResources()) {
+                    final String location = manifest.getLocationForFile(resource);
+                    PendingFile file = new PendingFile();
+                    file.path = Payload.getFilePath(section.getType(), location);
+                    PayloadEntry entry = payload.getEntry(section.getType(), location);
+                    if (isRawCopy(resource, entry)) {
+                        file.raw = entry;
+                    }
+                    else {
+                        file.result = executor.submit(new Callable<CompressedFile>() {
+                            @Override
+                            public CompressedFile call() throws IOException {
+                                return compress(payload, resource, location);
+                            }
+                        });
+                    }
+                    files.add(file);
+                }
+            }
+            for (int i = 0; i < files.size(); i++) {
+                PendingFile pendingFile = files.get(i);
+                if (pendingFile.raw != null) {
+                    pending = i + 1;
+                    copyRaw(zip, pendingFile.path, pendingFile.raw);
+                    continue;
+                }
+                CompressedFile file = get(pendingFile.result);
+                pending = i + 1;
+                try (InputStream is = file.data.openInputStream()) {
+                    zip.writeEntry(file.path, file.method, file.crc,
+                                   file.data.getSize(), file.size, is);
+                }
+                finally {
+                    file.data.close();
+                }
+            }
+        }
+        finally {
+            // If we stopped early, don't leave anything behind in the store
+            for (int i = pending; i < files.size(); i++) {
+                Future<CompressedFile> result = files.get(i).result;
+                if (result != null && !result.cancel(true) && !result.isCancelled()) {
+                    try {
+                        result.get().data.close();
+                    }
+                    catch (ExecutionException | InterruptedException | IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isRawCopy(TIPPFile resource, PayloadEntry entry) {
+        ZipDirectory.Entry raw = (entry != null) ? entry.getRawEntry() : null;
+        return raw != null && policy.canCopy(resource, raw.getMethod());
+    }
+
+    private static void copyRaw(ZipWriter zip, String path, PayloadEntry entry)
+                    throws IOException {
+        ZipDirectory.Entry raw = entry.getRawEntry();
+        try (InputStream is = entry.openRaw()) {
+            zip.writeEntry(path, raw.getMethod(), raw.getCrc(), raw.getCompressedSize(),
+                           raw.getSize(), is);
+        }
+    }
+
+    private CompressedFile compress(Payload payload, TIPPFile resource, String location)
+                    throws IOException {
+        TIPPSectionType type = resource.getSectionType();
+        CompressedFile file = new CompressedFile();
+        file.path = Payload.getFilePath(type, location);
+        CRC32 crc = new CRC32();
+        Deflater deflater = null;
+        try (InputStream is = new BufferedInputStream(payload.getFileObject(type, location))) {
+            int level = policy.chooseLevel(resource, is);
+            CountingInputStream counted = new CountingInputStream(new CheckedInputStream(is, crc));
+            if (level == CompressionPolicy.STORED) {
+                file.method = ZipEntry.STORED;
+                file.data = store.store(counted, file.path);
+            }
+            else {
+                file.method = ZipEntry.DEFLATED;
+                deflater = new Deflater(level, true);
+                file.data = store.store(new DeflaterInputStream(counted, deflater, 8192), file.path);
+            }
+            file.size = counted.getCount();
+        }
+        finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        file.crc = crc.getValue();
+        return file;
+    }
+
+    private CompressedFile get(Future<CompressedFile> result) throws IOException {
+        try {
+            return result.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing payload");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.IOException;
+
+/**
+ * Thrown when storing package data would take a {@link QuotaStore} over
+ * its limit.
+ */
+public class QuotaExceededException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public QuotaExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,205 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PackageStore} that limits the total number of bytes held by another
+ * store at any one time.  Space is claimed as data is read into the store,
+ * so an oversized resource fails as soon as it crosses the limit, rather than
+ * after it has been written out in full.  Space is given back when a resource
+ * is closed, or if storing it fails.
+ * <p>
+ * A single quota store can be shared by many factories and builders, for
+ * example to cap the space used by one tenant, or on one volume.
+ */
+public class QuotaStore implements PackageStore {
+    private PackageStore store;
+    private long maxBytes;
+    private AtomicLong usedBytes = new AtomicLong();
+
+    /**
+     * @param store store that holds the data
+     * @param maxBytes the most data that may be held at once, in bytes
+     */
+    public QuotaStore(PackageStore store, long maxBytes) {
+        if (store == null) {
+            throw new IllegalArgumentException("store can't be null");
+        }
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Invalid quota: " + maxBytes);
+        }
+        this.store = store;
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the number of bytes currently held
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    @Override
+    public StoredResource store(InputStream is, String name) throws IOException {
+        QuotaInputStream counted = new QuotaInputStream(is);
+        try {
+            return new QuotaResource(store.store(counted, name), counted.reserved);
+        }
+        catch (IOException | RuntimeException e) {
+            release(counted.reserved);
+            throw e;
+        }
+    }
+
+    @Override
+    public StoredResource store(final Contents contents, long crc, long size, String name)
+                    throws IOException {
+        // Only data that is actually read counts against the quota
+        final List<QuotaInputStream> opened = new ArrayList<>();
+        Contents counted = () -> {
+            QuotaInputStream is = new QuotaInputStream(contents.open(), true);
+            opened.add(is);
+            return is;
+        };
+        try {
+            StoredResource resource = store.store(counted, crc, size, name);
+            return new QuotaResource(resource, reserved(opened));
+        }
+        catch (IOException | RuntimeException e) {
+            release(reserved(opened));
+            throw e;
+        }
+    }
+
+    private static long reserved(List<QuotaInputStream> streams) {
+        long total = 0;
+        for (QuotaInputStream is : streams) {
+            total += is.reserved;
+        }
+        return total;
+    }
+
+    private void reserve(long count) throws QuotaExceededException {
+        while (true) {
+            long used = usedBytes.get();
+            if (used + count > maxBytes) {
+                throw new QuotaExceededException("Package store quota of " + maxBytes +
+                                                 " bytes exceeded");
+            }
+            if (usedBytes.compareAndSet(used, used + count)) {
+                return;
+            }
+        }
+    }
+
+    private void release(long count) {
+        usedBytes.addAndGet(-count);
+    }
+
+    /**
+     * Claims space for data as it passes through.
+     */
+    private class QuotaInputStream extends FilterInputStream {
+        private long reserved;
+        private boolean owned;
+
+        QuotaInputStream(InputStream in) {
+            this(in, false);
+        }
+
+        /**
+         * @param owned true if closing this stream should close the
+         *        underlying one
+         */
+        QuotaInputStream(InputStream in, boolean owned) {
+            super(in);
+            this.owned = owned;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                claim(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                claim(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped data is never stored
+            return super.skip(n);
+        }
+
+        private void claim(long count) throws QuotaExceededException {
+            reserve(count);
+            reserved += count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Unless we opened it, the caller owns the underlying stream
+            if (owned) {
+                super.close();
+            }
+        }
+    }
+
+    private class QuotaResource implements StoredResource {
+        private StoredResource resource;
+        private long reserved;
+        private boolean closed;
+
+        QuotaResource(StoredResource resource, long reserved) {
+            this.resource = resource;
+            this.reserved = reserved;
+        }
+
+        @Override
+        public long getSize() {
+            return resource.getSize();
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            return resource.openInputStream();
+        }
+
+        @Override
+        public SeekableByteChannel openChannel() throws IOException {
+            return resource.openChannel();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                try {
+                    resource.close();
+                }
+                finally {
+                    release(reserved);
+                }
+            }
+        }
+    }
+}
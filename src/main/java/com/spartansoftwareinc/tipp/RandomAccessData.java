@@ -0,0 +1,170 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Read-only bytes that can be read at arbitrary positions, from any number
+ * of threads at once.  This is what lets {@link ZipDirectory} treat a file
+ * and an in-memory buffer the same way.
+ */
+abstract class RandomAccessData implements Closeable {
+
+    abstract long size() throws IOException;
+
+    /**
+     * Read up to <code>len</code> bytes starting at the given position.
+     * @return the number of bytes read, or -1 if the position is at or past
+     *         the end of the data
+     */
+    abstract int read(byte[] b, int off, int len, long position) throws IOException;
+
+    /**
+     * Write <code>count</code> bytes starting at the given position to a
+     * channel.  Subclasses do this without copying where they can.
+     */
+    void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        byte[] bytes = new byte[8192];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (count > 0) {
+            int read = read(bytes, 0, (int)Math.min(bytes.length, count), position);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            ((Buffer)buffer).clear();
+            ((Buffer)buffer).limit(read);
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            position += read;
+            count -= read;
+        }
+    }
+
+    /**
+     * Wrap a channel.  The channel is closed when the data is closed.
+     */
+    static RandomAccessData forChannel(SeekableByteChannel channel) {
+        if (channel instanceof ByteBufferChannel) {
+            return new BufferData(((ByteBufferChannel)channel).getBuffer(), channel);
+        }
+        return new ChannelData(channel);
+    }
+
+    /**
+     * Wrap a buffer.  The data covers the buffer's remaining bytes, and the
+     * buffer's own position and limit are never changed.  Closing the data
+     * does not release the buffer.
+     */
+    static RandomAccessData forBuffer(ByteBuffer buffer) {
+        return new BufferData(buffer.slice(), null);
+    }
+
+    private static class ChannelData extends RandomAccessData {
+        private SeekableByteChannel channel;
+
+        ChannelData(SeekableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        int read(byte[] b, int off, int len, long position) throws IOException {
+            ByteBuffer dst = ByteBuffer.wrap(b, off, len);
+            if (channel instanceof FileChannel) {
+                // Positional reads don't touch the channel position, so
+                // they are safe to make concurrently
+                return ((FileChannel)channel).read(dst, position);
+            }
+            synchronized (channel) {
+                channel.position(position);
+                return channel.read(dst);
+            }
+        }
+
+        @Override
+        void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            if (!(channel instanceof FileChannel)) {
+                super.transferTo(position, count, target);
+                return;
+            }
+            FileChannel fc = (FileChannel)channel;
+            while (count > 0) {
+                long n = fc.transferTo(position, count, target);
+                if (n <= 0) {
+                    if (position >= fc.size()) {
+                        throw new EOFException();
+                    }
+                    // The target isn't taking any more this way
+                    super.transferTo(position, count, target);
+                    return;
+                }
+                position += n;
+                count -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class BufferData extends RandomAccessData {
+        private ByteBuffer buffer;
+        private Closeable owner;
+
+        BufferData(ByteBuffer buffer, Closeable owner) {
+            this.buffer = buffer;
+            this.owner = owner;
+        }
+
+        @Override
+        long size() {
+            return buffer.limit();
+        }
+
+        @Override
+        int read(byte[] b, int off, int len, long position) {
+            if (position >= buffer.limit()) {
+                return -1;
+            }
+            // Each read works on its own view of the buffer
+            ByteBuffer view = buffer.duplicate();
+            ((Buffer)view).position((int)position);
+            int count = Math.min(len, view.remaining());
+            view.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            if (position + count > buffer.limit()) {
+                throw new EOFException();
+            }
+            ByteBuffer view = buffer.duplicate();
+            ((Buffer)view).limit((int)(position + count));
+            ((Buffer)view).position((int)position);
+            while (view.hasRemaining()) {
+                target.write(view);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (owner != null) {
+                owner.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream over a fixed range of some {@link RandomAccessData}.  Reads are
+ * positional, so several of these may share the same data without
+ * interfering with each other.  Closing the stream does not close the data.
+ */
+class RangeInputStream extends InputStream {
+    private RandomAccessData data;
+    private long position;
+    private long end;
+    private long mark;
+
+    RangeInputStream(RandomAccessData data, long position, long length) {
+        this.data = data;
+        this.position = position;
+        this.end = position + length;
+        this.mark = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        long remaining = end - position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int toRead = (int)Math.min(len, remaining);
+        int read = data.read(b, off, toRead, position);
+        if (read == -1) {
+            // The data is shorter than the range we were promised
+            position = end;
+            return -1;
+        }
+        position += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int)Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() {
+        position = mark;
+    }
+}
@@ -2,6 +2,10 @@ package com.spartansoftwareinc.tipp;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 /**
  * An object to construct a {@link RequestTIPP} instance.
@@ -36,6 +40,21 @@ public class RequestTIPPBuilder extends AbstractTIPPBuilder {
         return (RequestTIPPBuilder)super.setTargetLocale(tgtLang);
     }
 
+    @Override
+    public RequestTIPPBuilder setPayloadStorage(PayloadStorage storage) {
+        return (RequestTIPPBuilder)super.setPayloadStorage(storage);
+    }
+
+    @Override
+    public RequestTIPPBuilder setPackageStore(PackageStore store) {
+        return (RequestTIPPBuilder)super.setPackageStore(store);
+    }
+
+    @Override
+    public RequestTIPPBuilder setCompressionPolicy(CompressionPolicy policy) {
+        return (RequestTIPPBuilder)super.setCompressionPolicy(policy);
+    }
+
     @Override
     public RequestTIPPBuilder addFile(TIPPSectionType sectionType, String name, InputStream is) throws IOException {
         return (RequestTIPPBuilder)super.addFile(sectionType, name, is);
@@ -47,6 +66,34 @@ public class RequestTIPPBuilder extends AbstractTIPPBuilder {
         return (RequestTIPPBuilder)super.addReferenceFile(langChoice, name, is);
     }
 
+    @Override
+    public RequestTIPPBuilder addFile(TIPPSectionType sectionType, String name, Path path) throws IOException {
+        return (RequestTIPPBuilder)super.addFile(sectionType, name, path);
+    }
+
+    @Override
+    public RequestTIPPBuilder addFile(TIPPSectionType sectionType, String name,
+                                   Supplier<? extends InputStream> supplier) {
+        return (RequestTIPPBuilder)super.addFile(sectionType, name, supplier);
+    }
+
+    @Override
+    public RequestTIPPBuilder addReferenceFile(TIPPReferenceFile.LanguageChoice langChoice, String name, Path path)
+                                    throws IOException {
+        return (RequestTIPPBuilder)super.addReferenceFile(langChoice, name, path);
+    }
+
+    @Override
+    public RequestTIPPBuilder addReferenceFile(TIPPReferenceFile.LanguageChoice langChoice, String name,
+                                            Supplier<? extends InputStream> supplier) {
+        return (RequestTIPPBuilder)super.addReferenceFile(langChoice, name, supplier);
+    }
+
+    @Override
+    public RequestTIPPBuilder addFileFrom(TIPP tipp, TIPPFile file) throws IOException {
+        return (RequestTIPPBuilder)super.addFileFrom(tipp, file);
+    }
+
     @Override
     protected TIPP buildTIPP(Payload payload, Manifest manifest) {
         return new RequestPackageBase(payload, manifest);
@@ -56,4 +103,9 @@ public class RequestTIPPBuilder extends AbstractTIPPBuilder {
     public RequestTIPP build() throws IOException {
         return (RequestTIPP)super.build();
     }
+
+    @Override
+    public CompletableFuture<RequestTIPP> buildAsync(Executor executor) {
+        return buildAsync(executor, RequestTIPP.class);
+    }
 }
@@ -2,6 +2,10 @@ package com.spartansoftwareinc.tipp;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 /**
  * An object to construct a {@link ResponseTIPP} instance.  Response
@@ -79,6 +83,21 @@ public class ResponseTIPPBuilder extends AbstractTIPPBuilder {
         return (ResponseTIPPBuilder)super.setTargetLocale(tgtLang);
     }
 
+    @Override
+    public ResponseTIPPBuilder setPayloadStorage(PayloadStorage storage) {
+        return (ResponseTIPPBuilder)super.setPayloadStorage(storage);
+    }
+
+    @Override
+    public ResponseTIPPBuilder setPackageStore(PackageStore store) {
+        return (ResponseTIPPBuilder)super.setPackageStore(store);
+    }
+
+    @Override
+    public ResponseTIPPBuilder setCompressionPolicy(CompressionPolicy policy) {
+        return (ResponseTIPPBuilder)super.setCompressionPolicy(policy);
+    }
+
     @Override
     public ResponseTIPPBuilder addFile(TIPPSectionType sectionType, String name, InputStream is) throws IOException {
         return (ResponseTIPPBuilder)super.addFile(sectionType, name, is);
@@ -90,6 +109,34 @@ public class ResponseTIPPBuilder extends AbstractTIPPBuilder {
         return (ResponseTIPPBuilder)super.addReferenceFile(langChoice, name, is);
     }
 
+    @Override
+    public ResponseTIPPBuilder addFile(TIPPSectionType sectionType, String name, Path path) throws IOException {
+        return (ResponseTIPPBuilder)super.addFile(sectionType, name, path);
+    }
+
+    @Override
+    public ResponseTIPPBuilder addFile(TIPPSectionType sectionType, String name,
+                                   Supplier<? extends InputStream> supplier) {
+        return (ResponseTIPPBuilder)super.addFile(sectionType, name, supplier);
+    }
+
+    @Override
+    public ResponseTIPPBuilder addReferenceFile(TIPPReferenceFile.LanguageChoice langChoice, String name, Path path)
+                                    throws IOException {
+        return (ResponseTIPPBuilder)super.addReferenceFile(langChoice, name, path);
+    }
+
+    @Override
+    public ResponseTIPPBuilder addReferenceFile(TIPPReferenceFile.LanguageChoice langChoice, String name,
+                                            Supplier<? extends InputStream> supplier) {
+        return (ResponseTIPPBuilder)super.addReferenceFile(langChoice, name, supplier);
+    }
+
+    @Override
+    public ResponseTIPPBuilder addFileFrom(TIPP tipp, TIPPFile file) throws IOException {
+        return (ResponseTIPPBuilder)super.addFileFrom(tipp, file);
+    }
+
     @Override
     protected TIPP buildTIPP(Payload payload, Manifest manifest) {
         return new ResponsePackageBase(payload, manifest);
@@ -99,4 +146,9 @@ public class ResponseTIPPBuilder extends AbstractTIPPBuilder {
     public ResponseTIPP build() throws IOException {
         return (ResponseTIPP)super.build();
     }
+
+    @Override
+    public CompletableFuture<ResponseTIPP> buildAsync(Executor executor) {
+        return buildAsync(executor, ResponseTIPP.class);
+    }
 }
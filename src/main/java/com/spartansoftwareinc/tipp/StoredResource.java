@@ -0,0 +1,29 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A blob of package data held by a {@link PackageStore}.  Closing the
+ * resource discards the data.
+ */
+public interface StoredResource extends Closeable {
+
+    /**
+     * Size of the data, in bytes.
+     */
+    long getSize();
+
+    /**
+     * Open a stream over the data.  The resource may be opened any number of
+     * times, including concurrently.
+     */
+    InputStream openInputStream() throws IOException;
+
+    /**
+     * Open a read-only channel over the data.
+     */
+    SeekableByteChannel openChannel() throws IOException;
+}
@@ -3,42 +3,31 @@ package com.spartansoftwareinc.tipp;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 /**
  * PackageSource that reads contents from a zipped package archive.
  */
-class StreamPackageSource {
-    public static final String SEPARATOR = "/";
-
+class StreamPackageSource extends PackageSource {
     private InputStream inputStream;
-    private TIPPErrorHandler errorHandler;
 
-    private Path manifest;
-    private Path objects;
-    private Map<String, Path> payloadPaths = new HashMap<>();
+    private StoredResource manifest;
 
     StreamPackageSource(InputStream inputStream, TIPPErrorHandler errorHandler) {
+        super(errorHandler);
         this.inputStream = inputStream;
-        this.errorHandler = errorHandler;
     }
     
+    @Override
     InputStream getManifest() throws IOException {
         if (manifest == null) {
             throw new FileNotFoundException("Missing manifest.xml");
         }
-        return Files.newInputStream(manifest);
-    }
-
-    Payload getPayload() {
-        return new Payload(objects, payloadPaths);
+        return manifest.openInputStream();
     }
 
+    @Override
     void expand() throws IOException {
         try (ZipInputStream zis = FileUtil.getZipInputStream(inputStream)) {
             for (ZipEntry entry = zis.getNextEntry(); entry != null; 
@@ -48,10 +37,10 @@ class StreamPackageSource {
                 }
                 String name = entry.getName();
                 if (name.equals(PackageBase.MANIFEST)) {
-                    manifest = FileUtil.copyToTemp(zis, "manifest", ".xml");
+                    manifest = getStore().store(zis, PackageBase.MANIFEST);
                 }
                 else if (name.equals(PackageBase.PAYLOAD_FILE)) {
-                    expandPayload(zis);
+                    stagePayload(zis);
                 }
                 else {
                     errorHandler.reportError(TIPPErrorType.UNEXPECTED_PACKAGE_CONTENTS, 
@@ -59,6 +48,10 @@ class StreamPackageSource {
                 }
             }
         }
+        catch (QuotaExceededException e) {
+            // The package is fine; there's just no room for it
+            throw e;
+        }
         catch (IOException e) {
             // XXX Is this still true?
             // This exception is not called when you expect due to the 
@@ -71,38 +64,44 @@ class StreamPackageSource {
         }
     }
     
-    private void expandPayload(InputStream is) throws IOException {
-        // There's a bug in the Java zip implementation -- I can't actually open 
-        // a zip stream within another stream without buffering it.  As a result, I need 
-        // to dump the contents of the payload object into a temporary location and then
-        // read it back as a zip archive.
-        // 
-        // I also need to do this so I can retrieve the raw payload bytes for 
-        // signature validation.
-        Path tempPayload = FileUtil.copyToTemp(is, "payload", ".zip");
-        objects = Files.createTempDirectory("tipp");
-        try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(tempPayload))) {
+    @Override
+    void expandManifest() throws IOException {
+        try (ZipInputStream zis = FileUtil.getZipInputStream(inputStream)) {
+            // Anything ahead of the manifest (including resources.zip) is
+            // skipped over by the zip stream without being stored.
             for (ZipEntry entry = zis.getNextEntry(); entry != null; 
                     entry = zis.getNextEntry()) {
-                if (!entry.isDirectory()) {
-                    Path p = objects.resolve(entry.getName());
-                    Files.createDirectories(p.getParent());
-                    Files.copy(zis, p);
-                    payloadPaths.put(entry.getName(), p);
+                if (entry.getName().equals(PackageBase.MANIFEST)) {
+                    manifest = getStore().store(zis, PackageBase.MANIFEST);
+                    return;
                 }
             }
         }
-        Files.delete(tempPayload);
+        catch (QuotaExceededException e) {
+            // The package is fine; there's just no room for it
+            throw e;
+        }
+        catch (IOException e) {
+            errorHandler.reportError(TIPPErrorType.INVALID_PACKAGE_ZIP,
+                            "Could not read package zip", e);
+            throw new ReportedException(e);
+        }
+    }
+
+    private void stagePayload(InputStream is) throws IOException {
+        // The outer zip can only be read forwards, so the payload archive is
+        // copied into the package store.  That gives lazy extraction the
+        // random access it needs, and keeps the raw payload bytes around for
+        // signature validation.
+        loadStagedPayload(is);
     }
 
     // Very hacky
+    @Override
     void close() throws IOException {
+        releasePayloadArchive();
         if (manifest != null) {
-            Files.deleteIfExists(manifest);
+            manifest.close();
         }
     }
-    void cleanupSource() throws IOException {
-        close();
-        FileUtil.recursiveDelete(objects);
-    }
 }
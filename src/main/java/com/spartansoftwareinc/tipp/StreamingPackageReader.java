@@ -0,0 +1,212 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads a package in a single pass, handing each payload file to a
+ * {@link TIPPVisitor} as it is decompressed.  Payload files are never
+ * stored.  The one exception is a package whose resources.zip comes ahead
+ * of its manifest, as in signed packages: we can't tell which files are
+ * which until we have seen the manifest, so in that case the payload
+ * archive is held in a {@link PackageStore} until it has.  By default, a
+ * payload archive of up to {@value #DEFAULT_MEMORY_THRESHOLD} bytes is
+ * held in memory, and a larger one in a temporary file.
+ */
+class StreamingPackageReader {
+    private TIPPErrorHandler errorHandler;
+    private TIPPVisitor visitor;
+    static final int DEFAULT_MEMORY_THRESHOLD = 16 * 1024 * 1024;
+
+    private PackageStore store = new HybridStore(DEFAULT_MEMORY_THRESHOLD);
+    private ValidationLevel validationLevel = ValidationLevel.FULL;
+
+    StreamingPackageReader(TIPPErrorHandler errorHandler, TIPPVisitor visitor) {
+        this.errorHandler = errorHandler;
+        this.visitor = visitor;
+    }
+
+    /**
+     * Set which checks are made.  Nothing is left to check later, so
+     * {@link ValidationLevel#DEFERRED} is the same as
+     * {@link ValidationLevel#FULL}.  The visitor is told about payload
+     * problems whatever the level.
+     */
+    StreamingPackageReader setValidationLevel(ValidationLevel validationLevel) {
+        this.validationLevel = (validationLevel == ValidationLevel.DEFERRED) ?
+                ValidationLevel.FULL : validationLevel;
+        return this;
+    }
+
+    /**
+     * Set where a payload archive that comes ahead of the manifest is held.
+     */
+    StreamingPackageReader setStore(PackageStore store) {
+        this.store = store;
+        return this;
+    }
+
+    /**
+     * @return the manifest, or null if it couldn't be loaded
+     */
+    Manifest read(InputStream inputStream) throws IOException {
+        Manifest manifest = null;
+        StoredResource pendingPayload = null;
+        boolean sawPayload = false;
+        try (ZipInputStream zis = FileUtil.getZipInputStream(inputStream)) {
+            for (ZipEntry entry = zis.getNextEntry(); entry != null; 
+                    entry = zis.getNextEntry()) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String name = entry.getName();
+                if (name.equals(PackageBase.MANIFEST)) {
+                    ManifestLoader loader = new ManifestLoader();
+                    loader.setValidationLevel(validationLevel);
+                    manifest = loader.loadFromStream(new EntryInputStream(zis), errorHandler);
+                    if (manifest == null) {
+                        return null;
+                    }
+                    visitor.visitManifest(manifest);
+                    if (pendingPayload != null) {
+                        try (InputStream is = pendingPayload.openInputStream()) {
+                            readPayload(manifest, is);
+                        }
+                    }
+                }
+                else if (name.equals(PackageBase.PAYLOAD_FILE)) {
+                    sawPayload = true;
+                    if (manifest != null) {
+                        readPayload(manifest, zis);
+                    }
+                    else {
+                        pendingPayload = store.store(zis, PackageBase.PAYLOAD_FILE);
+                    }
+                }
+                else {
+                    errorHandler.reportError(TIPPErrorType.UNEXPECTED_PACKAGE_CONTENTS, 
+                            "Unexpected package contents: " + name, null);
+                }
+            }
+        }
+        catch (ZipException e) {
+            // Other I/O errors (including any from the visitor) are passed on
+            errorHandler.reportError(TIPPErrorType.INVALID_PACKAGE_ZIP,
+                            "Could not read package zip", e);
+            return null;
+        }
+        finally {
+            if (pendingPayload != null) {
+                pendingPayload.close();
+            }
+        }
+        if (manifest == null) {
+            errorHandler.reportError(TIPPErrorType.MISSING_MANIFEST, 
+                    "Package contained no manifest", null);
+            return null;
+        }
+        if (!sawPayload) {
+            // Every manifest file is missing
+            PayloadValidator validator = new PayloadValidator();
+            validator.start(manifest);
+            reportValidation(validator);
+        }
+        return manifest;
+    }
+
+    private void readPayload(Manifest manifest, InputStream is) throws IOException {
+        PayloadValidator validator = new PayloadValidator();
+        validator.start(manifest);
+        // Not closed, since that would close the package stream too
+        ZipInputStream zis = new ZipInputStream(is);
+        try {
+            for (ZipEntry entry = zis.getNextEntry(); entry != null;
+                    entry = zis.getNextEntry()) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                TIPPFile file = validator.checkEntry(entry.getName());
+                if (file != null) {
+                    EntryInputStream contents = new EntryInputStream(zis);
+                    try {
+                        visitor.visitFile(file, contents);
+                    }
+                    finally {
+                        contents.invalidate();
+                    }
+                }
+            }
+        }
+        catch (ZipException e) {
+            errorHandler.reportError(TIPPErrorType.INVALID_PAYLOAD_ZIP,
+                    "Could not read payload zip", e);
+        }
+        reportValidation(validator);
+    }
+
+    private void reportValidation(PayloadValidator validator) throws IOException {
+        List<TIPPError> errors = validator.finish();
+        if (validationLevel != ValidationLevel.NONE) {
+            for (TIPPError e : errors) {
+                errorHandler.reportError(e.getErrorType(), e.getMessage(), e.getException());
+            }
+        }
+        visitor.visitPayloadValidation(errors);
+    }
+
+    /**
+     * View of the current zip entry that is handed to a caller.  Closing it
+     * does not close the zip stream, and it stops working once the caller
+     * is done with it.
+     */
+    private static class EntryInputStream extends FilterInputStream {
+        private boolean valid = true;
+
+        EntryInputStream(InputStream in) {
+            super(in);
+        }
+
+        void invalidate() {
+            valid = false;
+        }
+
+        private void check() throws IOException {
+            if (!valid) {
+                throw new IOException("Entry is no longer available");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            check();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            check();
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            check();
+            return super.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return valid ? super.available() : 0;
+        }
+
+        @Override
+        public void close() {
+            // The zip stream belongs to us
+        }
+    }
+}
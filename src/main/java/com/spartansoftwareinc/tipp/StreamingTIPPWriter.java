@@ -0,0 +1,244 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a package straight to an output stream, one file at a time,
+ * without holding any of its contents.  Each file is compressed into the
+ * payload archive as it is read, and the manifest is written once all the
+ * files have been added, by {@link #finish()}.  Memory and disk use
+ * therefore don't depend on the size or number of files, which makes this
+ * suitable for packages that are too large to build with
+ * {@link RequestTIPPBuilder} or {@link ResponseTIPPBuilder}, or whose files
+ * aren't all known up front.
+ * <p>
+ * Because the manifest comes last, the package is laid out the same way
+ * as a signed package, and can be signed with {@link #setKeyPair(KeyPair)}.
+ * Files are always deflated, since uncompressed entries would need their
+ * size and checksum before their data; where the {@link CompressionPolicy}
+ * says a file should be stored, it is deflated at level 0 instead, which
+ * costs a few bytes per 64KB but no compression time.
+ * <p>
+ * Package metadata may be set at any time before {@link #finish()}.
+ * A writer can't be reused.
+ */
+public class StreamingTIPPWriter implements Closeable {
+    private ZipOutputStream zos;
+    private MessageDigest digest;
+    private ZipWriter payload;
+    private ManifestBuilder manifestBuilder = new ManifestBuilder();
+    private Map<TIPPFile, String> locationMap = new HashMap<>();
+    private CompressionPolicy compressionPolicy = new CompressionPolicy();
+    private KeyPair keyPair;
+    private boolean finished = false;
+
+    /**
+     * Start writing a package.
+     * @param outputStream stream to write the package to; it is closed when
+     *        the package is finished or the writer is closed
+     * @param isRequest true to write a request package, false to write a
+     *        response
+     */
+    public StreamingTIPPWriter(OutputStream outputStream, boolean isRequest) {
+        if (outputStream == null) {
+            throw new IllegalArgumentException("outputStream must not be null");
+        }
+        this.zos = new ZipOutputStream(outputStream);
+        manifestBuilder.setIsRequest(isRequest);
+    }
+
+    public StreamingTIPPWriter setPackageId(String packageId) {
+        manifestBuilder.setPackageId(packageId);
+        return this;
+    }
+
+    public StreamingTIPPWriter setCreator(TIPPCreator creator) {
+        manifestBuilder.setCreator(creator);
+        return this;
+    }
+
+    public StreamingTIPPWriter setTaskType(TIPPTaskType taskType) {
+        manifestBuilder.setTaskType(taskType);
+        return this;
+    }
+
+    public StreamingTIPPWriter setSourceLocale(String srcLang) {
+        manifestBuilder.setSourceLocale(srcLang);
+        return this;
+    }
+
+    public StreamingTIPPWriter setTargetLocale(String tgtLang) {
+        manifestBuilder.setTargetLocale(tgtLang);
+        return this;
+    }
+
+    /**
+     * Set the id of the request package this responds to.  Only used for
+     * response packages.
+     */
+    public StreamingTIPPWriter setRequestPackageId(String packageId) {
+        manifestBuilder.setRequestPackageId(packageId);
+        return this;
+    }
+
+    /**
+     * Set the creator of the request package this responds to.  Only used
+     * for response packages.
+     */
+    public StreamingTIPPWriter setRequestCreator(TIPPCreator requestCreator) {
+        manifestBuilder.setRequestCreator(requestCreator);
+        return this;
+    }
+
+    /**
+     * Only used for response packages, which must have one.
+     */
+    public StreamingTIPPWriter setResponseCode(TIPPResponseCode code) {
+        manifestBuilder.setResponseCode(code);
+        return this;
+    }
+
+    /**
+     * Only used for response packages.
+     */
+    public StreamingTIPPWriter setComment(String comment) {
+        manifestBuilder.setComment(comment);
+        return this;
+    }
+
+    /**
+     * Set how files are compressed.  This only affects files added
+     * afterwards.
+     */
+    public StreamingTIPPWriter setCompressionPolicy(CompressionPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy must not be null");
+        }
+        this.compressionPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Set a keypair with which to sign the manifest.  This must be called
+     * before any files are added, since the signature covers the whole
+     * payload.
+     * @throws IllegalStateException if files have already been added
+     */
+    public StreamingTIPPWriter setKeyPair(KeyPair keyPair) {
+        if (payload != null) {
+            throw new IllegalStateException("Files have already been added");
+        }
+        this.keyPair = keyPair;
+        return this;
+    }
+
+    /**
+     * Write a file into the package.  The stream is read to the end, but
+     * not closed.
+     */
+    public StreamingTIPPWriter addFile(TIPPSectionType sectionType, String name, InputStream is)
+                    throws IOException {
+        checkOpen();
+        writeFile(manifestBuilder.addFile(sectionType, name), is);
+        return this;
+    }
+
+    /**
+     * Write a reference file into the package.  The stream is read to the
+     * end, but not closed.
+     */
+    public StreamingTIPPWriter addReferenceFile(TIPPReferenceFile.LanguageChoice langChoice,
+                    String name, InputStream is) throws IOException {
+        checkOpen();
+        writeFile(manifestBuilder.addReferenceFile(name, langChoice), is);
+        return this;
+    }
+
+    private void checkOpen() {
+        if (finished) {
+            throw new IllegalStateException("Package has already been finished");
+        }
+    }
+
+    private void writeFile(TIPPFile file, InputStream is) throws IOException {
+        if (payload == null) {
+            startPayload();
+        }
+        String location = PayloadBuilder.getManifestLocation(file);
+        locationMap.put(file, location);
+        InputStream buffered = new BufferedInputStream(is);
+        int level = compressionPolicy.chooseLevel(file, buffered);
+        if (level == CompressionPolicy.STORED) {
+            level = Deflater.NO_COMPRESSION;
+        }
+        payload.writeDeflatedEntry(Payload.getFilePath(file.getSectionType(), location),
+                                   level, buffered);
+    }
+
+    private void startPayload() throws IOException {
+        zos.putNextEntry(new ZipEntry(PackageBase.PAYLOAD_FILE));
+        OutputStream os = new PackageBase.EntryOutputStream(zos);
+        if (keyPair != null) {
+            try {
+                digest = MessageDigest.getInstance(ManifestSigner.PAYLOAD_DIGEST_ALGORITHM);
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            os = new DigestOutputStream(os, digest);
+        }
+        payload = new ZipWriter(os);
+    }
+
+    /**
+     * Finish the payload, write the manifest, and close the output stream.
+     */
+    public void finish() throws TIPPException, IOException {
+        checkOpen();
+        finished = true;
+        try {
+            if (payload == null) {
+                startPayload();
+            }
+            payload.close();
+            zos.closeEntry();
+            manifestBuilder.setLocationMap(locationMap);
+            ManifestWriter mw = new ManifestWriter();
+            mw.setKeyPair(keyPair);
+            if (digest != null) {
+                mw.setPayloadDigest(digest.digest());
+            }
+            zos.putNextEntry(new ZipEntry(PackageBase.MANIFEST));
+            mw.saveToStream(manifestBuilder.build(), zos);
+            zos.closeEntry();
+        }
+        finally {
+            zos.close();
+        }
+    }
+
+    /**
+     * Close the output stream.  If the package hasn't been finished, what
+     * has been written so far is left incomplete.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            finished = true;
+            zos.close();
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package com.spartansoftwareinc.tipp;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 import java.security.KeyPair;
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 public interface TIPP extends AutoCloseable {
 
@@ -33,6 +38,47 @@ public interface TIPP extends AutoCloseable {
      */
     void saveToStream(OutputStream outputStream, KeyPair keyPair) throws TIPPException, IOException;
 
+    /**
+     * Write this package to an output stream as a ZIP archive, using the
+     * provided options.  By default, only the keypair is used, and the
+     * package is written with {@link #saveToStream(OutputStream, KeyPair)}.
+     * @param outputStream
+     * @param options save options, such as a keypair for signing, or an
+     *        executor for compressing files concurrently
+     * @throws TIPPException
+     * @throws IOException
+     */
+    default void saveToStream(OutputStream outputStream, TIPPSaveOptions options)
+                    throws TIPPException, IOException {
+        saveToStream(outputStream, options.getKeyPair());
+    }
+
+    /**
+     * Write this package to an output stream without blocking the calling
+     * thread.  The package is written on the given executor; to compress
+     * payload files on a different executor, set one in the options.  If
+     * the future is cancelled before the write starts, nothing is written.
+     * The stream is not closed.
+     * @param outputStream
+     * @param options save options, as for
+     *        {@link #saveToStream(OutputStream, TIPPSaveOptions)}
+     * @param executor executor for writing the package
+     * @return a future that completes when the package has been written, or
+     *         completes exceptionally with the TIPPException or IOException
+     *         that stopped it
+     */
+    default CompletableFuture<Void> saveAsync(OutputStream outputStream, TIPPSaveOptions options,
+                                              Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                saveToStream(outputStream, options);
+            }
+            catch (TIPPException | IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
     /**
      * Is this package a request? If true, the package may be safely cast to
      * TIPRequestPackage; if false, teh package may be safely cast to
@@ -135,4 +181,34 @@ public interface TIPP extends AutoCloseable {
      * @throws IOException
      */
     InputStream getFile(TIPPFile file) throws IOException;
+
+    /**
+     * Write the contents of a file in this package to a channel.  Where
+     * the package holds the file in a local file or in memory, and the
+     * channel allows it (for example, a file or socket channel), the data
+     * is transferred without being copied through the Java heap.  The
+     * channel is not closed.
+     * @param file file to write
+     * @param target channel to write to
+     * @return the number of bytes written
+     * @throws FileNotFoundException if the package doesn't contain the file
+     * @throws IOException
+     */
+    default long transferFile(TIPPFile file, WritableByteChannel target) throws IOException {
+        try (InputStream is = getFile(file)) {
+            if (is == null) {
+                throw new FileNotFoundException(file.toString());
+            }
+            return FileUtil.copyStreamToChannel(is, target);
+        }
+    }
+
+    /**
+     * Make any checks that were put off when this package was opened with
+     * {@link ValidationLevel#DEFERRED}.  Errors are reported to the error
+     * handler of the factory that opened the package.  This does nothing
+     * if there are no checks left to make.
+     */
+    default void validate() {
+    }
 }
@@ -0,0 +1,251 @@
+package com.spartansoftwareinc.tipp;
+
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+/**
+ * Opens many packages concurrently and passes each one to a handler.
+ * Each package is opened by its own {@link TIPPFactory} with its own
+ * {@link CollectingErrorHandler}, so errors in one package never affect
+ * another, and everything reported is gathered into a
+ * {@link TIPPBatchReport}.
+ * <p>
+ * On runtimes that support them (Java 21 and later), each package is
+ * processed on its own virtual thread; otherwise a pool of platform threads
+ * is used.  Either way, no more than {@link #getMaxConcurrentOpens()}
+ * packages are in progress at once.
+ * <p>
+ * Temporary storage for all the packages comes from a single
+ * {@link PackageStore}, which can be capped with
+ * {@link #setMaxTempBytes(long)}.  A package that runs into the cap while
+ * it is being opened, while others are using space, is tried again after
+ * the rest of the batch is done, when it has the whole allowance to itself.
+ * Once a package has been passed to the handler it is never tried again,
+ * since the handler may already have acted on it.
+ */
+public class TIPPBatch {
+
+    /**
+     * Receives each package in a batch.  Handlers are called concurrently.
+     */
+    public interface Handler {
+        /**
+         * Process a package.  The package is closed when this method returns.
+         * @param path location of the package
+         * @param tipp the package, or null if it couldn't be opened
+         * @param errors errors reported while opening the package
+         * @throws Exception to mark the package as failed; the rest of the
+         *         batch carries on
+         */
+        void handle(Path path, TIPP tipp, List<TIPPError> errors) throws Exception;
+    }
+
+    private int maxConcurrentOpens = Runtime.getRuntime().availableProcessors() * 4;
+    private long maxTempBytes = 0;
+    private PackageStore packageStore = new TempFileStore();
+    private Supplier<TIPPFactory> factorySupplier = TIPPFactory::new;
+    private boolean virtualThreads = true;
+
+    public int getMaxConcurrentOpens() {
+        return maxConcurrentOpens;
+    }
+
+    /**
+     * Set the most packages that may be open at once.  The default is four
+     * per available processor.
+     */
+    public TIPPBatch setMaxConcurrentOpens(int maxConcurrentOpens) {
+        if (maxConcurrentOpens < 1) {
+            throw new IllegalArgumentException("Invalid limit: " + maxConcurrentOpens);
+        }
+        this.maxConcurrentOpens = maxConcurrentOpens;
+        return this;
+    }
+
+    public long getMaxTempBytes() {
+        return maxTempBytes;
+    }
+
+    /**
+     * Cap the total size of the data held in temporary storage by all the
+     * open packages.
+     * @param maxTempBytes the most data to hold at once, in bytes, or 0 (the
+     *        default) for no limit
+     */
+    public TIPPBatch setMaxTempBytes(long maxTempBytes) {
+        if (maxTempBytes < 0) {
+            throw new IllegalArgumentException("Invalid limit: " + maxTempBytes);
+        }
+        this.maxTempBytes = maxTempBytes;
+        return this;
+    }
+
+    public PackageStore getPackageStore() {
+        return packageStore;
+    }
+
+    /**
+     * Set where the packages keep their data while they are open.  This
+     * takes the place of any store set by the factory supplier.  The
+     * default is a {@link TempFileStore}.
+     */
+    public TIPPBatch setPackageStore(PackageStore packageStore) {
+        if (packageStore == null) {
+            throw new IllegalArgumentException("packageStore can't be null");
+        }
+        this.packageStore = packageStore;
+        return this;
+    }
+
+    /**
+     * Set where the factory for each package comes from, to control how
+     * packages are opened.  A new factory is needed for each package; its
+     * error handler and package store are replaced.
+     */
+    public TIPPBatch setFactorySupplier(Supplier<TIPPFactory> factorySupplier) {
+        if (factorySupplier == null) {
+            throw new IllegalArgumentException("factorySupplier can't be null");
+        }
+        this.factorySupplier = factorySupplier;
+        return this;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Set whether to use virtual threads where the runtime supports them.
+     * This is on by default.
+     */
+    public TIPPBatch setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /**
+     * Open each package and pass it to the handler.  This returns once
+     * every package has been dealt with.
+     * @param paths locations of the packages
+     * @param handler handler for each package
+     * @return results for every package
+     * @throws InterruptedException if interrupted while waiting; packages
+     *         already in progress are left to finish
+     */
+    public TIPPBatchReport process(Iterable<Path> paths, final Handler handler)
+                    throws InterruptedException {
+        final PackageStore store = (maxTempBytes > 0) ?
+                new QuotaStore(packageStore, maxTempBytes) : packageStore;
+        final List<Indexed> results = Collections.synchronizedList(new ArrayList<Indexed>());
+        final Semaphore permits = new Semaphore(maxConcurrentOpens);
+        ThreadFactory threadFactory = virtualThreads ? getVirtualThreadFactory() : null;
+        ExecutorService pool = null;
+        Executor executor;
+        if (threadFactory != null) {
+            final ThreadFactory threads = threadFactory;
+            executor = r -> threads.newThread(r).start();
+        }
+        else {
+            pool = Executors.newFixedThreadPool(maxConcurrentOpens);
+            executor = pool;
+        }
+        try {
+            int index = 0;
+            for (final Path path : paths) {
+                final int i = index++;
+                permits.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            results.add(new Indexed(i, process(path, handler, store)));
+                        }
+                        finally {
+                            permits.release();
+                        }
+                    });
+                }
+                catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+            // Wait for everything to finish
+            permits.acquire(maxConcurrentOpens);
+            permits.release(maxConcurrentOpens);
+        }
+        finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        List<TIPPBatchResult> ordered = new ArrayList<>();
+        Collections.sort(results);
+        for (Indexed result : results) {
+            if (!result.result.isOpened() &&
+                result.result.getFailure() instanceof QuotaExceededException) {
+                // Now there's nothing else holding space
+                result.result = process(result.result.getPath(), handler, store);
+            }
+            ordered.add(result.result);
+        }
+        return new TIPPBatchReport(ordered);
+    }
+
+    private TIPPBatchResult process(Path path, Handler handler, PackageStore store) {
+        CollectingErrorHandler errors = new CollectingErrorHandler();
+        boolean opened = false;
+        Exception failure = null;
+        try {
+            TIPPFactory factory = factorySupplier.get();
+            factory.setErrorHandler(errors);
+            factory.setPackageStore(store);
+            try (TIPP tipp = factory.openFromPath(path)) {
+                opened = (tipp != null);
+                handler.handle(path, tipp, errors.getErrors());
+            }
+        }
+        catch (Exception e) {
+            failure = e;
+        }
+        return new TIPPBatchResult(path, errors, opened, failure);
+    }
+
+    private static class Indexed implements Comparable<Indexed> {
+        int index;
+        TIPPBatchResult result;
+
+        Indexed(int index, TIPPBatchResult result) {
+            this.index = index;
+            this.result = result;
+        }
+
+        @Override
+        public int compareTo(Indexed o) {
+            return Integer.compare(index, o.index);
+        }
+    }
+
+    /**
+     * Get a factory for virtual threads, if the runtime has them.  We can't
+     * refer to the API directly and still run on older runtimes.
+     */
+    static ThreadFactory getVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory)factory.invoke(builder);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
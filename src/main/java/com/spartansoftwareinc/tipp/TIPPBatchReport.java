@@ -0,0 +1,60 @@
+package com.spartansoftwareinc.tipp;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of a {@link TIPPBatch} run.  Results are listed in the order
+ * the packages were supplied.
+ */
+public class TIPPBatchReport {
+    private List<TIPPBatchResult> results;
+    private Map<TIPPErrorType, Integer> errorCounts = new EnumMap<>(TIPPErrorType.class);
+    private int successCount = 0;
+    private int failureCount = 0;
+
+    TIPPBatchReport(List<TIPPBatchResult> results) {
+        this.results = Collections.unmodifiableList(results);
+        for (TIPPBatchResult result : results) {
+            if (result.isSuccess()) {
+                successCount++;
+            }
+            if (result.getFailure() != null || !result.isOpened()) {
+                failureCount++;
+            }
+            for (TIPPError error : result.getErrors()) {
+                Integer count = errorCounts.get(error.getErrorType());
+                errorCounts.put(error.getErrorType(), count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    public List<TIPPBatchResult> getResults() {
+        return results;
+    }
+
+    /**
+     * @return the number of packages that were opened and handled without
+     *         any errors
+     */
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    /**
+     * @return the number of packages that couldn't be opened, or whose
+     *         processing threw an exception
+     */
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return the number of errors of each type reported across the batch
+     */
+    public Map<TIPPErrorType, Integer> getErrorCounts() {
+        return Collections.unmodifiableMap(errorCounts);
+    }
+}
@@ -0,0 +1,70 @@
+package com.spartansoftwareinc.tipp;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of processing one package in a {@link TIPPBatch}.
+ */
+public class TIPPBatchResult {
+    private Path path;
+    private List<TIPPError> errors;
+    private TIPPErrorSeverity maxSeverity;
+    private Exception failure;
+    private boolean opened;
+
+    TIPPBatchResult(Path path, CollectingErrorHandler errors, boolean opened,
+                    Exception failure) {
+        this.path = path;
+        this.errors = Collections.unmodifiableList(errors.getErrors());
+        this.maxSeverity = errors.getMaxSeverity();
+        this.opened = opened;
+        this.failure = failure;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the errors reported while opening the package
+     */
+    public List<TIPPError> getErrors() {
+        return errors;
+    }
+
+    public TIPPErrorSeverity getMaxSeverity() {
+        return maxSeverity;
+    }
+
+    /**
+     * @return true if the package was opened (although it may still
+     *         have reported errors)
+     */
+    public boolean isOpened() {
+        return opened;
+    }
+
+    /**
+     * @return the exception that stopped the package from being opened or
+     *         handled, or null
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return true if the package was opened and handled without
+     *         an exception or any reported errors
+     */
+    public boolean isSuccess() {
+        return opened && failure == null && errors.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return path + ": " + (failure != null ? failure :
+                (opened ? errors.size() + " errors" : "not opened"));
+    }
+}
@@ -11,8 +11,8 @@ public class TIPPCreator {
     private TIPPTool tool;
 
     TIPPCreator(String name, String id, Date date, TIPPTool tool) {
-        this.name = name;
-        this.id = id;
+        this.name = FormattingUtil.intern(name);
+        this.id = FormattingUtil.intern(id);
         this.date = date;
         this.tool = tool;
     }
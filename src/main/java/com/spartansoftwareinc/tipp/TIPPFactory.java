@@ -2,13 +2,25 @@ package com.spartansoftwareinc.tipp;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 import javax.xml.crypto.KeySelector;
 
 public class TIPPFactory {
 
     private TIPPErrorHandler errorHandler = new DefaultErrorHandler();
-    
+    private PayloadExtraction payloadExtraction = PayloadExtraction.EAGER;
+    private PayloadStorage payloadStorage = PayloadStorage.TEMP_FILES;
+    private PackageStore packageStore;
+    private ExecutorService extractionExecutor;
+    private ValidationLevel validationLevel = ValidationLevel.FULL;
+    private boolean allowSHA1Signatures = false;
+
     public TIPPErrorHandler getErrorHandler() {
         return errorHandler;
     }
@@ -20,10 +32,138 @@ public class TIPPFactory {
         this.errorHandler = errorHandler;
     }
 
+    public PayloadExtraction getPayloadExtraction() {
+        return payloadExtraction;
+    }
+
+    /**
+     * Set when payload files are unpacked from packages opened by this
+     * factory.  By default, the whole payload is unpacked as the package
+     * is opened; packages whose files are mostly left unread can be
+     * opened faster with {@link PayloadExtraction#LAZY} or
+     * {@link PayloadExtraction#LAZY_CACHED}.
+     * @param payloadExtraction extraction mode
+     */
+    public void setPayloadExtraction(PayloadExtraction payloadExtraction) {
+        if (payloadExtraction == null) {
+            throw new IllegalArgumentException("payloadExtraction can't be null");
+        }
+        this.payloadExtraction = payloadExtraction;
+    }
+
+    public ValidationLevel getValidationLevel() {
+        return validationLevel;
+    }
+
+    /**
+     * Set how thoroughly packages are checked as they are opened.  By
+     * default, every check is made, including validating the manifest
+     * against the TIPP schema.  Packages from a trusted source can be
+     * opened faster with {@link ValidationLevel#STRUCTURAL} (no schema
+     * validation) or {@link ValidationLevel#NONE}, or with
+     * {@link ValidationLevel#DEFERRED}, which puts the checks off until the
+     * package's files are read.
+     * @param validationLevel validation level
+     */
+    public void setValidationLevel(ValidationLevel validationLevel) {
+        if (validationLevel == null) {
+            throw new IllegalArgumentException("validationLevel can't be null");
+        }
+        this.validationLevel = validationLevel;
+    }
+
+    public boolean isAllowSHA1Signatures() {
+        return allowSHA1Signatures;
+    }
+
+    /**
+     * Set whether packages signed with SHA-1, as this library signed them
+     * before it moved to SHA-256, can be verified.  By default, they can't:
+     * the JDK's secure validation refuses SHA-1, and opening such a package
+     * with a key reports {@link TIPPErrorType#INVALID_SIGNATURE}.  Allowing
+     * them turns secure validation off for their signatures, giving up its
+     * other protections too, so only do this for packages from sources
+     * that are trusted not to craft malicious signatures.
+     * @param allowSHA1Signatures true to verify SHA-1 signatures
+     */
+    public void setAllowSHA1Signatures(boolean allowSHA1Signatures) {
+        this.allowSHA1Signatures = allowSHA1Signatures;
+    }
+
+    public PayloadStorage getPayloadStorage() {
+        return payloadStorage;
+    }
+
+    /**
+     * Set where package data is held for packages opened by this factory.
+     * By default, it is unpacked to temporary files.  With
+     * {@link PayloadStorage#HEAP} or {@link PayloadStorage#DIRECT}, nothing
+     * is written to disk; direct buffers are released when the package
+     * is closed.
+     * <p>
+     * Packages opened with {@link #openFromBytes(byte[])} or
+     * {@link #openFromByteBuffer(ByteBuffer)} are always held in memory.
+     * <p>
+     * This replaces any store set with {@link #setPackageStore}.
+     * @param payloadStorage storage mode
+     */
+    public void setPayloadStorage(PayloadStorage payloadStorage) {
+        if (payloadStorage == null) {
+            throw new IllegalArgumentException("payloadStorage can't be null");
+        }
+        this.payloadStorage = payloadStorage;
+        this.packageStore = null;
+    }
+
+    /**
+     * @return the store set with {@link #setPackageStore}, or null if
+     *         package data is held according to the {@link PayloadStorage}
+     */
+    public PackageStore getPackageStore() {
+        return packageStore;
+    }
+
+    /**
+     * Set the store that holds package data for all packages opened by this
+     * factory, however they are opened.  This takes the place of the
+     * {@link PayloadStorage} setting, and allows for things like a
+     * dedicated directory or a size limit (see {@link TempFileStore} and
+     * {@link QuotaStore}).  The store will be used by every package the
+     * factory opens, including concurrently.
+     * @param packageStore store for package data
+     */
+    public void setPackageStore(PackageStore packageStore) {
+        if (packageStore == null) {
+            throw new IllegalArgumentException("packageStore can't be null");
+        }
+        this.packageStore = packageStore;
+    }
+
+    public ExecutorService getExtractionExecutor() {
+        return extractionExecutor;
+    }
+
+    /**
+     * Set an executor to unpack payload files concurrently, when the
+     * payload is extracted eagerly (see {@link #setPayloadExtraction}).
+     * Files are still added to the package, and checked against the
+     * manifest, in the order they appear in the payload, so results and
+     * errors are the same as for serial extraction.  The executor is not
+     * shut down by the factory.
+     * <p>
+     * For packages opened from a stream, or whose payload archive is
+     * compressed, the payload archive is staged before it is unpacked.
+     * @param extractionExecutor executor, or null (the default) to unpack
+     *        files one at a time on the calling thread
+     */
+    public void setExtractionExecutor(ExecutorService extractionExecutor) {
+        this.extractionExecutor = extractionExecutor;
+    }
+
     /**
      * Create a new TIPP object from a byte stream representation of 
-     * a zipped TIPP.  The package data will be expanded into the provided
-     * PackageStore as part of processing.  If the package is signed, the
+     * a zipped TIPP.  The package data will be expanded into the factory's
+     * {@link PackageStore} as part of processing.  If the package is signed, the
      * signature will <b>not</b> be verified.
      * <p>
      * This method will return a non-null TIPP as long as the package could be 
@@ -43,8 +183,8 @@ public class TIPPFactory {
     
     /**
      * Create a new TIPP object from a byte stream representation of 
-     * a zipped TIPP.  The package data will be expanded into the provided
-     * PackageStore as part of processing.  If the package is signed, it will
+     * a zipped TIPP.  The package data will be expanded into the factory's
+     * {@link PackageStore} as part of processing.  If the package is signed, it will
      * be verified using the provided key.
      * <p>
      * This method will return a non-null TIPP as long as the package could be 
@@ -60,19 +200,375 @@ public class TIPPFactory {
      */
     public TIPP openFromStream(InputStream inputStream,
             KeySelector keySelector) throws IOException {
-        StreamPackageSource source = new StreamPackageSource(inputStream, errorHandler);
+        return open(new StreamPackageSource(inputStream, errorHandler), keySelector,
+                    getStore(payloadStorage));
+    }
+
+    /**
+     * Create a new TIPP object from a zipped TIPP stored in a local file.
+     * This is equivalent to {@link #openFromStream(InputStream)}, but
+     * the archive is read in place through its central directory: the
+     * manifest and payload archive are not copied to temporary storage
+     * before the payload is expanded.  If the package is signed, the
+     * signature will <b>not</b> be verified.
+     *
+     * @param path location of the zipped package
+     *
+     * @return a TIPP if parsing was completed, or null if a FATAL error occurred.
+     * @throws IOException
+     */
+    public TIPP openFromPath(Path path) throws IOException {
+        return openFromPath(path, null);
+    }
+
+    /**
+     * Create a new TIPP object from a zipped TIPP stored in a local file.
+     * This is equivalent to {@link #openFromStream(InputStream, KeySelector)},
+     * but the archive is read in place through its central directory.
+     *
+     * @param path location of the zipped package
+     * @param keySelector key used to verify the package signature
+     *
+     * @return a TIPP if parsing was completed, or null if a FATAL error occurred.
+     * @throws IOException
+     */
+    public TIPP openFromPath(Path path, KeySelector keySelector) throws IOException {
+        return open(new ArchivePackageSource(path, errorHandler), keySelector,
+                    getStore(payloadStorage));
+    }
+
+    /**
+     * Create a new TIPP object from a zipped TIPP held in a byte array.
+     * The archive is read in place, and unless a {@link PackageStore} has
+     * been set, the payload is unpacked to the heap (or to direct buffers, if
+     * that is the factory's {@link PayloadStorage}), so no temporary files
+     * are created.  If the package is signed,
+     * the signature will <b>not</b> be verified.
+     * <p>
+     * With {@link PayloadExtraction#LAZY} extraction, the package reads
+     * from the array until it is closed, so the array must not be modified
+     * until then.
+     *
+     * @param bytes zipped package data
+     *
+     * @return a TIPP if parsing was completed, or null if a FATAL error occurred.
+     * @throws IOException
+     */
+    public TIPP openFromBytes(byte[] bytes) throws IOException {
+        return openFromBytes(bytes, null);
+    }
+
+    /**
+     * Create a new TIPP object from a zipped TIPP held in a byte array.
+     * This is equivalent to {@link #openFromBytes(byte[])}, but a signed
+     * package will be verified using the provided key.
+     *
+     * @param bytes zipped package data
+     * @param keySelector key used to verify the package signature
+     *
+     * @return a TIPP if parsing was completed, or null if a FATAL error occurred.
+     * @throws IOException
+     */
+    public TIPP openFromBytes(byte[] bytes, KeySelector keySelector) throws IOException {
+        return openFromByteBuffer(ByteBuffer.wrap(bytes), keySelector);
+    }
+
+    /**
+     * Create a new TIPP object from a zipped TIPP held in the remaining
+     * bytes of a buffer.  The archive is read in place, and unless a
+     * {@link PackageStore} has been set, no temporary files are created:
+     * if the factory's {@link PayloadStorage} is
+     * {@link PayloadStorage#TEMP_FILES}, the payload is unpacked to memory of
+     * the same kind as the buffer instead (direct buffers for a direct
+     * buffer, and the heap otherwise).  If the package
+     * is signed, the signature will <b>not</b> be verified.
+     * <p>
+     * The buffer's position and limit are not changed, and the buffer is
+     * never released by the package.  With {@link PayloadExtraction#LAZY}
+     * extraction, the package reads from the buffer until it is closed, so
+     * the buffer contents must not be modified until then.
+     *
+     * @param buffer zipped package data
+     *
+     * @return a TIPP if parsing was completed, or null if a FATAL error occurred.
+     * @throws IOException
+     */
+    public TIPP openFromByteBuffer(ByteBuffer buffer) throws IOException {
+        return openFromByteBuffer(buffer, null);
+    }
+
+    /**
+     * Create a new TIPP object from a zipped TIPP held in the remaining
+     * bytes of a buffer.  This is equivalent to
+     * {@link #openFromByteBuffer(ByteBuffer)}, but a signed package will
+     * be verified using the provided key.
+     *
+     * @param buffer zipped package data
+     * @param keySelector key used to verify the package signature
+     *
+     * @return a TIPP if parsing was completed, or null if a FATAL error occurred.
+     * @throws IOException
+     */
+    public TIPP openFromByteBuffer(ByteBuffer buffer, KeySelector keySelector) throws IOException {
+        PayloadStorage storage = payloadStorage;
+        if (storage == PayloadStorage.TEMP_FILES) {
+            storage = buffer.isDirect() ? PayloadStorage.DIRECT : PayloadStorage.HEAP;
+        }
+        return open(new ArchivePackageSource(buffer, errorHandler), keySelector,
+                    getStore(storage));
+    }
+
+    /**
+     * Open a zipped TIPP stored in a local file without blocking the calling
+     * thread.  The package is read and its payload unpacked on
+     * <code>ioExecutor</code>, and the manifest is then parsed, validated
+     * and checked against the payload on <code>cpuExecutor</code>.  The
+     * result is the same as that of {@link #openFromPath(Path, KeySelector)}:
+     * the future completes with null if a FATAL error occurred, or
+     * exceptionally if the package couldn't be read.
+     * <p>
+     * If the future is cancelled, whatever has been unpacked so far is
+     * cleaned up once the stage in progress finishes, and the remaining
+     * stages are skipped.
+     *
+     * @param path location of the zipped package
+     * @param keySelector key used to verify the package signature, or null
+     * @param ioExecutor executor for reading the package
+     * @param cpuExecutor executor for processing the manifest
+     *
+     * @return a future for the TIPP
+     */
+    public CompletableFuture<TIPP> openAsync(Path path, KeySelector keySelector,
+                                             Executor ioExecutor, Executor cpuExecutor) {
+        return openAsync(new ArchivePackageSource(path, errorHandler), keySelector,
+                         getStore(payloadStorage), ioExecutor, cpuExecutor);
+    }
+
+    /**
+     * Open a zipped TIPP stored in a local file without blocking the calling
+     * thread, running every stage on a single executor.  The signature, if
+     * any, is not verified.
+     *
+     * @see #openAsync(Path, KeySelector, Executor, Executor)
+     */
+    public CompletableFuture<TIPP> openAsync(Path path, Executor executor) {
+        return openAsync(path, null, executor, executor);
+    }
+
+    /**
+     * Open a zipped TIPP from a byte stream without blocking the calling
+     * thread.  This is the asynchronous form of
+     * {@link #openFromStream(InputStream, KeySelector)}, and works the same
+     * way as {@link #openAsync(Path, KeySelector, Executor, Executor)}.
+     * The stream is only read on <code>ioExecutor</code>.
+     *
+     * @param inputStream zipped package data
+     * @param keySelector key used to verify the package signature, or null
+     * @param ioExecutor executor for reading the package
+     * @param cpuExecutor executor for processing the manifest
+     *
+     * @return a future for the TIPP
+     */
+    public CompletableFuture<TIPP> openAsync(InputStream inputStream, KeySelector keySelector,
+                                             Executor ioExecutor, Executor cpuExecutor) {
+        return openAsync(new StreamPackageSource(inputStream, errorHandler), keySelector,
+                         getStore(payloadStorage), ioExecutor, cpuExecutor);
+    }
+
+    /**
+     * Open a zipped TIPP from a byte stream without blocking the calling
+     * thread, running every stage on a single executor.  The signature, if
+     * any, is not verified.
+     *
+     * @see #openAsync(InputStream, KeySelector, Executor, Executor)
+     */
+    public CompletableFuture<TIPP> openAsync(InputStream inputStream, Executor executor) {
+        return openAsync(inputStream, null, executor, executor);
+    }
+
+    private PackageStore getStore(PayloadStorage storage) {
+        return (packageStore != null) ? packageStore : storage.newStore();
+    }
+
+    /**
+     * Read only the manifest of a zipped TIPP from a byte stream.  The
+     * payload is neither unpacked nor stored anywhere: the stream is read
+     * only as far as the manifest, skipping over anything before it.  The
+     * manifest is checked the same way it is when the whole package is
+     * opened, but it is not checked against the payload.
+     * <p>
+     * The stream is closed when this method returns.
+     *
+     * @param inputStream zipped package data
+     *
+     * @return the manifest, or null if a FATAL error occurred.
+     * @throws IOException
+     */
+    public TIPPManifest readManifest(InputStream inputStream) throws IOException {
+        return readManifest(new StreamPackageSource(inputStream, errorHandler));
+    }
+
+    /**
+     * Read only the manifest of a zipped TIPP stored in a local file.  This
+     * is equivalent to {@link #readManifest(InputStream)}, but the manifest
+     * is located through the archive's central directory, so the rest of
+     * the file is never read.
+     *
+     * @param path location of the zipped package
+     *
+     * @return the manifest, or null if a FATAL error occurred.
+     * @throws IOException
+     */
+    public TIPPManifest readManifest(Path path) throws IOException {
+        return readManifest(new ArchivePackageSource(path, errorHandler));
+    }
+
+    /**
+     * Read a zipped TIPP from a byte stream in a single pass, passing its
+     * contents to a visitor as they are read.  Payload files are decompressed
+     * straight from the stream and are not stored anywhere, so each one can
+     * only be read once, while it is being visited.  If the package is
+     * signed, the signature will <b>not</b> be verified.
+     * <p>
+     * The exception is a package whose payload archive comes ahead of its
+     * manifest, which is always the case for signed packages.  The payload
+     * can't be matched to the manifest until the manifest has been read,
+     * so the whole (compressed) payload archive has to be held until then.
+     * It goes in the store set with {@link #setPackageStore}, if there is
+     * one; otherwise, up to 16MB is held on the heap, and anything larger
+     * goes to a temporary file.
+     * <p>
+     * The stream is closed when this method returns.
+     *
+     * @param inputStream zipped package data
+     * @param visitor receives the manifest and each payload file
+     *
+     * @return the manifest, or null if a FATAL error occurred.
+     * @throws IOException if the stream can't be read, or the visitor
+     *         throws an exception
+     */
+    public TIPPManifest stream(InputStream inputStream, TIPPVisitor visitor) throws IOException {
+        StreamingPackageReader reader = new StreamingPackageReader(errorHandler, visitor)
+                .setValidationLevel(validationLevel);
+        if (packageStore != null) {
+            reader.setStore(packageStore);
+        }
+        return reader.read(inputStream);
+    }
+
+    private TIPPManifest readManifest(PackageSource source) throws IOException {
+        // The manifest is small; there's no reason to put it on disk
+        source.setStore(PayloadStorage.HEAP.newStore());
+        try {
+            source.expandManifest();
+            return newReader(source).loadManifest(errorHandler);
+        }
+        catch (ReportedException e) {
+            return null;
+        }
+        finally {
+            source.cleanupSource();
+        }
+    }
+
+    private TIPP open(PackageSource source, KeySelector keySelector,
+                      PackageStore store) throws IOException {
+        prepare(source, store);
+        source.setKeepPayloadArchive(keySelector != null);
+        TIPP tipp = null;
         try {
             source.expand();
-            return new PackageReader(source).load(errorHandler, keySelector);
+            tipp = newReader(source).load(errorHandler, keySelector);
+            return tipp;
         }
         catch (ReportedException e) {
             // Reported exceptions will be logged as part of the load status;
             // we catch them (to terminate loading), but don't need to propagate them
             // further.
-            // Do a full cleanup of the source, since the payload (and the TIPP)
-            // never exist
-            source.cleanupSource();
             return null;
         }
+        finally {
+            // Do a full cleanup of the source if the TIPP never came to
+            // exist, since nothing else will ever own the payload
+            if (tipp == null) {
+                source.cleanupSource();
+            }
+        }
+    }
+
+    private CompletableFuture<TIPP> openAsync(final PackageSource source,
+            final KeySelector keySelector, PackageStore store,
+            Executor ioExecutor, Executor cpuExecutor) {
+        prepare(source, store);
+        source.setKeepPayloadArchive(keySelector != null);
+        final CompletableFuture<TIPP> result = new CompletableFuture<>();
+        CompletableFuture.supplyAsync(() -> {
+            // Don't bother if the caller has already lost interest
+            if (result.isDone()) {
+                return false;
+            }
+            try {
+                source.expand();
+                return true;
+            }
+            catch (ReportedException e) {
+                return false;
+            }
+            catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, ioExecutor).thenApplyAsync(expanded -> {
+            if (!expanded || result.isDone()) {
+                return null;
+            }
+            try {
+                return newReader(source).load(errorHandler, keySelector);
+            }
+            catch (ReportedException e) {
+                return null;
+            }
+            catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, cpuExecutor).whenComplete((tipp, e) -> {
+            if (tipp != null && result.complete(tipp)) {
+                return;
+            }
+            // Either loading failed, or the result was cancelled in the
+            // meantime; either way, nothing else will ever own the payload
+            try {
+                if (tipp != null) {
+                    tipp.close();
+                }
+                else {
+                    source.cleanupSource();
+                }
+            }
+            catch (IOException cleanupError) {
+                if (e == null) {
+                    e = cleanupError;
+                }
+            }
+            if (e != null) {
+                result.completeExceptionally(
+                        (e instanceof CompletionException && e.getCause() != null) ?
+                                e.getCause() : e);
+            }
+            else {
+                result.complete(null);
+            }
+        });
+        return result;
+    }
+
+    private PackageReader newReader(PackageSource source) {
+        return new PackageReader(source).setValidationLevel(validationLevel)
+                .setAllowSHA1Signatures(allowSHA1Signatures);
+    }
+
+    private void prepare(PackageSource source, PackageStore store) {
+        source.setExtraction(payloadExtraction);
+        source.setStore(store);
+        source.setExecutor(extractionExecutor);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,62 @@
+package com.spartansoftwareinc.tipp;
+
+import java.util.Collection;
+
+/**
+ * Read-only view of the manifest of a package, without its payload.
+ * This is what {@link TIPPFactory#readManifest(java.io.InputStream)} returns;
+ * it carries enough information to identify and route a package without
+ * paying to unpack it.
+ */
+public interface TIPPManifest {
+
+    /**
+     * Is this the manifest of a request package?
+     * @return true for a request, false for a response
+     */
+    boolean isRequest();
+
+    /**
+     * Get the package id.
+     * @return package id
+     */
+    String getPackageId();
+
+    /**
+     * Get information about the package creator.
+     * @return creator information
+     */
+    TIPPCreator getCreator();
+
+    /**
+     * Get the task type for the package.
+     * @return task type
+     */
+    TIPPTaskType getTaskType();
+
+    /**
+     * Get the source locale for the package.
+     * @return source locale, as a BCP 47-compliant string
+     */
+    String getSourceLocale();
+
+    /**
+     * Get the target locale for the package.
+     * @return target locale, as a BCP 47-compliant string
+     */
+    String getTargetLocale();
+
+    /**
+     * Return all the sections listed in the manifest.  The collection
+     * can't be modified.
+     * @return collection of sections
+     */
+    Collection<TIPPSection> getSections();
+
+    /**
+     * Return the specified section, if present
+     * @param sectionType section type
+     * @return the section of the specified type, or null
+     */
+    TIPPSection getSection(TIPPSectionType sectionType);
+}
@@ -7,16 +7,21 @@ import java.util.Objects;
  * the package.
  */
 public abstract class TIPPResource {
-    private TIPPSectionType sectionType;
-    private TIPPResourceType type;
-    private String name;
-    private int sequence = 1;
+    private final TIPPSectionType sectionType;
+    private final TIPPResourceType type;
+    private final String name;
+    private final int sequence;
+    // Resources are used as map keys, so the hash is worked out up front
+    private final int hash;
     
     TIPPResource(TIPPSectionType sectionType, TIPPResourceType type, String name, int sequence) {
         this.sectionType = sectionType;
         this.type = type;
         this.name = name;
         this.sequence = sequence;
+        // Same as Objects.hash(sectionType, name, sequence), without boxing
+        this.hash = 31 * (31 * (31 + Objects.hashCode(sectionType)) +
+                          Objects.hashCode(name)) + sequence;
     }
     
     public TIPPSectionType getSectionType() {
@@ -42,7 +47,7 @@ public abstract class TIPPResource {
 
     @Override
     public int hashCode() {
-        return Objects.hash(sectionType, name, sequence);
+        return hash;
     }
 
     @Override
@@ -54,8 +59,9 @@ public abstract class TIPPResource {
             return false;
         }
         TIPPResource f = (TIPPResource)o;
-        return sectionType == f.sectionType &&
-               Objects.equals(name, f.name) &&
-               Objects.equals(sequence, f.sequence);
+        return hash == f.hash &&
+               sectionType == f.sectionType &&
+               sequence == f.sequence &&
+               Objects.equals(name, f.name);
     }
 }
@@ -0,0 +1,93 @@
+package com.spartansoftwareinc.tipp;
+
+import java.security.KeyPair;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Options for {@link TIPP#saveToStream(java.io.OutputStream, TIPPSaveOptions)}.
+ * The defaults produce the same result as
+ * {@link TIPP#saveToStream(java.io.OutputStream)}.
+ */
+public class TIPPSaveOptions {
+    /**
+     * Default threshold for {@link HybridStore} when compressing concurrently
+     * without an explicit store.
+     */
+    static final int DEFAULT_BUFFER_THRESHOLD = 1024 * 1024;
+
+    private KeyPair keyPair;
+    private ExecutorService executor;
+    private PackageStore packageStore;
+    private CompressionPolicy compressionPolicy;
+
+    public KeyPair getKeyPair() {
+        return keyPair;
+    }
+
+    /**
+     * Sign the manifest using the provided keypair.
+     * @param keyPair a public/private keypair for generating a digital
+     *        signature, or null to leave the package unsigned
+     * @return this object
+     */
+    public TIPPSaveOptions setKeyPair(KeyPair keyPair) {
+        this.keyPair = keyPair;
+        return this;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Compress payload files concurrently on the given executor.  Each file
+     * is compressed on its own, and the results are written to the package
+     * in the usual order, so the package is an ordinary zip archive with the
+     * same contents as one saved without an executor.  The executor is not
+     * shut down.
+     * @param executor executor, or null (the default) to compress files one at
+     *        a time on the calling thread
+     * @return this object
+     */
+    public TIPPSaveOptions setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public PackageStore getPackageStore() {
+        return packageStore;
+    }
+
+    /**
+     * Set where compressed files are held while they wait to be written,
+     * when compressing concurrently.  By default, files that compress to
+     * 1MB or less are held on the heap, and larger ones in temporary files.
+     * @param packageStore store for compressed data
+     * @return this object
+     */
+    public TIPPSaveOptions setPackageStore(PackageStore packageStore) {
+        this.packageStore = packageStore;
+        return this;
+    }
+
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * Set how payload files are compressed.
+     * @param compressionPolicy policy, or null (the default) to use the policy
+     *        the package was built with, if any, or else to deflate every file
+     *        at the default level
+     * @return this object
+     */
+    public TIPPSaveOptions setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+        return this;
+    }
+
+    PackageStore getPackageStoreOrDefault() {
+        return (packageStore != null) ? packageStore :
+                new HybridStore(DEFAULT_BUFFER_THRESHOLD);
+    }
+}
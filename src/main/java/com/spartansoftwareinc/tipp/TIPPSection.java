@@ -1,18 +1,39 @@
 package com.spartansoftwareinc.tipp;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
+/**
+ * The files in one section of a package, ordered by sequence number.
+ * Sections can't be changed once created.  Files can be looked up by
+ * sequence number or by name without searching the whole section.
+ */
 public class TIPPSection {
-    private TIPPSectionType type;
-    private List<TIPPFile> resources;
+    private final TIPPSectionType type;
+    private final TIPPFile[] files;
+    private final List<TIPPFile> resources;
+    // Whether the sequence numbers run without gaps or duplicates, so a
+    // file can be found directly from its sequence number
+    private final boolean consecutive;
+    // Built the first time a file is looked up by name
+    private volatile Map<String, TIPPFile> filesByName;
+    private int hash;
 
     public TIPPSection(TIPPSectionType type, List<TIPPFile> resources) {
         this.type = type;
-        Collections.sort(resources, SEQUENCE_COMPARATOR);
-        this.resources = Collections.unmodifiableList(resources);
+        this.files = resources.toArray(new TIPPFile[resources.size()]);
+        Arrays.sort(files, SEQUENCE_COMPARATOR);
+        this.resources = Collections.unmodifiableList(Arrays.asList(files));
+        boolean consecutive = true;
+        for (int i = 1; i < files.length && consecutive; i++) {
+            consecutive = (files[i].getSequence() == files[i - 1].getSequence() + 1);
+        }
+        this.consecutive = consecutive;
     }
 
     public TIPPSectionType getType() {
@@ -28,6 +49,76 @@ public class TIPPSection {
         return resources;
     }
 
+    /**
+     * Find a file by its sequence number.
+     * @param sequence sequence number
+     * @return the file, or null if there isn't one with that number.  If
+     *         (invalidly) several files share the number, the first is
+     *         returned.
+     */
+    public TIPPFile getFileBySequence(int sequence) {
+        int i = indexOfSequence(sequence);
+        return (i < 0) ? null : files[i];
+    }
+
+    /**
+     * Find a file by its name.
+     * @param name file name
+     * @return the file, or null if there isn't one with that name.  If
+     *         several files share the name, the one with the lowest
+     *         sequence number is returned.
+     */
+    public TIPPFile getFileByName(String name) {
+        Map<String, TIPPFile> index = filesByName;
+        if (index == null) {
+            index = new HashMap<>(files.length * 4 / 3 + 1);
+            for (TIPPFile file : files) {
+                if (!index.containsKey(file.getName())) {
+                    index.put(file.getName(), file);
+                }
+            }
+            filesByName = index;
+        }
+        return index.get(name);
+    }
+
+    /**
+     * Find the position of a file in {@link #getFileResources()}.
+     * @return the index of the file, or -1 if it isn't in this section
+     */
+    int indexOf(TIPPFile file) {
+        int sequence = file.getSequence();
+        for (int i = indexOfSequence(sequence);
+                i >= 0 && i < files.length && files[i].getSequence() == sequence; i++) {
+            if (files[i].equals(file)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOfSequence(int sequence) {
+        if (files.length == 0) {
+            return -1;
+        }
+        if (consecutive) {
+            long i = (long)sequence - files[0].getSequence();
+            return (i >= 0 && i < files.length) ? (int)i : -1;
+        }
+        // Find the first file with the sequence number
+        int low = 0, high = files.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (files[mid].getSequence() < sequence) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return (low < files.length && files[low].getSequence() == sequence) ? low : -1;
+    }
+
     static final SequenceComparator SEQUENCE_COMPARATOR = new SequenceComparator();
     static class SequenceComparator implements Comparator<TIPPFile> {
         public int compare(TIPPFile r1, TIPPFile r2) {
@@ -37,12 +128,18 @@ public class TIPPSection {
 
     @Override
     public String toString() {
-        return "TIPPSection(" + type + ", " + resources.size() + " resources)";
+        return "TIPPSection(" + type + ", " + files.length + " resources)";
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(type, resources);
+        // Sections are compared often enough, and don't change
+        int h = hash;
+        if (h == 0) {
+            h = Objects.hash(type, resources);
+            hash = h;
+        }
+        return h;
     }
 
     @Override
@@ -50,6 +147,7 @@ public class TIPPSection {
         if (o == this) return true;
         if (o == null || !(o instanceof TIPPSection)) return false;
         TIPPSection s = (TIPPSection)o;
-        return type == s.type && Objects.equals(resources, s.resources);
+        return type == s.type && hashCode() == s.hashCode() &&
+               Arrays.equals(files, s.files);
     }
 }
\ No newline at end of file
@@ -11,8 +11,8 @@ abstract class TIPPTask {
     
     public TIPPTask(TIPPTaskType taskType, String sourceLocale, String targetLocale) {
         this.taskType = taskType;
-        this.sourceLocale = sourceLocale;
-        this.targetLocale = targetLocale;
+        this.sourceLocale = FormattingUtil.intern(sourceLocale);
+        this.targetLocale = FormattingUtil.intern(targetLocale);
     }
     
     public TIPPTaskType getTaskType() {
@@ -9,9 +9,9 @@ public class TIPPTool {
     private String version;
 
     public TIPPTool(String name, String id, String version) {
-        this.name = name;
-        this.id = id;
-        this.version = version;
+        this.name = FormattingUtil.intern(name);
+        this.id = FormattingUtil.intern(id);
+        this.version = FormattingUtil.intern(version);
     }
 
     public String getName() {
@@ -0,0 +1,44 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Callbacks for reading a package in a single pass with
+ * {@link TIPPFactory#stream(InputStream, TIPPVisitor)}.  The manifest is
+ * visited first, then each payload file as it is read from the package,
+ * and finally the result of checking the payload against the manifest.
+ */
+public interface TIPPVisitor {
+
+    /**
+     * Called once the manifest has been loaded, before any files are
+     * visited.
+     * @param manifest package manifest
+     * @throws IOException
+     */
+    void visitManifest(TIPPManifest manifest) throws IOException;
+
+    /**
+     * Called for each payload file that is listed in the manifest, in the
+     * order the files appear in the payload.  The stream ends at the end of
+     * the file, and can only be used until this method returns; it doesn't
+     * need to be read to the end or closed.
+     * @param file the manifest entry for the file
+     * @param contents the (uncompressed) file contents
+     * @throws IOException
+     */
+    void visitFile(TIPPFile file, InputStream contents) throws IOException;
+
+    /**
+     * Called once the whole payload has been read, with any discrepancies
+     * between the manifest and the payload: files that are missing,
+     * unexpected, or listed more than once.  These errors are also reported
+     * to the factory's error handler.
+     * @param errors validation errors, or an empty list if the payload is
+     *        consistent with the manifest
+     * @throws IOException
+     */
+    void visitPayloadValidation(List<TIPPError> errors) throws IOException;
+}
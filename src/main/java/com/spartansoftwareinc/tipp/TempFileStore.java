@@ -0,0 +1,97 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link PackageStore} that keeps each resource in its own temporary file,
+ * either in the system temporary directory or in a directory of
+ * your choosing.  The file is deleted when its resource is closed.
+ */
+public class TempFileStore implements PackageStore {
+    private Path directory;
+
+    /**
+     * Create a store that uses the system temporary directory.
+     */
+    public TempFileStore() {
+    }
+
+    /**
+     * Create a store that puts its files in the given directory.  The
+     * directory is created if it doesn't exist yet.
+     * @param directory location for temporary files
+     */
+    public TempFileStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the directory that holds this store's files, or null if it uses
+     *         the system temporary directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public StoredResource store(InputStream is, String name) throws IOException {
+        Path temp;
+        if (directory != null) {
+            Files.createDirectories(directory);
+            temp = FileUtil.copyToTemp(is, directory, "tipp", getSuffix(name));
+        }
+        else {
+            temp = FileUtil.copyToTemp(is, "tipp", getSuffix(name));
+        }
+        return new FileResource(temp, Files.size(temp));
+    }
+
+    static String getSuffix(String name) {
+        int slash = name.lastIndexOf('/');
+        int i = name.lastIndexOf('.');
+        if (i == -1 || i < slash) {
+            return "";
+        }
+        return name.substring(i);
+    }
+
+    static class FileResource implements StoredResource {
+        private Path path;
+        private long size;
+
+        FileResource(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        Path getPath() {
+            return path;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            return Files.newInputStream(path);
+        }
+
+        @Override
+        public SeekableByteChannel openChannel() throws IOException {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        }
+
+        @Override
+        public void close() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+}
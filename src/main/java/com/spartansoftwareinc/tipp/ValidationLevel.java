@@ -0,0 +1,40 @@
+package com.spartansoftwareinc.tipp;
+
+/**
+ * Controls how thoroughly {@link TIPPFactory} checks a package as it is
+ * opened.  Whatever the level, problems that stop a package from being
+ * read at all (a corrupt archive, a manifest that isn't well-formed XML, a
+ * missing manifest) are always reported, and a signature is always
+ * verified if a key is provided.
+ */
+public enum ValidationLevel {
+    /**
+     * Skip all checks.  Only suitable for packages that are known to be
+     * valid, such as ones that were checked when they were produced.
+     */
+    NONE,
+
+    /**
+     * Skip validating the manifest against the TIPP schema, which is the
+     * most expensive check, but still check that the manifest is consistent
+     * (locations, sequence numbers, sections allowed for the task) and that
+     * the payload matches it.
+     */
+    STRUCTURAL,
+
+    /**
+     * Validate the manifest against the schema, as well as making all the
+     * {@link #STRUCTURAL} checks.  This is the default.
+     */
+    FULL,
+
+    /**
+     * Make no checks while opening the package, but make all the
+     * {@link #FULL} checks the first time one of its files is read, or
+     * when {@link TIPP#validate()} is called, whichever comes first.
+     * Errors are reported to the factory's error handler at that point.
+     * Where there is no package to check later (when only the manifest is
+     * read, or a package is streamed), this is the same as {@link #FULL}.
+     */
+    DEFERRED;
+}
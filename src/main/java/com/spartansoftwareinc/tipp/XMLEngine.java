@@ -0,0 +1,151 @@
+package com.spartansoftwareinc.tipp;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+/**
+ * Supplies the XML parsers and transformers used to read and write
+ * manifests.  Looking up a JAXP factory goes through the service loader
+ * every time, so each factory is looked up once and kept, and the
+ * (thread-unsafe) parsers and transformers they create are kept per
+ * thread and reset between uses.
+ * <p>
+ * By default, the JAXP implementations are found the usual way.  A
+ * specific implementation can be chosen for this library alone, without
+ * affecting anything else in the JVM, by setting the system properties
+ * {@value #DOCUMENT_BUILDER_FACTORY_PROPERTY},
+ * {@value #TRANSFORMER_FACTORY_PROPERTY},
+ * {@value #XML_INPUT_FACTORY_PROPERTY} and
+ * {@value #XML_OUTPUT_FACTORY_PROPERTY} to factory class names before the
+ * first package is read or written.
+ */
+class XMLEngine {
+    static final String DOCUMENT_BUILDER_FACTORY_PROPERTY =
+            "com.spartansoftwareinc.tipp.DocumentBuilderFactory";
+    static final String TRANSFORMER_FACTORY_PROPERTY =
+            "com.spartansoftwareinc.tipp.TransformerFactory";
+    static final String XML_INPUT_FACTORY_PROPERTY =
+            "com.spartansoftwareinc.tipp.XMLInputFactory";
+    static final String XML_OUTPUT_FACTORY_PROPERTY =
+            "com.spartansoftwareinc.tipp.XMLOutputFactory";
+
+    private static XMLEngine instance;
+
+    private DocumentBuilderFactory documentBuilderFactory;
+    private TransformerFactory transformerFactory;
+    private XMLInputFactory xmlInputFactory;
+    private XMLOutputFactory xmlOutputFactory;
+    private ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<>();
+    private ThreadLocal<Transformer> transformers = new ThreadLocal<>();
+
+    /**
+     * @param documentBuilderFactoryClass DOM parser factory class name, or
+     *        null for the JAXP default
+     * @param transformerFactoryClass transformer factory class name, or
+     *        null for the JAXP default
+     * @param xmlInputFactoryClass StAX reader factory class name, or null
+     *        for the JAXP default
+     * @param xmlOutputFactoryClass StAX writer factory class name, or null
+     *        for the JAXP default
+     */
+    XMLEngine(String documentBuilderFactoryClass, String transformerFactoryClass,
+              String xmlInputFactoryClass, String xmlOutputFactoryClass) {
+        documentBuilderFactory = (documentBuilderFactoryClass != null) ?
+                DocumentBuilderFactory.newInstance(documentBuilderFactoryClass, null) :
+                DocumentBuilderFactory.newInstance();
+        // Namespaces are required for xml-dsig
+        documentBuilderFactory.setNamespaceAware(true);
+        transformerFactory = (transformerFactoryClass != null) ?
+                TransformerFactory.newInstance(transformerFactoryClass, null) :
+                TransformerFactory.newInstance();
+        xmlInputFactory = (xmlInputFactoryClass != null) ?
+                newInstance(XMLInputFactory.class, xmlInputFactoryClass) :
+                XMLInputFactory.newInstance();
+        xmlOutputFactory = (xmlOutputFactoryClass != null) ?
+                newInstance(XMLOutputFactory.class, xmlOutputFactoryClass) :
+                XMLOutputFactory.newInstance();
+    }
+
+    /**
+     * Get the engine, creating it according to the system properties the
+     * first time.
+     */
+    static synchronized XMLEngine get() {
+        if (instance == null) {
+            instance = new XMLEngine(System.getProperty(DOCUMENT_BUILDER_FACTORY_PROPERTY),
+                                     System.getProperty(TRANSFORMER_FACTORY_PROPERTY),
+                                     System.getProperty(XML_INPUT_FACTORY_PROPERTY),
+                                     System.getProperty(XML_OUTPUT_FACTORY_PROPERTY));
+        }
+        return instance;
+    }
+
+    /**
+     * Get a namespace-aware DOM parser for use by the calling thread.
+     */
+    DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilder builder = documentBuilders.get();
+        if (builder == null) {
+            synchronized (documentBuilderFactory) {
+                builder = documentBuilderFactory.newDocumentBuilder();
+            }
+            documentBuilders.set(builder);
+        }
+        else {
+            builder.reset();
+        }
+        return builder;
+    }
+
+    /**
+     * Get an identity transformer for use by the calling thread.
+     */
+    Transformer getTransformer() throws TransformerConfigurationException {
+        Transformer transformer = transformers.get();
+        if (transformer == null) {
+            synchronized (transformerFactory) {
+                transformer = transformerFactory.newTransformer();
+            }
+            transformers.set(transformer);
+        }
+        else {
+            transformer.reset();
+        }
+        return transformer;
+    }
+
+    /**
+     * Get the StAX reader factory.  It isn't reconfigured once created, so
+     * readers can be created from it on any thread.
+     */
+    XMLInputFactory getXMLInputFactory() {
+        return xmlInputFactory;
+    }
+
+    /**
+     * Get the StAX writer factory.  Like the reader factory, it can be used
+     * from any thread.
+     */
+    XMLOutputFactory getXMLOutputFactory() {
+        return xmlOutputFactory;
+    }
+
+    private static <T> T newInstance(Class<T> type, String className) {
+        try {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            Class<?> c = Class.forName(className, true,
+                    loader != null ? loader : XMLEngine.class.getClassLoader());
+            return type.cast(c.getConstructor().newInstance());
+        }
+        catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalStateException("Can't create " + type.getSimpleName() +
+                                            " " + className, e);
+        }
+    }
+}
@@ -4,61 +4,10 @@ import org.w3c.dom.*;
 
 class XMLUtil {
 
-    /**
-     * Return the first child element with a given name.  
-     * @param parent parent element
-     * @param name child element name
-     * @return 
-     */
-    public static Element getFirstChildByName(Element parent, String name) {
-        NodeList children = parent.getElementsByTagName(name);
-        if (children.getLength() == 0) {
-            return null;
-        }
-        return (Element)children.item(0);
-    }
-    
-    /**
-     * Returns a node's first child node that is an element.
-     * @param parent
-     * @return first child element, or null
-     */
-    public static Element getFirstChildElement(Node parent) {
-        NodeList children = parent.getChildNodes();
-        for (int i = 0; i < children.getLength(); i++) {
-            Node n = children.item(i);
-            if (n.getNodeType() == Node.ELEMENT_NODE) {
-                return (Element)n;
-            }
-        }
-        return null;
-    }
-    
-    /**
-     * Returns normalized text content for a node.
-     * @param node
-     * @return text content of child node, trimmed
-     */
-    public static String getTextContent(Node node) {
-        return node.getTextContent().trim();
-    }
-    
-    /**
-     * Equivalent to getTextContent(getFirstChildByName(e, n)), with
-     * a null check.
-     * 
-     * @param parent parent element
-     * @param name child element name
-     * @return
-     */
-    public static String getChildTextByName(Element parent, String name) {
-        Element e = getFirstChildByName(parent, name);
-        return (e != null) ? getTextContent(e) : null;
-    }
-    
     public static Element appendElementChild(Document doc, Element parent, 
                                              String name) {
-        Element el = doc.createElement(name);
+        // The child is in the same namespace as its parent
+        Element el = doc.createElementNS(parent.getNamespaceURI(), name);
         parent.appendChild(el);
         return el;
     }
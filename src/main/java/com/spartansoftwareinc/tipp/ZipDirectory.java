@@ -0,0 +1,602 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Random-access view of a zip archive, read through its central directory.
+ * The archive may occupy only part of the underlying data, which lets us address an
+ * uncompressed archive nested inside another one (like resources.zip inside
+ * a package) without copying it out first.
+ * <p>
+ * Only the subset of the format that shows up in TIPPs is supported:
+ * stored and deflated entries, with or without zip64 extensions.
+ */
+class ZipDirectory {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final int LOC_SIG = 0x04034b50;
+    static final int CEN_SIG = 0x02014b50;
+    static final int END_SIG = 0x06054b50;
+    static final int ZIP64_END_SIG = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    static final int LOC_HEADER_SIZE = 30;
+    static final int CEN_HEADER_SIZE = 46;
+    static final int END_HEADER_SIZE = 22;
+    static final int ZIP64_END_HEADER_SIZE = 56;
+    static final int ZIP64_LOCATOR_SIZE = 20;
+    static final int ZIP64_EXTRA_ID = 0x0001;
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    /**
+     * A single entry from the central directory.
+     */
+    static class Entry {
+        private String name;
+        private int method;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private long localHeaderOffset;
+        // Found lazily; racing threads will just compute the same value
+        private volatile long dataOffset = -1;
+        // Set once the contents have been read in full and matched the
+        // CRC and size recorded for them
+        private volatile boolean verified = false;
+
+        String getName() {
+            return name;
+        }
+        int getMethod() {
+            return method;
+        }
+        long getCrc() {
+            return crc;
+        }
+        long getCompressedSize() {
+            return compressedSize;
+        }
+        long getSize() {
+            return size;
+        }
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+        /**
+         * @return true if the contents have already been checked against
+         *         the CRC and size in the central directory
+         */
+        boolean isVerified() {
+            return verified;
+        }
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private RandomAccessData data;
+    private long start;
+    private long length;
+    private Map<String, Entry> entries;
+
+    private ZipDirectory(RandomAccessData data, long start, long length) {
+        this.data = data;
+        this.start = start;
+        this.length = length;
+    }
+
+    /**
+     * Read the central directory of an archive that occupies all
+     * of the data.
+     */
+    static ZipDirectory read(RandomAccessData data) throws IOException {
+        return read(data, 0, data.size());
+    }
+
+    /**
+     * Read the central directory of an archive that occupies the
+     * specified range of the data.
+     */
+    static ZipDirectory read(RandomAccessData data, long start, long length) throws IOException {
+        ZipDirectory dir = new ZipDirectory(data, start, length);
+        dir.readCentralDirectory();
+        return dir;
+    }
+
+    /**
+     * Return all entries, in central directory order.
+     */
+    List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries.values()));
+    }
+
+    Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Open an entry whose data is stored (not compressed) as a nested archive,
+     * without copying it anywhere.
+     * @throws ZipException if the entry is compressed or isn't an archive
+     */
+    ZipDirectory openNested(Entry entry) throws IOException {
+        if (entry.getMethod() != ZipEntry.STORED) {
+            throw new ZipException("Entry is compressed: " + entry.getName());
+        }
+        return read(data, start + getDataOffset(entry), entry.getCompressedSize());
+    }
+
+    /**
+     * Open a stream over the raw (possibly compressed) bytes of an entry.
+     * Unless the entry has already been verified, the bytes are checked as
+     * they are read: a stream read to the end throws a
+     * {@link ZipException} if they don't inflate to contents matching the
+     * CRC and size in the central directory.
+     */
+    InputStream openRaw(Entry entry) throws IOException {
+        InputStream raw = openUncheckedRaw(entry);
+        if (entry.isVerified()) {
+            return raw;
+        }
+        switch (entry.getMethod()) {
+        case ZipEntry.STORED:
+        case ZipEntry.DEFLATED:
+            return new RawCheckedInputStream(raw, entry);
+        default:
+            raw.close();
+            throw unsupportedMethod(entry);
+        }
+    }
+
+    private InputStream openUncheckedRaw(Entry entry) throws IOException {
+        return new RangeInputStream(data, start + getDataOffset(entry),
+                                    entry.getCompressedSize());
+    }
+
+    /**
+     * Write the data of an entry, as it is stored in the archive, to a
+     * channel.  This doesn't check the data, so it should only be used for
+     * entries that have already been verified.
+     */
+    void transferRaw(Entry entry, WritableByteChannel target) throws IOException {
+        data.transferTo(start + getDataOffset(entry), entry.getCompressedSize(), target);
+    }
+
+    /**
+     * Open a stream over the uncompressed contents of an entry.  A stream
+     * read to the end throws a {@link ZipException} if the contents don't
+     * match the CRC and size in the central directory.
+     */
+    InputStream open(Entry entry) throws IOException {
+        InputStream raw = openUncheckedRaw(entry);
+        switch (entry.getMethod()) {
+        case ZipEntry.STORED:
+            return new CheckedEntryInputStream(raw, entry);
+        case ZipEntry.DEFLATED:
+            return new CheckedEntryInputStream(
+                    new EntryInflaterInputStream(raw, entry.getSize()), entry);
+        default:
+            raw.close();
+            throw unsupportedMethod(entry);
+        }
+    }
+
+    private static ZipException unsupportedMethod(Entry entry) {
+        return new ZipException("Unsupported compression method " + entry.getMethod() +
+                                " for " + entry.getName());
+    }
+
+    /**
+     * Compare the contents read for an entry with what the central directory
+     * says they should be, and remember the entry as verified if they match.
+     */
+    private static void verify(Entry entry, long crc, long size) throws ZipException {
+        if (size != entry.getSize()) {
+            throw new ZipException("invalid entry size for " + entry.getName() +
+                    " (expected " + entry.getSize() + " but got " + size + " bytes)");
+        }
+        if (crc != entry.getCrc()) {
+            throw new ZipException("invalid entry CRC for " + entry.getName() +
+                    " (expected 0x" + Long.toHexString(entry.getCrc()) +
+                    " but got 0x" + Long.toHexString(crc) + ")");
+        }
+        entry.verified = true;
+    }
+
+    /**
+     * Offset of an entry's data, relative to the start of the archive.  This
+     * requires a peek at the local header, since its extra field may differ
+     * from the one in the central directory.
+     */
+    private long getDataOffset(Entry entry) throws IOException {
+        if (entry.dataOffset == -1) {
+            byte[] loc = readFully(entry.localHeaderOffset, LOC_HEADER_SIZE);
+            if (getInt(loc, 0) != LOC_SIG) {
+                throw new ZipException("Invalid local header for " + entry.getName());
+            }
+            entry.dataOffset = entry.localHeaderOffset + LOC_HEADER_SIZE +
+                               getShort(loc, 26) + getShort(loc, 28);
+            if (entry.dataOffset + entry.getCompressedSize() > length) {
+                throw new ZipException("Truncated entry " + entry.getName());
+            }
+        }
+        return entry.dataOffset;
+    }
+
+    private void readCentralDirectory() throws IOException {
+        if (length < END_HEADER_SIZE) {
+            throw new ZipException("Not a zip archive");
+        }
+        long endPos = findEndHeader();
+        byte[] end = readFully(endPos, END_HEADER_SIZE);
+        long count = getShort(end, 10);
+        long cenSize = getUInt(end, 12);
+        long cenOffset = getUInt(end, 16);
+
+        // Prefer the zip64 record if there is one
+        long base = 0;
+        if (endPos >= ZIP64_LOCATOR_SIZE &&
+            getInt(readFully(endPos - ZIP64_LOCATOR_SIZE, 4), 0) == ZIP64_LOCATOR_SIG) {
+            byte[] locator = readFully(endPos - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+            long zip64EndPos = getLong(locator, 8);
+            byte[] zip64End = readFully(zip64EndPos, ZIP64_END_HEADER_SIZE);
+            if (getInt(zip64End, 0) != ZIP64_END_SIG) {
+                throw new ZipException("Invalid zip64 end header");
+            }
+            count = getLong(zip64End, 32);
+            cenSize = getLong(zip64End, 40);
+            cenOffset = getLong(zip64End, 48);
+        }
+        else {
+            // Tolerate data prepended to the archive, the same way
+            // java.util.zip.ZipFile does.
+            base = endPos - cenSize - cenOffset;
+        }
+        if (cenSize > endPos || cenOffset + base < 0 || cenSize > Integer.MAX_VALUE) {
+            throw new ZipException("Invalid central directory");
+        }
+        byte[] cen = readFully(cenOffset + base, (int)cenSize);
+        entries = new LinkedHashMap<>();
+        int pos = 0;
+        for (long i = 0; i < count; i++) {
+            if (pos + CEN_HEADER_SIZE > cen.length || getInt(cen, pos) != CEN_SIG) {
+                throw new ZipException("Invalid central directory header");
+            }
+            int flags = getShort(cen, pos + 8);
+            if ((flags & 1) != 0) {
+                throw new ZipException("Encrypted entries are not supported");
+            }
+            Entry e = new Entry();
+            e.method = getShort(cen, pos + 10);
+            e.crc = getUInt(cen, pos + 16);
+            e.compressedSize = getUInt(cen, pos + 20);
+            e.size = getUInt(cen, pos + 24);
+            int nameLen = getShort(cen, pos + 28);
+            int extraLen = getShort(cen, pos + 30);
+            int commentLen = getShort(cen, pos + 32);
+            e.localHeaderOffset = getUInt(cen, pos + 42);
+            int namePos = pos + CEN_HEADER_SIZE;
+            if (namePos + nameLen + extraLen + commentLen > cen.length) {
+                throw new ZipException("Invalid central directory header");
+            }
+            e.name = new String(cen, namePos, nameLen, UTF8);
+            readZip64Extra(e, cen, namePos + nameLen, extraLen);
+            e.localHeaderOffset += base;
+            if (entries.put(e.name, e) != null) {
+                throw new ZipException("Duplicate entry: " + e.name);
+            }
+            pos = namePos + nameLen + extraLen + commentLen;
+        }
+    }
+
+    private void readZip64Extra(Entry e, byte[] b, int pos, int len) throws ZipException {
+        int end = pos + len;
+        while (pos + 4 <= end) {
+            int id = getShort(b, pos);
+            int size = getShort(b, pos + 2);
+            int off = pos + 4;
+            int limit = off + size;
+            if (limit > end) {
+                throw new ZipException("Invalid extra field for " + e.name);
+            }
+            if (id == ZIP64_EXTRA_ID) {
+                // Only the fields that overflowed are present, in this order
+                if (e.size == ZIP64_MAGIC && off + 8 <= limit) {
+                    e.size = getLong(b, off);
+                    off += 8;
+                }
+                if (e.compressedSize == ZIP64_MAGIC && off + 8 <= limit) {
+                    e.compressedSize = getLong(b, off);
+                    off += 8;
+                }
+                if (e.localHeaderOffset == ZIP64_MAGIC && off + 8 <= limit) {
+                    e.localHeaderOffset = getLong(b, off);
+                }
+                return;
+            }
+            pos += 4 + size;
+        }
+    }
+
+    private long findEndHeader() throws IOException {
+        int scan = (int)Math.min(length, END_HEADER_SIZE + MAX_COMMENT_SIZE);
+        long scanStart = length - scan;
+        byte[] tail = readFully(scanStart, scan);
+        for (int i = scan - END_HEADER_SIZE; i >= 0; i--) {
+            if (getInt(tail, i) == END_SIG &&
+                i + END_HEADER_SIZE + getShort(tail, i + 20) <= scan) {
+                return scanStart + i;
+            }
+        }
+        throw new ZipException("Not a zip archive");
+    }
+
+    private byte[] readFully(long pos, int len) throws IOException {
+        if (pos < 0 || pos + len > length) {
+            throw new ZipException("Invalid offset in zip archive");
+        }
+        byte[] b = new byte[len];
+        int off = 0;
+        while (off < len) {
+            int read = data.read(b, off, len - off, start + pos + off);
+            if (read == -1) {
+                throw new EOFException("Unexpected end of zip archive");
+            }
+            off += read;
+        }
+        return b;
+    }
+
+    private static int getShort(byte[] b, int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return getShort(b, off) | (getShort(b, off + 2) << 16);
+    }
+
+    private static long getUInt(byte[] b, int off) {
+        return getInt(b, off) & 0xFFFFFFFFL;
+    }
+
+    private static long getLong(byte[] b, int off) {
+        return getUInt(b, off) | (getUInt(b, off + 4) << 32);
+    }
+
+    /**
+     * Inflates raw deflate data.  The inflater needs a dummy byte
+     * after the end of the real input (see {@link Inflater#Inflater(boolean)}),
+     * and is released when the stream is closed.
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof;
+        private boolean closed;
+
+        EntryInflaterInputStream(InputStream raw, long size) {
+            super(raw, new Inflater(true),
+                  (int)Math.max(512, Math.min(size, 8192)));
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of compressed entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                inf.end();
+                super.close();
+            }
+        }
+    }
+
+    /**
+     * Checks the uncompressed contents of an entry as they are read.
+     */
+    private static class CheckedEntryInputStream extends CheckedInputStream {
+        private Entry entry;
+        private long count = 0;
+        private boolean checked = false;
+
+        CheckedEntryInputStream(InputStream in, Entry entry) {
+            super(in, new CRC32());
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                check();
+            }
+            else {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                check();
+            }
+            else {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes still have to be checked
+            byte[] buf = new byte[(int)Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buf, 0, (int)Math.min(n - skipped, buf.length));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        private void check() throws ZipException {
+            if (!checked) {
+                checked = true;
+                verify(entry, getChecksum().getValue(), count);
+            }
+        }
+    }
+
+    /**
+     * Passes on the raw bytes of an entry unchanged, while inflating a copy
+     * of them (if they are compressed) to check the contents.
+     */
+    private static class RawCheckedInputStream extends FilterInputStream {
+        private Entry entry;
+        private Inflater inflater;
+        private CRC32 crc = new CRC32();
+        private long count = 0;
+        private byte[] inflated;
+        private boolean checked = false;
+
+        RawCheckedInputStream(InputStream raw, Entry entry) {
+            super(raw);
+            this.entry = entry;
+            if (entry.getMethod() == ZipEntry.DEFLATED) {
+                inflater = new Inflater(true);
+                inflated = new byte[8192];
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return (n == -1) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n == -1) {
+                check();
+            }
+            else if (n > 0) {
+                update(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buf = new byte[(int)Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buf, 0, (int)Math.min(n - skipped, buf.length));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void update(byte[] b, int off, int len) throws IOException {
+            if (inflater == null) {
+                crc.update(b, off, len);
+                count += len;
+                return;
+            }
+            inflater.setInput(b, off, len);
+            inflate();
+        }
+
+        private void inflate() throws IOException {
+            try {
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(inflated);
+                    if (n == 0) {
+                        if (inflater.needsInput() || inflater.needsDictionary()) {
+                            break;
+                        }
+                    }
+                    crc.update(inflated, 0, n);
+                    count += n;
+                }
+            }
+            catch (DataFormatException e) {
+                throw new ZipException("Invalid compressed data for " + entry.getName() +
+                                       ": " + e.getMessage());
+            }
+        }
+
+        private void check() throws IOException {
+            if (checked) {
+                return;
+            }
+            checked = true;
+            if (inflater != null) {
+                // The inflater needs a dummy byte after the real input
+                inflater.setInput(new byte[1], 0, 1);
+                inflate();
+                boolean finished = inflater.finished();
+                release();
+                if (!finished) {
+                    throw new EOFException("Unexpected end of compressed entry " +
+                                           entry.getName());
+                }
+            }
+            verify(entry, crc.getValue(), count);
+        }
+
+        private void release() {
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            release();
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.spartansoftwareinc.tipp;
+
+import static com.spartansoftwareinc.tipp.ZipDirectory.CEN_SIG;
+import static com.spartansoftwareinc.tipp.ZipDirectory.END_SIG;
+import static com.spartansoftwareinc.tipp.ZipDirectory.LOC_SIG;
+import static com.spartansoftwareinc.tipp.ZipDirectory.ZIP64_END_HEADER_SIZE;
+import static com.spartansoftwareinc.tipp.ZipDirectory.ZIP64_END_SIG;
+import static com.spartansoftwareinc.tipp.ZipDirectory.ZIP64_EXTRA_ID;
+import static com.spartansoftwareinc.tipp.ZipDirectory.ZIP64_LOCATOR_SIG;
+import static com.spartansoftwareinc.tipp.ZipDirectory.ZIP64_MAGIC;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip archive whose entries have already been compressed (or are
+ * stored), so that their sizes and CRCs are known up front.  This is what
+ * lets us compress entries somewhere else, such as on other threads, or
+ * copy them out of another archive without inflating them, and then
+ * assemble them into an ordinary archive.  Entries can also be deflated
+ * as they are written, in which case their sizes and CRCs follow the data.
+ * Zip64 extensions are used only where they are needed.
+ */
+class ZipWriter implements Closeable {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    // Names are encoded as UTF-8 (general purpose bit 11)
+    private static final int FLAG_UTF8 = 0x0800;
+    // Sizes and CRC follow the data (general purpose bit 3)
+    private static final int FLAG_DESCRIPTOR = 0x0008;
+    private static final long EXT_SIG = 0x08074b50L;
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private static class Entry {
+        byte[] name;
+        int flags = FLAG_UTF8;
+        int method;
+        long crc;
+        long compressedSize;
+        long size;
+        long offset;
+    }
+
+    private OutputStream out;
+    private long written = 0;
+    private int dosTime;
+    private List<Entry> entries = new ArrayList<>();
+    private boolean finished = false;
+
+    ZipWriter(OutputStream out) {
+        // Headers are written a few bytes at a time
+        this.out = new BufferedOutputStream(out, 64 * 1024);
+        this.dosTime = toDosTime(System.currentTimeMillis());
+    }
+
+    /**
+     * Add an entry to the archive.
+     * @param name entry name
+     * @param method {@link java.util.zip.ZipEntry#STORED} or
+     *        {@link java.util.zip.ZipEntry#DEFLATED}
+     * @param crc CRC-32 of the uncompressed data
+     * @param compressedSize size of the data as it will be written
+     * @param size uncompressed size of the data
+     * @param data the data as it will be written (raw deflate data, for a
+     *        deflated entry); exactly <code>compressedSize</code> bytes are
+     *        read from it
+     */
+    void writeEntry(String name, int method, long crc, long compressedSize, long size,
+                    InputStream data) throws IOException {
+        Entry e = newEntry(name, method);
+        e.crc = crc;
+        e.compressedSize = compressedSize;
+        e.size = size;
+        writeLocalHeader(e);
+        byte[] buf = new byte[8192];
+        long remaining = compressedSize;
+        while (remaining > 0) {
+            int read = data.read(buf, 0, (int)Math.min(buf.length, remaining));
+            if (read == -1) {
+                throw new ZipException("Entry data for " + name + " is shorter than " +
+                                       compressedSize + " bytes");
+            }
+            write(buf, 0, read);
+            remaining -= read;
+        }
+        entries.add(e);
+    }
+
+    /**
+     * Add an entry to the archive, deflating its data as it is written.
+     * @param name entry name
+     * @param level {@link Deflater} compression level
+     * @param data uncompressed data, which is read to the end
+     */
+    void writeDeflatedEntry(String name, int level, InputStream data) throws IOException {
+        Entry e = newEntry(name, ZipEntry.DEFLATED);
+        e.flags |= FLAG_DESCRIPTOR;
+        writeLocalHeader(e);
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(level, true);
+        try {
+            byte[] in = new byte[8192];
+            byte[] buf = new byte[8192];
+            for (int n; (n = data.read(in)) != -1; ) {
+                crc.update(in, 0, n);
+                deflater.setInput(in, 0, n);
+                while (!deflater.needsInput()) {
+                    write(buf, 0, deflater.deflate(buf));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                write(buf, 0, deflater.deflate(buf));
+            }
+            e.crc = crc.getValue();
+            e.compressedSize = deflater.getBytesWritten();
+            e.size = deflater.getBytesRead();
+        }
+        finally {
+            deflater.end();
+        }
+        writeInt(EXT_SIG);
+        writeInt(e.crc);
+        if (e.size >= ZIP64_MAGIC || e.compressedSize >= ZIP64_MAGIC) {
+            writeLong(e.compressedSize);
+            writeLong(e.size);
+        }
+        else {
+            writeInt(e.compressedSize);
+            writeInt(e.size);
+        }
+        entries.add(e);
+    }
+
+    private Entry newEntry(String name, int method) {
+        if (finished) {
+            throw new IllegalStateException("Archive has already been finished");
+        }
+        Entry e = new Entry();
+        e.name = name.getBytes(UTF8);
+        e.method = method;
+        e.offset = written;
+        return e;
+    }
+
+    private void writeLocalHeader(Entry e) throws IOException {
+        boolean zip64 = e.size >= ZIP64_MAGIC || e.compressedSize >= ZIP64_MAGIC;
+        writeInt(LOC_SIG);
+        writeShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        writeShort(e.flags);
+        writeShort(e.method);
+        writeInt(dosTime);
+        writeInt(e.crc);
+        writeInt(zip64 ? ZIP64_MAGIC : e.compressedSize);
+        writeInt(zip64 ? ZIP64_MAGIC : e.size);
+        writeShort(e.name.length);
+        writeShort(zip64 ? 20 : 0);
+        write(e.name, 0, e.name.length);
+        if (zip64) {
+            // The local header has to carry both sizes
+            writeShort(ZIP64_EXTRA_ID);
+            writeShort(16);
+            writeLong(e.size);
+            writeLong(e.compressedSize);
+        }
+    }
+
+    private void writeCentralHeader(Entry e) throws IOException {
+        boolean bigSize = e.size >= ZIP64_MAGIC;
+        boolean bigCompressedSize = e.compressedSize >= ZIP64_MAGIC;
+        boolean bigOffset = e.offset >= ZIP64_MAGIC;
+        int extraSize = (bigSize ? 8 : 0) + (bigCompressedSize ? 8 : 0) + (bigOffset ? 8 : 0);
+        int version = (extraSize > 0) ? VERSION_ZIP64 : VERSION_DEFAULT;
+        writeInt(CEN_SIG);
+        writeShort(version);
+        writeShort(version);
+        writeShort(e.flags);
+        writeShort(e.method);
+        writeInt(dosTime);
+        writeInt(e.crc);
+        writeInt(bigCompressedSize ? ZIP64_MAGIC : e.compressedSize);
+        writeInt(bigSize ? ZIP64_MAGIC : e.size);
+        writeShort(e.name.length);
+        writeShort(extraSize > 0 ? extraSize + 4 : 0);
+        writeShort(0);      // comment length
+        writeShort(0);      // disk number
+        writeShort(0);      // internal attributes
+        writeInt(0);        // external attributes
+        writeInt(bigOffset ? ZIP64_MAGIC : e.offset);
+        write(e.name, 0, e.name.length);
+        if (extraSize > 0) {
+            // Only the fields that overflowed, in this order
+            writeShort(ZIP64_EXTRA_ID);
+            writeShort(extraSize);
+            if (bigSize) {
+                writeLong(e.size);
+            }
+            if (bigCompressedSize) {
+                writeLong(e.compressedSize);
+            }
+            if (bigOffset) {
+                writeLong(e.offset);
+            }
+        }
+    }
+
+    /**
+     * Write the central directory.  The underlying stream is left open.
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        long cenOffset = written;
+        for (Entry e : entries) {
+            writeCentralHeader(e);
+        }
+        long cenSize = written - cenOffset;
+        long count = entries.size();
+        if (count >= MAX_ENTRIES || cenOffset >= ZIP64_MAGIC || cenSize >= ZIP64_MAGIC) {
+            long zip64EndOffset = written;
+            writeInt(ZIP64_END_SIG);
+            writeLong(ZIP64_END_HEADER_SIZE - 12);
+            writeShort(VERSION_ZIP64);
+            writeShort(VERSION_ZIP64);
+            writeInt(0);        // this disk
+            writeInt(0);        // disk with the central directory
+            writeLong(count);
+            writeLong(count);
+            writeLong(cenSize);
+            writeLong(cenOffset);
+            writeInt(ZIP64_LOCATOR_SIG);
+            writeInt(0);        // disk with the zip64 end header
+            writeLong(zip64EndOffset);
+            writeInt(1);        // total disks
+        }
+        writeInt(END_SIG);
+        writeShort(0);
+        writeShort(0);
+        writeShort((int)Math.min(count, MAX_ENTRIES));
+        writeShort((int)Math.min(count, MAX_ENTRIES));
+        writeInt(Math.min(cenSize, ZIP64_MAGIC));
+        writeInt(Math.min(cenOffset, ZIP64_MAGIC));
+        writeShort(0);          // comment length
+        out.flush();
+    }
+
+    /**
+     * Finish the archive and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        written += len;
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+        written += 2;
+    }
+
+    private void writeInt(long v) throws IOException {
+        writeShort((int)(v & 0xffff));
+        writeShort((int)((v >>> 16) & 0xffff));
+    }
+
+    private void writeLong(long v) throws IOException {
+        writeInt(v & 0xffffffffL);
+        writeInt(v >>> 32);
+    }
+
+    private static int toDosTime(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 |
+               c.get(Calendar.DAY_OF_MONTH) << 16 | c.get(Calendar.HOUR_OF_DAY) << 11 |
+               c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+    }
+}
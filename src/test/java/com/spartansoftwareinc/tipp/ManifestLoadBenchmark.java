@@ -0,0 +1,106 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times loading manifests of increasing size, to check that the time per
+ * resource stays flat as manifests grow.  This isn't run as part of the
+ * tests; run it by hand after <code>mvn test-compile</code> with
+ * <pre>
+ * java -cp target/classes:target/test-classes \
+ *     com.spartansoftwareinc.tipp.ManifestLoadBenchmark [sizes...]
+ * </pre>
+ * The largest manifests need a heap of a gigabyte or so.
+ * <p>
+ * Each load is the full path used when a package is opened: the manifest
+ * is parsed and validated against the schema, and then checked against a
+ * payload holding exactly the files it lists.
+ */
+public class ManifestLoadBenchmark {
+    private static final int[] DEFAULT_SIZES = { 1000, 10000, 100000, 1000000 };
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        // Warm up on something small, so the first size isn't penalized
+        for (int i = 0; i < ITERATIONS; i++) {
+            time(makeManifest(sizes[0]), payloadPaths(sizes[0]));
+        }
+        System.out.printf("%10s %12s %10s %14s%n",
+                          "resources", "manifest KB", "load ms", "ns/resource");
+        for (int size : sizes) {
+            byte[] manifest = makeManifest(size);
+            List<String> payload = payloadPaths(size);
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < ITERATIONS; i++) {
+                best = Math.min(best, time(manifest, payload));
+            }
+            System.out.printf("%10d %12d %10d %14d%n", size, manifest.length / 1024,
+                              best / 1000000, best / size);
+        }
+    }
+
+    /**
+     * Load the manifest and validate the payload against it.
+     * @return the time taken, in nanoseconds
+     */
+    private static long time(byte[] bytes, List<String> payloadPaths) throws Exception {
+        System.gc();
+        long start = System.nanoTime();
+        CollectingErrorHandler errors = new CollectingErrorHandler();
+        Manifest manifest = new ManifestLoader().loadFromStream(
+                new ByteArrayInputStream(bytes), errors);
+        PayloadValidator validator = new PayloadValidator();
+        validator.start(manifest);
+        for (String path : payloadPaths) {
+            validator.checkEntry(path);
+        }
+        List<TIPPError> validationErrors = validator.finish();
+        long elapsed = System.nanoTime() - start;
+        if (manifest == null || !errors.getErrors().isEmpty() ||
+            !validationErrors.isEmpty()) {
+            throw new IllegalStateException("Load failed: " + errors.getErrors() +
+                                            validationErrors);
+        }
+        return elapsed;
+    }
+
+    private static byte[] makeManifest(int size) throws Exception {
+        ManifestBuilder builder = new ManifestBuilder();
+        builder.setTaskType(StandardTaskType.TRANSLATE_STRICT_BITEXT);
+        builder.setSourceLocale("en-US");
+        builder.setTargetLocale("fr-FR");
+        Map<TIPPFile, String> locations = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            TIPPFile file = builder.addFile(TIPPSectionType.BILINGUAL, getName(i));
+            locations.put(file, getName(i));
+        }
+        builder.setLocationMap(locations);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new ManifestWriter().saveToStream(builder.build(), output);
+        return output.toByteArray();
+    }
+
+    private static List<String> payloadPaths(int size) {
+        List<String> paths = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            paths.add(Payload.getFilePath(TIPPSectionType.BILINGUAL, getName(i)));
+        }
+        return paths;
+    }
+
+    private static String getName(int i) {
+        return "dir" + (i % 100) + "/file" + i + ".xlf";
+    }
+}
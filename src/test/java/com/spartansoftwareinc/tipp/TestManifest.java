@@ -7,7 +7,6 @@ import static com.spartansoftwareinc.tipp.TIPPErrorType.*;
 import static org.junit.Assert.*;
 
 import java.io.*;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -17,10 +16,17 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.crypto.KeySelector;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
 public class TestManifest {
 
@@ -79,6 +85,28 @@ public class TestManifest {
         assertEquals(INVALID_MANIFEST, status.getErrors().get(0).getErrorType());
     }
 
+    @Test
+    public void testSkipSchemaValidation() throws Exception {
+        // Invalid against the schema, but readable
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        ManifestLoader loader = new ManifestLoader();
+        loader.setValidationLevel(ValidationLevel.STRUCTURAL);
+        Manifest manifest = loader.loadFromStream(
+                getClass().getResourceAsStream("data/invalid_sequence.xml"), status);
+        assertNotNull(manifest);
+        assertEquals(0, status.getErrors().size());
+        // Deferred, the schema is still checked in the end
+        loader = new ManifestLoader();
+        loader.setValidationLevel(ValidationLevel.DEFERRED);
+        manifest = loader.loadFromStream(
+                getClass().getResourceAsStream("data/invalid_sequence.xml"), status);
+        assertNotNull(manifest);
+        assertEquals(0, status.getErrors().size());
+        assertFalse(loader.validateDeferred(manifest, status));
+        assertEquals(1, status.getErrors().size());
+        assertEquals(INVALID_MANIFEST, status.getErrors().get(0).getErrorType());
+    }
+
     @Test
     public void testUnsupportedTaskTypeResponse() throws Exception {
         CollectingErrorHandler status = new CollectingErrorHandler();
@@ -116,8 +144,10 @@ public class TestManifest {
     public void testDuplicateResourcesInManifest() throws Exception {
         CollectingErrorHandler status = new CollectingErrorHandler();
         Manifest manifest = loadManifestFromResource("data/duplicate_resources.xml", status);
-        Map<String, Path> files = Collections.singletonMap("bilingual/Peanut_Butter.xlf", Paths.get("/"));
-        new PayloadValidator().validate(manifest, new Payload(null, files), status);
+        Map<String, PayloadEntry> files = Collections.<String, PayloadEntry>singletonMap(
+                "bilingual/Peanut_Butter.xlf", new PayloadEntry.FileEntry(Paths.get("/")));
+        new PayloadValidator().validate(manifest,
+                new Payload(files, Collections.<Closeable>emptyList()), status);
         TestTIPPPackage.checkErrors(status, 1);
         assertEquals(DUPLICATE_RESOURCE_LOCATION_IN_MANIFEST, 
                 status.getErrors().get(0).getErrorType());
@@ -301,6 +331,130 @@ public class TestManifest {
         assertEquals("2.xlf", manifest.getLocationForFile(l.get(1)));
     }
 
+    @Test
+    public void testManyFileResources() throws Exception {
+        ManifestBuilder builder = new ManifestBuilder();
+        builder.setTaskType(StandardTaskType.TRANSLATE_STRICT_BITEXT);
+        builder.setSourceLocale("en-US");
+        builder.setTargetLocale("fr-FR");
+        Map<TIPPFile, String> locations = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            TIPPFile file = builder.addFile(TIPPSectionType.BILINGUAL, "file" + i + ".xlf");
+            locations.put(file, file.getSequence() + ".xlf");
+        }
+        builder.setLocationMap(locations);
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        Manifest roundtrip = roundtripManifest(builder.build(), status);
+        TestTIPPPackage.checkErrors(status, 0);
+        List<? extends TIPPFile> files = roundtrip.getSection(TIPPSectionType.BILINGUAL)
+                .getFileResources();
+        assertEquals(20000, files.size());
+        TIPPFile last = files.get(files.size() - 1);
+        assertEquals("file19999.xlf", last.getName());
+        assertEquals(20000, last.getSequence());
+        assertEquals("20000.xlf", roundtrip.getLocationForFile(last));
+    }
+
+    @Test
+    public void testSharedSchema() throws Exception {
+        assertSame(ManifestLoader.getSchema(), ManifestLoader.getSchema());
+        // Loads on several threads at once each validate independently
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<CollectingErrorHandler>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                final String sample = (i % 2 == 0) ? "data/peanut_butter.xml" :
+                                                     "data/invalid_sequence.xml";
+                results.add(executor.submit(() -> {
+                    CollectingErrorHandler status = new CollectingErrorHandler();
+                    loadManifestFromResource(sample, status);
+                    return status;
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                List<TIPPError> errors = results.get(i).get().getErrors();
+                if (i % 2 == 0) {
+                    assertEquals(0, errors.size());
+                }
+                else {
+                    assertEquals(1, errors.size());
+                    assertEquals(INVALID_MANIFEST, errors.get(0).getErrorType());
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testXMLEngine() throws Exception {
+        final XMLEngine engine = XMLEngine.get();
+        assertSame(engine, XMLEngine.get());
+        // Parsers and transformers are reused on each thread, but not shared
+        DocumentBuilder builder = engine.getDocumentBuilder();
+        assertSame(builder, engine.getDocumentBuilder());
+        assertSame(engine.getTransformer(), engine.getTransformer());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertNotSame(builder, executor.submit(() -> engine.getDocumentBuilder()).get());
+        }
+        finally {
+            executor.shutdown();
+        }
+        // A specific implementation can be chosen
+        XMLEngine specific = new XMLEngine(
+                "com.sun.org.apache.xerces.internal.jaxp.DocumentBuilderFactoryImpl", null, null, null);
+        assertTrue(specific.getDocumentBuilder().isNamespaceAware());
+        assertEquals("com.sun.org.apache.xerces.internal.jaxp.DocumentBuilderImpl",
+                     specific.getDocumentBuilder().getClass().getName());
+    }
+
+    @Test
+    public void testStreamWriterMatchesDOM() throws Exception {
+        for (String sample : Arrays.asList("data/peanut_butter.xml",
+                "data/peanut_butter_response.xml", "data/reference-request.xml")) {
+            Manifest manifest = loadManifestFromResource(sample, new CollectingErrorHandler());
+            assertArrayEquals(sample, writeWithDOM(manifest), writeWithStream(manifest));
+        }
+        // Text that the transformer escapes in various ways
+        String text = "a&b<c>d\"e'f\r\n\tg \u00e9 \u4e2d \ud83d\ude00 \u0001 \u007f " +
+                      "\u0085 \u00a0 \u2028 ]]>";
+        ManifestBuilder builder = new ManifestBuilder();
+        builder.setTaskType(StandardTaskType.TRANSLATE_STRICT_BITEXT);
+        builder.setSourceLocale("en-US");
+        builder.setTargetLocale(null);
+        builder.setCreator(new TIPPCreator(text, "", new Date(0), new TIPPTool(text, null, "1")));
+        builder.addFile(TIPPSectionType.BILINGUAL, text);
+        builder.addReferenceFile("ref.txt", TIPPReferenceFile.LanguageChoice.source);
+        builder.addReferenceFile("other.txt", null);
+        Manifest manifest = builder.build();
+        assertArrayEquals(writeWithDOM(manifest), writeWithStream(manifest));
+        // Unpaired surrogates can't be written either way
+        builder.setPackageId("\ud800");
+        try {
+            writeWithStream(builder.build());
+            fail("Wrote an unpaired surrogate");
+        }
+        catch (TIPPException e) {
+            // expected
+        }
+    }
+
+    private byte[] writeWithStream(Manifest manifest) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new ManifestWriter().saveToStream(manifest, output);
+        return output.toByteArray();
+    }
+
+    private byte[] writeWithDOM(Manifest manifest) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        XMLEngine.get().getTransformer().transform(
+                new DOMSource(new ManifestDOMBuilder(manifest).makeDocument()),
+                new StreamResult(output));
+        return output.toByteArray();
+    }
+
     private Manifest roundtripManifest(Manifest src, CollectingErrorHandler status) throws Exception {
         ByteArrayOutputStream output = new ByteArrayOutputStream();
         new ManifestWriter().saveToStream(src, output);
@@ -0,0 +1,364 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.junit.*;
+
+import static com.spartansoftwareinc.tipp.TestUtils.*;
+import static org.junit.Assert.*;
+
+public class TestPackageStore {
+
+    private Path root;
+
+    @Before
+    public void createRoot() throws IOException {
+        root = Files.createTempDirectory("tipp-store-test");
+    }
+
+    @After
+    public void deleteRoot() throws IOException {
+        FileUtil.recursiveDelete(root);
+    }
+
+    @Test
+    public void testTempFileStoreDirectory() throws Exception {
+        Path dir = root.resolve("tenant");
+        TempFileStore store = new TempFileStore(dir);
+        byte[] data = bytes(1000);
+        try (StoredResource r = store.store(new ByteArrayInputStream(data), "bilingual/1.xlf")) {
+            assertEquals(1000, r.getSize());
+            assertArrayEquals(data, read(r));
+            assertArrayEquals(data, readChannel(r));
+            List<Path> files = list(dir);
+            assertEquals(1, files.size());
+            assertTrue(files.get(0).getFileName().toString().endsWith(".xlf"));
+        }
+        assertTrue(list(dir).isEmpty());
+    }
+
+    @Test
+    public void testMemoryStore() throws Exception {
+        for (boolean direct : Arrays.asList(false, true)) {
+            byte[] data = bytes(200 * 1024);
+            try (StoredResource r = new MemoryStore(direct).store(new ByteArrayInputStream(data), "x")) {
+                assertEquals(data.length, r.getSize());
+                assertArrayEquals(data, read(r));
+                assertArrayEquals(data, readChannel(r));
+            }
+        }
+    }
+
+    @Test
+    public void testMemoryStoreCloseWhileReading() throws Exception {
+        for (boolean direct : Arrays.asList(false, true)) {
+            byte[] data = bytes(100 * 1024);
+            StoredResource r = new MemoryStore(direct).store(new ByteArrayInputStream(data), "x");
+            InputStream is = r.openInputStream();
+            SeekableByteChannel channel = r.openChannel();
+            r.close();
+            // Readers opened before the close can still finish
+            assertArrayEquals(data, readAll(is));
+            ByteBuffer buf = ByteBuffer.allocate(data.length);
+            while (buf.hasRemaining() && channel.read(buf) != -1) {
+            }
+            assertArrayEquals(data, buf.array());
+            assertEquals(data.length, r.getSize());
+            is.close();
+            channel.close();
+            try {
+                is.read();
+                fail("Read from a closed stream");
+            }
+            catch (IOException e) {
+                // expected
+            }
+            // New ones can't be opened
+            try {
+                r.openInputStream();
+                fail("Opened a closed resource");
+            }
+            catch (IOException e) {
+                // expected
+            }
+            try {
+                r.openChannel();
+                fail("Opened a closed resource");
+            }
+            catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testMemoryStoreCapacity() throws Exception {
+        int max = MemoryStore.MAX_CAPACITY;
+        assertEquals(128 * 1024, MemoryStore.nextCapacity(64 * 1024, 64 * 1024, 8192));
+        // Doubling past the limit is clamped, as long as the data still fits
+        assertEquals(max, MemoryStore.nextCapacity(1 << 30, 1 << 30, 8192));
+        assertEquals(max, MemoryStore.nextCapacity(max, max - 8192, 8192));
+        assertEquals(-1, MemoryStore.nextCapacity(max, max - 8191, 8192));
+    }
+
+    @Test
+    public void testHybridStore() throws Exception {
+        HybridStore store = new HybridStore(100, new TempFileStore(root));
+        byte[] small = bytes(100);
+        byte[] large = bytes(101);
+        try (StoredResource s = store.store(new ByteArrayInputStream(small), "small");
+             StoredResource l = store.store(new ByteArrayInputStream(large), "large")) {
+            assertArrayEquals(small, read(s));
+            assertArrayEquals(large, read(l));
+            assertEquals(101, l.getSize());
+            // Only the large one went to disk
+            assertEquals(1, list(root).size());
+        }
+        assertTrue(list(root).isEmpty());
+    }
+
+    @Test
+    public void testQuotaStore() throws Exception {
+        QuotaStore store = new QuotaStore(new TempFileStore(root), 1000);
+        StoredResource first = store.store(new ByteArrayInputStream(bytes(600)), "first");
+        assertEquals(600, store.getUsedBytes());
+        try {
+            store.store(new ByteArrayInputStream(bytes(600)), "second");
+            fail("Quota was not enforced");
+        }
+        catch (QuotaExceededException e) {
+            // expected
+        }
+        // The failed attempt gave back its space, and left nothing behind
+        assertEquals(600, store.getUsedBytes());
+        assertEquals(1, list(root).size());
+        first.close();
+        assertEquals(0, store.getUsedBytes());
+        try (StoredResource r = store.store(new ByteArrayInputStream(bytes(1000)), "third")) {
+            assertEquals(1000, r.getSize());
+            assertEquals(1000, store.getUsedBytes());
+        }
+        assertEquals(0, store.getUsedBytes());
+    }
+
+    @Test
+    public void testFactoryPackageStore() throws Exception {
+        QuotaStore store = new QuotaStore(new TempFileStore(root), Long.MAX_VALUE);
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        TIPPFactory factory = createFactory(status);
+        factory.setPackageStore(store);
+        try (TIPP tipp = factory.openFromStream(getClass().getResourceAsStream("data/test_package.zip"))) {
+            assertEquals(0, status.getErrors().size());
+            TestTIPPPackage.verifyRequestPackage(tipp);
+            assertTrue(store.getUsedBytes() > 0);
+            assertFalse(list(root).isEmpty());
+        }
+        assertEquals(0, store.getUsedBytes());
+        assertTrue(list(root).isEmpty());
+    }
+
+    @Test
+    public void testFactoryQuotaExceeded() throws Exception {
+        QuotaStore store = new QuotaStore(new TempFileStore(root), 1000);
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        TIPPFactory factory = createFactory(status);
+        factory.setPackageStore(store);
+        try {
+            factory.openFromStream(getClass().getResourceAsStream("data/test_package.zip"));
+            fail("Quota was not enforced");
+        }
+        catch (QuotaExceededException e) {
+            // expected
+        }
+        assertEquals(0, status.getErrors().size());
+        assertEquals(0, store.getUsedBytes());
+        assertTrue(list(root).isEmpty());
+    }
+
+    @Test
+    public void testBuilderPackageStore() throws Exception {
+        QuotaStore store = new QuotaStore(new HybridStore(2, new TempFileStore(root)), 1000);
+        try (RequestTIPP tipp = new RequestTIPPBuilder()
+                .setPackageStore(store)
+                .setTaskType(StandardTaskType.TRANSLATE_STRICT_BITEXT)
+                .setSourceLocale("en-US").setTargetLocale("fr-FR")
+                .addFile(TIPPSectionType.BILINGUAL, "test1.xlf",
+                        new ByteArrayInputStream("test".getBytes("UTF-8")))
+                .build()) {
+            assertEquals(4, store.getUsedBytes());
+            assertEquals(1, list(root).size());
+            TIPPFile file = tipp.getBilingualSection().getFileResources().get(0);
+            try (InputStream is = tipp.getFile(file)) {
+                assertEquals("test", new String(readAll(is), "UTF-8"));
+            }
+        }
+        assertEquals(0, store.getUsedBytes());
+        assertTrue(list(root).isEmpty());
+    }
+
+    @Test
+    public void testContentAddressedStore() throws Exception {
+        ContentAddressedStore store = new ContentAddressedStore(new TempFileStore(root), 1500);
+        byte[] data = bytes(1000);
+        byte[] other = bytes(999);
+        StoredResource first = store.store(new ByteArrayInputStream(data), "first");
+        StoredResource second = store.store(new ByteArrayInputStream(data), "second");
+        StoredResource third = store.store(new ByteArrayInputStream(other), "third");
+        // Identical content is only held once
+        assertEquals(2, store.getBlobCount());
+        assertEquals(1999, store.getStoredBytes());
+        assertEquals(2, list(root).size());
+        assertArrayEquals(data, read(second));
+        first.close();
+        first.close();
+        assertArrayEquals(data, read(second));
+        // Still over budget, but everything is in use
+        assertEquals(2, store.getBlobCount());
+        second.close();
+        // The least recently used copy that's not in use goes first
+        assertEquals(1, store.getBlobCount());
+        assertEquals(999, store.getStoredBytes());
+        third.close();
+        // Within budget, so it stays around for next time
+        assertEquals(1, store.getBlobCount());
+        try (StoredResource again = store.store(new ByteArrayInputStream(other), "again")) {
+            assertEquals(1, list(root).size());
+            assertArrayEquals(other, read(again));
+        }
+        store.clear();
+        assertEquals(0, store.getBlobCount());
+        assertTrue(list(root).isEmpty());
+    }
+
+    @Test
+    public void testContentAddressedStoreByChecksum() throws Exception {
+        final TempFileStore files = new TempFileStore(root);
+        final int[] written = new int[1];
+        ContentAddressedStore store = new ContentAddressedStore((is, name) -> {
+            written[0]++;
+            return files.store(is, name);
+        }, 0);
+        final byte[] data = bytes(1000);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        PackageStore.Contents contents = () -> new ByteArrayInputStream(data);
+        try (StoredResource first = store.store(contents, crc.getValue(), data.length, "first")) {
+            assertEquals(1, written[0]);
+            assertEquals(data.length, first.getSize());
+            // A matching CRC and size with the same content is used without
+            // writing anything
+            try (StoredResource second = store.store(contents, crc.getValue(), data.length, "second")) {
+                assertEquals(1, written[0]);
+                assertEquals(1, store.getBlobCount());
+                assertArrayEquals(data, read(second));
+            }
+            // Content stored from a stream is recognized the same way
+            try (StoredResource third = store.store(new ByteArrayInputStream(data), "third");
+                 StoredResource fourth = store.store(contents, crc.getValue(), data.length, "fourth")) {
+                assertEquals(2, written[0]);
+                assertEquals(1, store.getBlobCount());
+                assertArrayEquals(data, read(fourth));
+                assertEquals(third.getSize(), fourth.getSize());
+            }
+            // A matching CRC and size with different content (as a package
+            // could claim for anything) gets its own copy
+            final byte[] colliding = bytes(1000);
+            colliding[0] = 1;
+            try (StoredResource other = store.store(() -> new ByteArrayInputStream(colliding),
+                                                    crc.getValue(), data.length, "colliding")) {
+                assertEquals(3, written[0]);
+                assertEquals(2, store.getBlobCount());
+                assertArrayEquals(colliding, read(other));
+            }
+            try (StoredResource same = store.store(contents, crc.getValue(), data.length, "same")) {
+                assertEquals(3, written[0]);
+                assertArrayEquals(data, read(same));
+            }
+        }
+        assertEquals(0, store.getBlobCount());
+        assertTrue(list(root).isEmpty());
+    }
+
+    @Test
+    public void testSharedContentAddressedStore() throws Exception {
+        ContentAddressedStore store = new ContentAddressedStore(new TempFileStore(root), 0);
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        TIPPFactory factory = createFactory(status);
+        factory.setPackageStore(store);
+        try (TIPP first = factory.openFromStream(getClass().getResourceAsStream("data/test_package.zip"))) {
+            int files = list(root).size();
+            TIPP second = factory.openFromStream(getClass().getResourceAsStream("data/test_package.zip"));
+            assertEquals(0, status.getErrors().size());
+            // The second package didn't need any more space, and nor does
+            // building a package from the same content
+            assertEquals(files, list(root).size());
+            TIPPFile file = first.getBilingualSection().getFileResources().get(0);
+            try (RequestTIPP copy = new RequestTIPPBuilder()
+                    .setPackageStore(store)
+                    .setTaskType(StandardTaskType.TRANSLATE_STRICT_BITEXT)
+                    .setSourceLocale("en-US").setTargetLocale("fr-FR")
+                    .addFile(TIPPSectionType.BILINGUAL, file.getName(), second.getFile(file))
+                    .build()) {
+                assertEquals(1, copy.getBilingualSection().getFileResources().size());
+                assertEquals(files, list(root).size());
+            }
+            TestTIPPPackage.verifyRequestPackage(second);
+            second.close();
+        }
+        assertEquals(0, store.getBlobCount());
+        assertTrue(list(root).isEmpty());
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] b = new byte[size];
+        for (int i = 0; i < size; i++) {
+            b[i] = (byte)i;
+        }
+        return b;
+    }
+
+    private static byte[] read(StoredResource r) throws IOException {
+        try (InputStream is = r.openInputStream()) {
+            return readAll(is);
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        FileUtil.copyStreamToStream(is, os);
+        return os.toByteArray();
+    }
+
+    private static byte[] readChannel(StoredResource r) throws IOException {
+        try (SeekableByteChannel channel = r.openChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            }
+            return buffer.array();
+        }
+    }
+
+    private static List<Path> list(Path dir) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        if (Files.exists(dir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path p : stream) {
+                    paths.add(p);
+                }
+            }
+        }
+        return paths;
+    }
+}
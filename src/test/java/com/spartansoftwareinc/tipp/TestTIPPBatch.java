@@ -0,0 +1,118 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class TestTIPPBatch {
+
+    private Path root;
+
+    @Before
+    public void createRoot() throws IOException {
+        root = Files.createTempDirectory("tipp-batch-test");
+    }
+
+    @After
+    public void deleteRoot() throws IOException {
+        FileUtil.recursiveDelete(root);
+    }
+
+    @Test
+    public void testProcess() throws Exception {
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            paths.add(getSamplePath("data/test_package.zip"));
+            paths.add(getSamplePath("data/xtm-zip64.tipp"));
+        }
+        paths.add(getSamplePath("data/corrupt_package_zip.zip"));
+        paths.add(getSamplePath("data/test_response_package.zip"));
+        for (boolean virtualThreads : Arrays.asList(true, false)) {
+            final AtomicInteger handled = new AtomicInteger();
+            TIPPBatchReport report = new TIPPBatch()
+                    .setMaxConcurrentOpens(3)
+                    .setVirtualThreads(virtualThreads)
+                    .setPackageStore(new TempFileStore(root))
+                    .process(paths, (path, tipp, errors) -> {
+                        handled.incrementAndGet();
+                        if (tipp != null && !tipp.isRequest()) {
+                            throw new IllegalStateException("Not a request");
+                        }
+                    });
+            assertEquals(paths.size(), handled.get());
+            List<TIPPBatchResult> results = report.getResults();
+            assertEquals(paths.size(), results.size());
+            for (int i = 0; i < paths.size(); i++) {
+                assertEquals(paths.get(i), results.get(i).getPath());
+            }
+            assertEquals(20, report.getSuccessCount());
+            assertEquals(2, report.getFailureCount());
+            TIPPBatchResult corrupt = results.get(20);
+            assertFalse(corrupt.isOpened());
+            assertEquals(TIPPErrorSeverity.FATAL, corrupt.getMaxSeverity());
+            assertEquals(Integer.valueOf(1),
+                    report.getErrorCounts().get(TIPPErrorType.INVALID_PACKAGE_ZIP));
+            // A failing handler only affects its own package
+            TIPPBatchResult response = results.get(21);
+            assertTrue(response.isOpened());
+            assertTrue(response.getFailure() instanceof IllegalStateException);
+            assertEquals(0, countFiles(root));
+        }
+    }
+
+    @Test
+    public void testTempBytesLimit() throws Exception {
+        List<Path> paths = Arrays.asList(getSamplePath("data/test_package.zip"),
+                                         getSamplePath("data/test_package.zip"));
+        // Too small for even one package
+        TIPPBatchReport report = new TIPPBatch()
+                .setPackageStore(new TempFileStore(root))
+                .setMaxTempBytes(100)
+                .process(paths, (path, tipp, errors) -> { });
+        assertEquals(2, report.getFailureCount());
+        for (TIPPBatchResult result : report.getResults()) {
+            assertTrue(result.getFailure() instanceof QuotaExceededException);
+        }
+        assertEquals(0, countFiles(root));
+    }
+
+    @Test
+    public void testHandlerQuotaFailureNotRetried() throws Exception {
+        List<Path> paths = Arrays.asList(getSamplePath("data/test_package.zip"),
+                                         getSamplePath("data/test_package.zip"));
+        final AtomicInteger handled = new AtomicInteger();
+        TIPPBatchReport report = new TIPPBatch()
+                .setPackageStore(new TempFileStore(root))
+                .process(paths, (path, tipp, errors) -> {
+                    handled.incrementAndGet();
+                    throw new QuotaExceededException("From the handler");
+                });
+        // The handler has already seen each package, so it isn't run again
+        assertEquals(2, handled.get());
+        assertEquals(2, report.getFailureCount());
+        for (TIPPBatchResult result : report.getResults()) {
+            assertTrue(result.isOpened());
+            assertTrue(result.getFailure() instanceof QuotaExceededException);
+        }
+    }
+
+    private Path getSamplePath(String path) throws Exception {
+        return Paths.get(getClass().getResource(path).toURI());
+    }
+
+    private static long countFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+}
@@ -1,23 +1,65 @@
 package com.spartansoftwareinc.tipp;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import javax.xml.crypto.KeySelector;
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.SignatureMethod;
+import javax.xml.crypto.dsig.SignedInfo;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMSignContext;
+import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
+import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
+import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
 
 import org.junit.*;
 
@@ -136,6 +178,48 @@ public class TestTIPPPackage {
         }
     }
 
+    @Test
+    public void testValidationLevels() throws Exception {
+        Path sample = getSamplePath("data/manifest_payload_mismatch.zip");
+        for (ValidationLevel level : ValidationLevel.values()) {
+            CollectingErrorHandler status = new CollectingErrorHandler();
+            TIPPFactory factory = createFactory(status);
+            factory.setValidationLevel(level);
+            try (TIPP tipp = factory.openFromPath(sample)) {
+                assertNotNull(tipp);
+                if (level == ValidationLevel.NONE || level == ValidationLevel.DEFERRED) {
+                    checkErrors(status, 0);
+                }
+                // Deferred checks are made on request, and only once
+                tipp.validate();
+                tipp.validate();
+                if (level == ValidationLevel.NONE) {
+                    checkErrors(status, 0);
+                    continue;
+                }
+                checkErrors(status, 2);
+                assertEquals(TIPPErrorType.MISSING_PAYLOAD_RESOURCE,
+                        status.getErrors().get(0).getErrorType());
+                assertEquals(TIPPErrorType.UNEXPECTED_PAYLOAD_RESOURCE,
+                        status.getErrors().get(1).getErrorType());
+            }
+        }
+        // Reading a file is enough to trigger deferred checks
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        TIPPFactory factory = createFactory(status);
+        factory.setValidationLevel(ValidationLevel.DEFERRED);
+        try (TIPP tipp = factory.openFromPath(getSamplePath("data/test_package.zip"))) {
+            TIPPFile file = tipp.getSection(TIPPSectionType.BILINGUAL).getFileResources().get(0);
+            tipp.getFile(file).close();
+            checkErrors(status, 0);
+        }
+        try (TIPP tipp = factory.openFromPath(sample)) {
+            TIPPFile file = tipp.getSection(TIPPSectionType.BILINGUAL).getFileResources().get(0);
+            tipp.transferFile(file, Channels.newChannel(new ByteArrayOutputStream()));
+            checkErrors(status, 2);
+        }
+    }
+
     @Test
     public void testVerifyCorruptPackageZip() throws Exception {
         CollectingErrorHandler status = new CollectingErrorHandler();
@@ -344,12 +428,1091 @@ public class TestTIPPPackage {
         }
     }
 
+    @Test
+    public void testPackageLoadFromPath() throws Exception {
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        try (TIPP tipp = createFactory(status).openFromPath(getSamplePath("data/test_package.zip"));
+             TIPP fromStream = getSamplePackage("data/test_package.zip", status)) {
+            checkErrors(status, 0);
+            verifyRequestPackage(tipp);
+            comparePackageParts(fromStream, tipp);
+        }
+    }
+
+    @Test
+    public void testZip64FromPath() throws Exception {
+        // resources.zip is deflated in this package, so it can't be
+        // addressed in place
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        try (TIPP tipp = createFactory(status).openFromPath(getSamplePath("data/xtm-zip64.tipp"));
+             TIPP fromStream = getSamplePackage("data/xtm-zip64.tipp", status)) {
+            checkErrors(status, 0);
+            assertEquals(1, tipp.getBilingualSection().getFileResources().size());
+            comparePackageParts(fromStream, tipp);
+        }
+    }
+
+    @Test
+    public void testVerifyCorruptPackageZipFromPath() throws Exception {
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        try (TIPP tipp = createFactory(status).openFromPath(
+                getSamplePath("data/corrupt_package_zip.zip"))) {
+            assertNull(tipp);
+            checkErrors(status, 1);
+            assertEquals(TIPPErrorType.INVALID_PACKAGE_ZIP,
+                    status.getErrors().get(0).getErrorType());
+        }
+    }
+
+    @Test
+    public void testVerifyCorruptPayloadZipFromPath() throws Exception {
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        try (TIPP tipp = createFactory(status).openFromPath(
+                getSamplePath("data/corrupt_payload_zip.zip"))) {
+            assertNotNull(tipp);
+            checkErrors(status, 8);
+            assertEquals(TIPPErrorType.INVALID_PAYLOAD_ZIP,
+                    status.getErrors().get(0).getErrorType());
+            for (TIPPError error : status.getErrors().subList(1, 8)) {
+                assertEquals(TIPPErrorType.MISSING_PAYLOAD_RESOURCE,
+                        error.getErrorType());
+            }
+        }
+    }
+
+    @Test
+    public void testLazyPackageLoad() throws Exception {
+        for (PayloadExtraction extraction : Arrays.asList(PayloadExtraction.LAZY,
+                PayloadExtraction.LAZY_CACHED)) {
+            CollectingErrorHandler status = new CollectingErrorHandler();
+            TIPPFactory factory = createFactory(status);
+            factory.setPayloadExtraction(extraction);
+            try (TIPP lazy = factory.openFromStream(
+                    getClass().getResourceAsStream("data/test_package.zip"));
+                 TIPP eager = getSamplePackage("data/test_package.zip", status)) {
+                checkErrors(status, 0);
+                verifyRequestPackage(lazy);
+                comparePackageParts(eager, lazy);
+                // Read everything a second time, to exercise the cache
+                comparePackageParts(eager, lazy);
+            }
+        }
+    }
+
+    @Test
+    public void testLazyPackageLoadFromPath() throws Exception {
+        // Covers both a stored (test_package) and a deflated (xtm-zip64)
+        // resources.zip
+        for (String sample : Arrays.asList("data/test_package.zip", "data/xtm-zip64.tipp")) {
+            for (PayloadExtraction extraction : Arrays.asList(PayloadExtraction.LAZY,
+                    PayloadExtraction.LAZY_CACHED)) {
+                CollectingErrorHandler status = new CollectingErrorHandler();
+                TIPPFactory factory = createFactory(status);
+                factory.setPayloadExtraction(extraction);
+                try (TIPP lazy = factory.openFromPath(getSamplePath(sample));
+                     TIPP eager = getSamplePackage(sample, status)) {
+                    checkErrors(status, 0);
+                    comparePackageParts(eager, lazy);
+                    comparePackageParts(eager, lazy);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLazyManifestPayloadMismatch() throws Exception {
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        TIPPFactory factory = createFactory(status);
+        factory.setPayloadExtraction(PayloadExtraction.LAZY);
+        try (TIPP tipp = factory.openFromStream(getClass().getResourceAsStream(
+                "data/manifest_payload_mismatch.zip"))) {
+            assertNotNull(tipp);
+            checkErrors(status, 2);
+            assertEquals(TIPPErrorType.MISSING_PAYLOAD_RESOURCE,
+                    status.getErrors().get(0).getErrorType());
+            assertEquals(TIPPErrorType.UNEXPECTED_PAYLOAD_RESOURCE,
+                    status.getErrors().get(1).getErrorType());
+        }
+    }
+
+    @Test
+    public void testPackageLoadFromBytes() throws Exception {
+        for (String sample : Arrays.asList("data/test_package.zip", "data/xtm-zip64.tipp")) {
+            byte[] bytes = Files.readAllBytes(getSamplePath(sample));
+            for (PayloadExtraction extraction : PayloadExtraction.values()) {
+                CollectingErrorHandler status = new CollectingErrorHandler();
+                TIPPFactory factory = createFactory(status);
+                factory.setPayloadExtraction(extraction);
+                try (TIPP tipp = factory.openFromBytes(bytes);
+                     TIPP fromStream = getSamplePackage(sample, status)) {
+                    checkErrors(status, 0);
+                    comparePackageParts(fromStream, tipp);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPackageLoadFromDirectBuffer() throws Exception {
+        byte[] bytes = Files.readAllBytes(getSamplePath("data/test_package.zip"));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        for (PayloadExtraction extraction : PayloadExtraction.values()) {
+            CollectingErrorHandler status = new CollectingErrorHandler();
+            TIPPFactory factory = createFactory(status);
+            factory.setPayloadExtraction(extraction);
+            try (TIPP tipp = factory.openFromByteBuffer(buffer);
+                 TIPP fromStream = getSamplePackage("data/test_package.zip", status)) {
+                checkErrors(status, 0);
+                verifyRequestPackage(tipp);
+                comparePackageParts(fromStream, tipp);
+            }
+            // The caller's buffer is left as it was
+            assertEquals(0, buffer.position());
+            assertEquals(bytes.length, buffer.limit());
+        }
+    }
+
+    @Test
+    public void testVerifyCorruptPackageZipFromBytes() throws Exception {
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        try (TIPP tipp = createFactory(status).openFromBytes(
+                Files.readAllBytes(getSamplePath("data/corrupt_package_zip.zip")))) {
+            assertNull(tipp);
+            checkErrors(status, 1);
+            assertEquals(TIPPErrorType.INVALID_PACKAGE_ZIP,
+                    status.getErrors().get(0).getErrorType());
+        }
+    }
+
+    @Test
+    public void testNewPackageInMemory() throws Exception {
+        for (PayloadStorage storage : Arrays.asList(PayloadStorage.HEAP, PayloadStorage.DIRECT)) {
+            try (RequestTIPP tipp = new RequestTIPPBuilder()
+                    .setPayloadStorage(storage)
+                    .setTaskType(StandardTaskType.TRANSLATE_STRICT_BITEXT)
+                    .setCreator(new TIPPCreator("testname", "testid",
+                            TestManifest.getDate(2011, 7, 12, 20, 35, 12),
+                            new TIPPTool("jtip",
+                                    "http://code.google.com/p/interoperability-now",
+                                    "0.15")))
+                    .setSourceLocale("en-US").setTargetLocale("fr-FR")
+                    .addFile(TIPPSectionType.BILINGUAL, "test1.xlf",
+                            new ByteArrayInputStream("test".getBytes("UTF-8")))
+                    .build()) {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                tipp.saveToStream(os);
+                CollectingErrorHandler status = new CollectingErrorHandler();
+                TIPPFactory factory = createFactory(status);
+                factory.setPayloadStorage(storage);
+                try (TIPP roundTrip = factory.openFromStream(
+                        new ByteArrayInputStream(os.toByteArray()))) {
+                    checkErrors(status, 0);
+                    assertEquals(tipp.getPackageId(), roundTrip.getPackageId());
+                    comparePackageParts(tipp, roundTrip);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPayloadStorageAfterAddFile() throws Exception {
+        new RequestTIPPBuilder()
+                .addFile(TIPPSectionType.BILINGUAL, "test1.xlf",
+                        new ByteArrayInputStream("test".getBytes("UTF-8")))
+                .setPayloadStorage(PayloadStorage.HEAP);
+    }
+
+    @Test
+    public void testAddFileByPathOrSupplier() throws Exception {
+        Path file = Files.createTempFile("tipp-test", ".xlf");
+        try {
+            Files.write(file, "from a path".getBytes("UTF-8"));
+            final byte[] supplied = "from a supplier".getBytes("UTF-8");
+            final AtomicInteger calls = new AtomicInteger();
+            try (RequestTIPP tipp = new RequestTIPPBuilder()
+                    .setTaskType(StandardTaskType.TRANSLATE_STRICT_BITEXT)
+                    .setCreator(new TIPPCreator("testname", "testid",
+                            TestManifest.getDate(2011, 7, 12, 20, 35, 12),
+                            new TIPPTool("jtip",
+                                    "http://code.google.com/p/interoperability-now",
+                                    "0.15")))
+                    .setSourceLocale("en-US").setTargetLocale("fr-FR")
+                    .addFile(TIPPSectionType.BILINGUAL, "test1.xlf", file)
+                    .addFile(TIPPSectionType.BILINGUAL, "test2.xlf", () -> {
+                        calls.incrementAndGet();
+                        return new ByteArrayInputStream(supplied);
+                    })
+                    .build()) {
+                // Nothing is read until it's needed
+                assertEquals(0, calls.get());
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                tipp.saveToStream(os);
+                assertTrue(calls.get() > 0);
+                CollectingErrorHandler status = new CollectingErrorHandler();
+                try (TIPP roundTrip = createFactory(status).openFromStream(
+                        new ByteArrayInputStream(os.toByteArray()))) {
+                    checkErrors(status, 0);
+                    comparePackageParts(tipp, roundTrip);
+                    List<? extends TIPPFile> files = roundTrip.getSection(TIPPSectionType.BILINGUAL)
+                            .getFileResources();
+                    assertEquals(2, files.size());
+                    try (InputStream is = roundTrip.getFile(files.get(0))) {
+                        assertEquals("from a path", new String(readBytes(is), "UTF-8"));
+                    }
+                    try (InputStream is = roundTrip.getFile(files.get(1))) {
+                        assertEquals("from a supplier", new String(readBytes(is), "UTF-8"));
+                    }
+                }
+            }
+            // The file is left where it was
+            assertTrue(Files.exists(file));
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testAddMissingFileByPath() throws Exception {
+        new RequestTIPPBuilder()
+                .addFile(TIPPSectionType.BILINGUAL, "test1.xlf",
+                        Paths.get("no-such-file.xlf"));
+    }
+
+    @Test
+    public void testReadManifest() throws Exception {
+        for (String sample : Arrays.asList("data/test_package.zip", "data/xtm-zip64.tipp")) {
+            CollectingErrorHandler status = new CollectingErrorHandler();
+            TIPPFactory factory = createFactory(status);
+            TIPPManifest fromStream = factory.readManifest(getClass().getResourceAsStream(sample));
+            TIPPManifest fromPath = factory.readManifest(getSamplePath(sample));
+            try (TIPP tipp = getSamplePackage(sample, status)) {
+                checkErrors(status, 0);
+                for (TIPPManifest manifest : Arrays.asList(fromStream, fromPath)) {
+                    assertNotNull(manifest);
+                    assertEquals(tipp.isRequest(), manifest.isRequest());
+                    assertEquals(tipp.getPackageId(), manifest.getPackageId());
+                    assertEquals(tipp.getCreator(), manifest.getCreator());
+                    assertEquals(tipp.getTaskType(), manifest.getTaskType());
+                    assertEquals(tipp.getSourceLocale(), manifest.getSourceLocale());
+                    assertEquals(tipp.getTargetLocale(), manifest.getTargetLocale());
+                    assertEquals(new ArrayList<>(tipp.getSections()),
+                                 new ArrayList<>(manifest.getSections()));
+                    assertEquals(tipp.getBilingualSection(),
+                                 manifest.getSection(TIPPSectionType.BILINGUAL));
+                }
+            }
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadManifestIsImmutable() throws Exception {
+        TIPPManifest manifest = createFactory(new CollectingErrorHandler())
+                .readManifest(getSamplePath("data/test_package.zip"));
+        manifest.getSections().clear();
+    }
+
+    @Test
+    public void testReadManifestMissingManifest() throws Exception {
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        TIPPFactory factory = createFactory(status);
+        assertNull(factory.readManifest(getClass().getResourceAsStream("data/missing_manifest.zip")));
+        assertNull(factory.readManifest(getSamplePath("data/missing_manifest.zip")));
+        checkErrors(status, 2);
+        for (TIPPError error : status.getErrors()) {
+            assertEquals(TIPPErrorType.MISSING_MANIFEST, error.getErrorType());
+        }
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        RecordingVisitor visitor = new RecordingVisitor();
+        TIPPManifest manifest = createFactory(status).stream(
+                getClass().getResourceAsStream("data/test_package.zip"), visitor);
+        checkErrors(status, 0);
+        assertNotNull(manifest);
+        try (TIPP tipp = getSamplePackage("data/test_package.zip", status)) {
+            verifyVisitedFiles(tipp, manifest, visitor);
+        }
+    }
+
+    @Test
+    public void testStreamPayloadBeforeManifest() throws Exception {
+        // Reverse the entries, so resources.zip has to be held until the
+        // manifest turns up
+        ByteArrayOutputStream reordered = new ByteArrayOutputStream();
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(
+                getClass().getResourceAsStream("data/test_package.zip"))) {
+            for (ZipEntry e = zis.getNextEntry(); e != null; e = zis.getNextEntry()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                FileUtil.copyStreamToStream(zis, bytes);
+                entries.put(e.getName(), bytes.toByteArray());
+            }
+        }
+        List<String> names = new ArrayList<>(entries.keySet());
+        try (ZipOutputStream zos = new ZipOutputStream(reordered)) {
+            for (int i = names.size() - 1; i >= 0; i--) {
+                zos.putNextEntry(new ZipEntry(names.get(i)));
+                zos.write(entries.get(names.get(i)));
+                zos.closeEntry();
+            }
+        }
+        assertEquals(PackageBase.MANIFEST, names.get(0));
+
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        RecordingVisitor visitor = new RecordingVisitor();
+        TIPPManifest manifest = createFactory(status).stream(
+                new ByteArrayInputStream(reordered.toByteArray()), visitor);
+        checkErrors(status, 0);
+        try (TIPP tipp = getSamplePackage("data/test_package.zip", status)) {
+            verifyVisitedFiles(tipp, manifest, visitor);
+        }
+        // The payload is held in the factory's store, if it has one
+        TIPPFactory factory = createFactory(status);
+        factory.setPackageStore(new QuotaStore(new MemoryStore(false), 100));
+        try {
+            factory.stream(new ByteArrayInputStream(reordered.toByteArray()),
+                           new RecordingVisitor());
+            fail("Payload wasn't held in the package store");
+        }
+        catch (QuotaExceededException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStreamManifestPayloadMismatch() throws Exception {
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        RecordingVisitor visitor = new RecordingVisitor();
+        assertNotNull(createFactory(status).stream(getClass().getResourceAsStream(
+                "data/manifest_payload_mismatch.zip"), visitor));
+        checkErrors(status, 2);
+        assertEquals(status.getErrors(), visitor.validationErrors);
+        assertEquals(TIPPErrorType.MISSING_PAYLOAD_RESOURCE,
+                visitor.validationErrors.get(0).getErrorType());
+        assertEquals(TIPPErrorType.UNEXPECTED_PAYLOAD_RESOURCE,
+                visitor.validationErrors.get(1).getErrorType());
+    }
+
+    @Test
+    public void testStreamMissingManifest() throws Exception {
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        RecordingVisitor visitor = new RecordingVisitor();
+        assertNull(createFactory(status).stream(getClass().getResourceAsStream(
+                "data/missing_manifest.zip"), visitor));
+        checkErrors(status, 1);
+        assertEquals(TIPPErrorType.MISSING_MANIFEST, status.getErrors().get(0).getErrorType());
+        assertNull(visitor.manifest);
+        assertTrue(visitor.files.isEmpty());
+    }
+
+    private void verifyVisitedFiles(TIPP tipp, TIPPManifest manifest,
+                                    RecordingVisitor visitor) throws Exception {
+        assertSame(manifest, visitor.manifest);
+        assertNotNull(visitor.validationErrors);
+        assertTrue(visitor.validationErrors.isEmpty());
+        int count = 0;
+        for (TIPPSection section : tipp.getSections()) {
+            for (TIPPFile file : section.getFileResources()) {
+                byte[] visited = visitor.files.get(file);
+                assertNotNull(visited);
+                try (InputStream is = tipp.getFile(file)) {
+                    verifyBytes(is, new ByteArrayInputStream(visited));
+                }
+                count++;
+            }
+        }
+        assertEquals(count, visitor.files.size());
+    }
+
+    static class RecordingVisitor implements TIPPVisitor {
+        TIPPManifest manifest;
+        Map<TIPPFile, byte[]> files = new LinkedHashMap<>();
+        List<TIPPError> validationErrors;
+
+        @Override
+        public void visitManifest(TIPPManifest manifest) {
+            this.manifest = manifest;
+        }
+
+        @Override
+        public void visitFile(TIPPFile file, InputStream contents) throws IOException {
+            assertNotNull(manifest);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            FileUtil.copyStreamToStream(contents, bytes);
+            files.put(file, bytes.toByteArray());
+        }
+
+        @Override
+        public void visitPayloadValidation(List<TIPPError> errors) {
+            validationErrors = errors;
+        }
+    }
+
+    @Test
+    public void testConcurrentExtraction() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (String sample : Arrays.asList("data/test_package.zip", "data/xtm-zip64.tipp")) {
+                CollectingErrorHandler status = new CollectingErrorHandler();
+                TIPPFactory factory = createFactory(status);
+                factory.setExtractionExecutor(executor);
+                try (TIPP fromStream = factory.openFromStream(getClass().getResourceAsStream(sample));
+                     TIPP fromPath = factory.openFromPath(getSamplePath(sample));
+                     TIPP serial = getSamplePackage(sample, status)) {
+                    checkErrors(status, 0);
+                    comparePackageParts(serial, fromStream);
+                    comparePackageParts(serial, fromPath);
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentExtractionManifestPayloadMismatch() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CollectingErrorHandler serial = new CollectingErrorHandler();
+            getSamplePackage("data/manifest_payload_mismatch.zip", serial).close();
+            CollectingErrorHandler status = new CollectingErrorHandler();
+            TIPPFactory factory = createFactory(status);
+            factory.setExtractionExecutor(executor);
+            try (TIPP tipp = factory.openFromStream(getClass().getResourceAsStream(
+                    "data/manifest_payload_mismatch.zip"))) {
+                assertNotNull(tipp);
+                assertEquals(serial.getErrors(), status.getErrors());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentPackageSave() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        try (TIPP tip = getSamplePackage("data/test_package.zip", status)) {
+            Path temp = Files.createTempFile("tiptest", ".zip");
+            try (OutputStream os = Files.newOutputStream(temp)) {
+                tip.saveToStream(os, new TIPPSaveOptions().setExecutor(executor));
+            }
+            // The payload should be an ordinary zip archive
+            try (ZipFile zf = new ZipFile(temp.toFile())) {
+                Path payload = Files.createTempFile("resources", ".zip");
+                try (InputStream is = zf.getInputStream(zf.getEntry(PackageBase.PAYLOAD_FILE))) {
+                    Files.copy(is, payload, StandardCopyOption.REPLACE_EXISTING);
+                }
+                try (ZipFile payloadZip = new ZipFile(payload.toFile())) {
+                    int count = 0;
+                    for (TIPPSection section : tip.getSections()) {
+                        count += section.getFileResources().size();
+                    }
+                    assertEquals(count, payloadZip.size());
+                }
+                finally {
+                    Files.delete(payload);
+                }
+            }
+            try (TIPP roundtrip = createFactory(status)
+                    .openFromStream(Files.newInputStream(temp))) {
+                checkErrors(status, 0);
+                verifyRequestPackage(roundtrip);
+                comparePackageParts(tip, roundtrip);
+            }
+            Files.delete(temp);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompressionPolicy() throws Exception {
+        byte[] text = new byte[100000];
+        Arrays.fill(text, (byte)'a');
+        byte[] noise = new byte[100000];
+        new java.util.Random(42).nextBytes(noise);
+        CompressionPolicy policy = new CompressionPolicy()
+                .setSectionLevel(TIPPSectionType.PREVIEW, CompressionPolicy.STORED)
+                .setAdaptive(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (RequestTIPP tipp = new RequestTIPPBuilder()
+                .setPayloadStorage(PayloadStorage.HEAP)
+                .setCompressionPolicy(policy)
+                .setTaskType(StandardTaskType.TRANSLATE_STRICT_BITEXT)
+                .setSourceLocale("en-US").setTargetLocale("fr-FR")
+                .addFile(TIPPSectionType.BILINGUAL, "text.xlf", new ByteArrayInputStream(text))
+                .addFile(TIPPSectionType.BILINGUAL, "noise.xlf", new ByteArrayInputStream(noise))
+                .addFile(TIPPSectionType.PREVIEW, "preview.txt", new ByteArrayInputStream(text))
+                .build()) {
+            for (ExecutorService e : Arrays.asList(null, executor)) {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                tipp.saveToStream(os, new TIPPSaveOptions().setExecutor(e));
+                // Files are stored in the payload under their sequence numbers
+                Map<String, Integer> methods = getPayloadMethods(os.toByteArray());
+                assertEquals(Integer.valueOf(ZipEntry.DEFLATED), methods.get("bilingual/1.xlf"));
+                assertEquals(Integer.valueOf(ZipEntry.STORED), methods.get("bilingual/2.xlf"));
+                assertEquals(Integer.valueOf(ZipEntry.STORED), methods.get("preview/1.txt"));
+                CollectingErrorHandler status = new CollectingErrorHandler();
+                try (TIPP roundTrip = createFactory(status).openFromBytes(os.toByteArray())) {
+                    checkErrors(status, 0);
+                    comparePackageParts(tipp, roundTrip);
+                }
+            }
+            // A policy in the save options takes precedence
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            tipp.saveToStream(os, new TIPPSaveOptions().setCompressionPolicy(
+                    new CompressionPolicy().setDefaultLevel(CompressionPolicy.STORED)
+                            .setFileLevel(TIPPSectionType.BILINGUAL, "noise.xlf", 9)));
+            Map<String, Integer> methods = getPayloadMethods(os.toByteArray());
+            assertEquals(Integer.valueOf(ZipEntry.STORED), methods.get("bilingual/1.xlf"));
+            assertEquals(Integer.valueOf(ZipEntry.DEFLATED), methods.get("bilingual/2.xlf"));
+            assertEquals(Integer.valueOf(ZipEntry.STORED), methods.get("preview/1.txt"));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testResaveCopiesEntries() throws Exception {
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        TIPPFactory factory = createFactory(status);
+        factory.setPayloadExtraction(PayloadExtraction.LAZY);
+        Path sample = getSamplePath("data/test_package.zip");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (TIPP tipp = factory.openFromPath(sample)) {
+            checkErrors(status, 0);
+            for (ExecutorService e : Arrays.asList(null, executor)) {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                tipp.saveToStream(os, new TIPPSaveOptions().setExecutor(e));
+                // Every entry's compressed data should be exactly as it was
+                ZipDirectory original = getPayloadDirectory(Files.readAllBytes(sample));
+                ZipDirectory saved = getPayloadDirectory(os.toByteArray());
+                int files = 0;
+                for (ZipDirectory.Entry entry : original.getEntries()) {
+                    files += entry.isDirectory() ? 0 : 1;
+                }
+                assertEquals(files, saved.getEntries().size());
+                for (ZipDirectory.Entry entry : saved.getEntries()) {
+                    ZipDirectory.Entry orig = original.getEntry(entry.getName());
+                    assertNotNull(orig);
+                    assertEquals(orig.getMethod(), entry.getMethod());
+                    assertEquals(orig.getCrc(), entry.getCrc());
+                    try (InputStream a = original.openRaw(orig);
+                         InputStream b = saved.openRaw(entry)) {
+                        assertArrayEquals(readBytes(a), readBytes(b));
+                    }
+                }
+                try (TIPP roundTrip = createFactory(status).openFromBytes(os.toByteArray())) {
+                    checkErrors(status, 0);
+                    comparePackageParts(tipp, roundTrip);
+                }
+            }
+            // A policy that disagrees with how an entry was compressed
+            // means it has to be written again
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            tipp.saveToStream(os, new TIPPSaveOptions().setCompressionPolicy(
+                    new CompressionPolicy().setDefaultLevel(Deflater.BEST_COMPRESSION)));
+            for (ZipDirectory.Entry entry : getPayloadDirectory(os.toByteArray()).getEntries()) {
+                assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCompressionLevel() throws Exception {
+        new CompressionPolicy().setDefaultLevel(10);
+    }
+
+    @Test
+    public void testOpenAndSaveAsync() throws Exception {
+        ExecutorService io = Executors.newFixedThreadPool(2);
+        ExecutorService cpu = Executors.newFixedThreadPool(2);
+        try {
+            CollectingErrorHandler status = new CollectingErrorHandler();
+            TIPPFactory factory = createFactory(status);
+            Path sample = getSamplePath("data/test_package.zip");
+            try (TIPP fromPath = factory.openAsync(sample, null, io, cpu).get();
+                 TIPP fromStream = factory.openAsync(Files.newInputStream(sample), io).get()) {
+                checkErrors(status, 0);
+                verifyRequestPackage(fromPath);
+                comparePackageParts(fromPath, fromStream);
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                fromPath.saveAsync(os, new TIPPSaveOptions().setExecutor(cpu), io).get();
+                try (TIPP roundTrip = factory.openFromBytes(os.toByteArray())) {
+                    checkErrors(status, 0);
+                    comparePackageParts(fromPath, roundTrip);
+                }
+            }
+            // Fatal errors give a null package, as they do when opening
+            // synchronously
+            assertNull(factory.openAsync(getSamplePath("data/corrupt_package_zip.zip"), io).get());
+            checkErrors(status, 1);
+        }
+        finally {
+            io.shutdown();
+            cpu.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancelledOpenAsync() throws Exception {
+        Path dir = Files.createTempDirectory("tipptest");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService cpu = Executors.newSingleThreadExecutor();
+        try {
+            CollectingErrorHandler status = new CollectingErrorHandler();
+            TIPPFactory factory = createFactory(status);
+            factory.setPackageStore(new TempFileStore(dir));
+            // Hold up the processing stage until the open has been cancelled
+            cpu.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            started.await();
+            CompletableFuture<TIPP> future = factory.openAsync(
+                    getSamplePath("data/test_package.zip"), null, Runnable::run, cpu);
+            // The payload has been unpacked...
+            assertTrue(countFiles(dir) > 0);
+            assertTrue(future.cancel(true));
+            release.countDown();
+            cpu.shutdown();
+            assertTrue(cpu.awaitTermination(10, TimeUnit.SECONDS));
+            // ...and is cleaned up, since no package will own it
+            assertEquals(0, countFiles(dir));
+            checkErrors(status, 0);
+        }
+        finally {
+            cpu.shutdownNow();
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testBuildAsync() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<RequestTIPP> future = new RequestTIPPBuilder()
+                    .setPayloadStorage(PayloadStorage.HEAP)
+                    .setTaskType(StandardTaskType.TRANSLATE_STRICT_BITEXT)
+                    .setSourceLocale("en-US").setTargetLocale("fr-FR")
+                    .addFile(TIPPSectionType.BILINGUAL, "test1.xlf",
+                            new ByteArrayInputStream("test".getBytes("UTF-8")))
+                    .buildAsync(executor);
+            try (RequestTIPP tipp = future.get()) {
+                assertTrue(tipp.isRequest());
+                assertEquals(1, tipp.getBilingualSection().getFileResources().size());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private static long countFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testTransferFile() throws Exception {
+        Path sample = getSamplePath("data/test_package.zip");
+        Path out = Files.createTempFile("transfer", ".bin");
+        try {
+            for (PayloadExtraction extraction : PayloadExtraction.values()) {
+                for (PayloadStorage storage : Arrays.asList(PayloadStorage.TEMP_FILES,
+                                                            PayloadStorage.HEAP)) {
+                    CollectingErrorHandler status = new CollectingErrorHandler();
+                    TIPPFactory factory = createFactory(status);
+                    factory.setPayloadExtraction(extraction);
+                    factory.setPayloadStorage(storage);
+                    try (TIPP fromPath = factory.openFromPath(sample);
+                         TIPP fromStream = factory.openFromStream(Files.newInputStream(sample))) {
+                        checkErrors(status, 0);
+                        for (TIPP tipp : Arrays.asList(fromPath, fromStream)) {
+                            for (TIPPSection section : tipp.getSections()) {
+                                for (TIPPFile file : section.getFileResources()) {
+                                    byte[] expected;
+                                    try (InputStream is = tipp.getFile(file)) {
+                                        expected = readBytes(is);
+                                    }
+                                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                                    assertEquals(expected.length, tipp.transferFile(file,
+                                            Channels.newChannel(bytes)));
+                                    assertArrayEquals(expected, bytes.toByteArray());
+                                    try (FileChannel fc = FileChannel.open(out,
+                                            StandardOpenOption.WRITE,
+                                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                                        assertEquals(expected.length, tipp.transferFile(file, fc));
+                                    }
+                                    assertArrayEquals(expected, Files.readAllBytes(out));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            Files.delete(out);
+        }
+    }
+
+    @Test
+    public void testAddFileFrom() throws Exception {
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        TIPPFactory factory = createFactory(status);
+        factory.setPayloadExtraction(PayloadExtraction.LAZY);
+        Path sample = getSamplePath("data/test_package.zip");
+        try (TIPP request = factory.openFromPath(sample)) {
+            checkErrors(status, 0);
+            ResponseTIPPBuilder builder = new ResponseTIPPBuilder(request.asRequestTIPP())
+                    .setPackageId("urn:uuid:response")
+                    .setCreator(request.getCreator())
+                    .setResponseCode(TIPPResponseCode.Success);
+            for (TIPPSection section : request.getSections()) {
+                for (TIPPFile file : section.getFileResources()) {
+                    builder.addFileFrom(request, file);
+                }
+            }
+            try (ResponseTIPP response = builder.build()) {
+                comparePackageParts(request, response);
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                response.saveToStream(os);
+                // The files were copied into the response payload as they were
+                ZipDirectory original = getPayloadDirectory(Files.readAllBytes(sample));
+                ZipDirectory saved = getPayloadDirectory(os.toByteArray());
+                for (TIPPSection section : request.getSections()) {
+                    for (TIPPFile file : section.getFileResources()) {
+                        TIPPFile copy = response.getSection(file.getSectionType())
+                                .getFileResources().get(file.getSequence() - 1);
+                        ZipDirectory.Entry from = original.getEntry(getPayloadPath(request, file));
+                        ZipDirectory.Entry to = saved.getEntry(getPayloadPath(response, copy));
+                        assertEquals(from.getMethod(), to.getMethod());
+                        assertEquals(from.getCrc(), to.getCrc());
+                    }
+                }
+                try (TIPP roundTrip = createFactory(status).openFromBytes(os.toByteArray())) {
+                    checkErrors(status, 0);
+                    assertFalse(roundTrip.isRequest());
+                    comparePackageParts(request, roundTrip);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSaveManifestFirst() throws Exception {
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        try (TIPP tip = getSamplePackage("data/test_package.zip", status)) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            tip.saveToStream(os);
+            try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(os.toByteArray()))) {
+                assertEquals(PackageBase.MANIFEST, zis.getNextEntry().getName());
+                assertEquals(PackageBase.PAYLOAD_FILE, zis.getNextEntry().getName());
+                assertNull(zis.getNextEntry());
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingWriter() throws Exception {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("DSA");
+        kpg.initialize(1024);
+        KeyPair kp = kpg.generateKeyPair();
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        try (TIPP tipp = getSamplePackage("data/test_package.zip", status)) {
+            checkErrors(status, 0);
+            for (KeyPair keyPair : Arrays.asList(null, kp)) {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                StreamingTIPPWriter writer = new StreamingTIPPWriter(os, true)
+                        .setKeyPair(keyPair)
+                        .setPackageId(tipp.getPackageId())
+                        .setCreator(tipp.getCreator())
+                        .setTaskType(tipp.getTaskType())
+                        .setSourceLocale(tipp.getSourceLocale())
+                        .setTargetLocale(tipp.getTargetLocale());
+                for (TIPPSection section : tipp.getSections()) {
+                    for (TIPPFile file : section.getFileResources()) {
+                        try (InputStream is = tipp.getFile(file)) {
+                            if (file instanceof TIPPReferenceFile) {
+                                writer.addReferenceFile(
+                                        ((TIPPReferenceFile)file).getLanguageChoice(),
+                                        file.getName(), is);
+                            }
+                            else {
+                                writer.addFile(section.getType(), file.getName(), is);
+                            }
+                        }
+                    }
+                }
+                writer.finish();
+                try {
+                    writer.addFile(TIPPSectionType.BILINGUAL, "late.xlf",
+                            new ByteArrayInputStream(new byte[0]));
+                    fail("Added a file to a finished package");
+                }
+                catch (IllegalStateException e) {
+                    // expected
+                }
+                if (keyPair != null) {
+                    verifySignedPackage(tipp, os.toByteArray(), keyPair);
+                    continue;
+                }
+                CollectingErrorHandler roundTripStatus = new CollectingErrorHandler();
+                try (TIPP roundTrip = createFactory(roundTripStatus).openFromStream(
+                        new ByteArrayInputStream(os.toByteArray()))) {
+                    checkErrors(roundTripStatus, 0);
+                    assertEquals(tipp.getPackageId(), roundTrip.getPackageId());
+                    assertEquals(tipp.getTaskType(), roundTrip.getTaskType());
+                    comparePackageParts(tipp, roundTrip);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSignedSavePayloadDigest() throws Exception {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("DSA");
+        kpg.initialize(1024);
+        KeyPair kp = kpg.generateKeyPair();
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        try (TIPP tip = getSamplePackage("data/test_package.zip", status)) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            tip.saveToStream(os, kp);
+            verifySignedPackage(tip, os.toByteArray(), kp);
+        }
+    }
+
+    @Test
+    public void testNestedSignatureRejected() throws Exception {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("DSA");
+        kpg.initialize(1024);
+        KeyPair kp = kpg.generateKeyPair();
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        byte[] saved;
+        try (TIPP tip = getSamplePackage("data/test_package.zip", status)) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            tip.saveToStream(os, kp);
+            saved = os.toByteArray();
+        }
+        Map<String, byte[]> entries = unzip(saved);
+        // Swap in a payload of our own...
+        Map<String, byte[]> payload = unzip(entries.get(PackageBase.PAYLOAD_FILE));
+        for (Map.Entry<String, byte[]> e : payload.entrySet()) {
+            e.setValue("EVIL".getBytes("UTF-8"));
+        }
+        entries.put(PackageBase.PAYLOAD_FILE, zip(payload));
+        // ...and hide a copy of the signature inside the signature's own
+        // Object, which the schema allows to hold anything
+        String xml = new String(entries.get(PackageBase.MANIFEST), "UTF-8");
+        int start = xml.indexOf("<Signature ");
+        int end = xml.indexOf("</Signature>");
+        String signature = xml.substring(start, end + "</Signature>".length());
+        xml = xml.substring(0, end) + "<Object>" + signature + "</Object>" + xml.substring(end);
+        entries.put(PackageBase.MANIFEST, xml.getBytes("UTF-8"));
+        byte[] tampered = zip(entries);
+        KeySelector key = KeySelector.singletonKeySelector(kp.getPublic());
+        for (KeySelector keySelector : Arrays.asList(key, null)) {
+            CollectingErrorHandler tamperedStatus = new CollectingErrorHandler();
+            assertNull(createFactory(tamperedStatus).openFromBytes(tampered, keySelector));
+            assertEquals(1, tamperedStatus.getErrors().size());
+            assertEquals(TIPPErrorType.INVALID_SIGNATURE,
+                         tamperedStatus.getErrors().get(0).getErrorType());
+        }
+    }
+
+    private static Map<String, byte[]> unzip(byte[] zip) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (ZipEntry e = zis.getNextEntry(); e != null; e = zis.getNextEntry()) {
+                entries.put(e.getName(), readBytes(zis));
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] zip(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(os)) {
+            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                zos.putNextEntry(new ZipEntry(e.getKey()));
+                zos.write(e.getValue());
+                zos.closeEntry();
+            }
+        }
+        return os.toByteArray();
+    }
+
+    @Test
+    public void testSHA1Signature() throws Exception {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("DSA");
+        kpg.initialize(1024);
+        KeyPair kp = kpg.generateKeyPair();
+        KeySelector key = KeySelector.singletonKeySelector(kp.getPublic());
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        try (TIPP tip = getSamplePackage("data/test_package.zip", status)) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            tip.saveToStream(os);
+            byte[] signed = signWithSHA1(os.toByteArray(), kp);
+            // Refused unless the factory allows it
+            CollectingErrorHandler refusedStatus = new CollectingErrorHandler();
+            assertNull(createFactory(refusedStatus).openFromBytes(signed, key));
+            assertEquals(1, refusedStatus.getErrors().size());
+            assertEquals(TIPPErrorType.INVALID_SIGNATURE,
+                         refusedStatus.getErrors().get(0).getErrorType());
+            CollectingErrorHandler allowedStatus = new CollectingErrorHandler();
+            TIPPFactory factory = createFactory(allowedStatus);
+            factory.setAllowSHA1Signatures(true);
+            try (TIPP roundTrip = factory.openFromBytes(signed, key)) {
+                checkErrors(allowedStatus, 0);
+                comparePackageParts(tip, roundTrip);
+            }
+        }
+    }
+
+    /**
+     * Sign a saved package the way packages were signed before SHA-256.
+     */
+    private static byte[] signWithSHA1(byte[] tipp, KeyPair kp) throws Exception {
+        Map<String, byte[]> entries = unzip(tipp);
+        Document manifest = new ManifestLoader().parse(
+                new ByteArrayInputStream(entries.get(PackageBase.MANIFEST)));
+        XMLSignatureFactory factory = XMLSignatureFactory.getInstance("DOM");
+        DigestMethod sha1 = factory.newDigestMethod(DigestMethod.SHA1, null);
+        List<Reference> refs = Arrays.asList(
+                factory.newReference("", sha1, Arrays.asList(
+                        factory.newTransform(Transform.ENVELOPED, (TransformParameterSpec)null),
+                        factory.newTransform(CanonicalizationMethod.EXCLUSIVE,
+                                             (TransformParameterSpec)null)),
+                        null, null),
+                factory.newReference(PackageBase.PAYLOAD_FILE, sha1, null, null, null,
+                        MessageDigest.getInstance("SHA-1").digest(
+                                entries.get(PackageBase.PAYLOAD_FILE))));
+        SignedInfo signedInfo = factory.newSignedInfo(
+                factory.newCanonicalizationMethod(CanonicalizationMethod.EXCLUSIVE,
+                                                  (C14NMethodParameterSpec)null),
+                factory.newSignatureMethod(SignatureMethod.DSA_SHA1, null), refs);
+        KeyInfoFactory kif = factory.getKeyInfoFactory();
+        KeyInfo keyInfo = kif.newKeyInfo(Collections.singletonList(kif.newKeyValue(kp.getPublic())));
+        Node descriptor = manifest.getElementsByTagNameNS(ManifestDOMBuilder.TIPP_NAMESPACE,
+                TIPPConstants.GLOBAL_DESCRIPTOR).item(0);
+        factory.newXMLSignature(signedInfo, keyInfo).sign(
+                new DOMSignContext(kp.getPrivate(), descriptor));
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        XMLEngine.get().getTransformer().transform(new DOMSource(manifest), new StreamResult(os));
+        entries.put(PackageBase.MANIFEST, os.toByteArray());
+        return zip(entries);
+    }
+
+    /**
+     * Check that the signature of a saved package covers the payload that
+     * was actually written, and that the package opens with the key.
+     */
+    private void verifySignedPackage(TIPP original, byte[] saved, KeyPair kp) throws Exception {
+        Map<String, byte[]> entries = unzip(saved);
+        byte[] payload = entries.get(PackageBase.PAYLOAD_FILE);
+        byte[] manifest = entries.get(PackageBase.MANIFEST);
+        assertNotNull(payload);
+        assertNotNull(manifest);
+        // The digest computed on the way out should match the payload
+        // that was actually written
+        byte[] expected = MessageDigest.getInstance(ManifestSigner.PAYLOAD_DIGEST_ALGORITHM)
+                .digest(payload);
+        String xml = new String(manifest, "UTF-8");
+        assertTrue(xml.contains("URI=\"" + PackageBase.PAYLOAD_FILE + "\""));
+        assertTrue(xml, xml.contains(Base64.getEncoder().encodeToString(expected)));
+        // ...and the signature itself should check out, but not for
+        // anything else
+        KeySelector key = KeySelector.singletonKeySelector(kp.getPublic());
+        Document document = new ManifestLoader().parse(new ByteArrayInputStream(manifest));
+        ManifestSigner signer = new ManifestSigner();
+        assertTrue(signer.validateSignature(document, key, new ByteArrayInputStream(payload)));
+        byte[] tampered = payload.clone();
+        tampered[tampered.length / 2] ^= 1;
+        assertFalse(signer.validateSignature(document, key, new ByteArrayInputStream(tampered)));
+        // Both in place and from a stream, where the payload is staged
+        for (boolean inPlace : new boolean[] { true, false }) {
+            CollectingErrorHandler status = new CollectingErrorHandler();
+            TIPPFactory factory = createFactory(status);
+            try (TIPP roundTrip = inPlace ? factory.openFromBytes(saved, key) :
+                    factory.openFromStream(new ByteArrayInputStream(saved), key)) {
+                checkErrors(status, 0);
+                assertEquals(original.getPackageId(), roundTrip.getPackageId());
+                assertEquals(original.getTaskType(), roundTrip.getTaskType());
+                comparePackageParts(original, roundTrip);
+            }
+        }
+        // Without the key, the signature can't be checked
+        CollectingErrorHandler status = new CollectingErrorHandler();
+        assertNull(createFactory(status).openFromBytes(saved));
+        assertEquals(TIPPErrorType.UNABLE_TO_VERIFY_SIGNATURE,
+                     status.getErrors().get(0).getErrorType());
+    }
+
+    private static String getPayloadPath(TIPP tipp, TIPPFile file) {
+        return Payload.getFilePath(file.getSectionType(),
+                ((PackageBase)tipp).getManifest().getLocationForFile(file));
+    }
+
+    private ZipDirectory getPayloadDirectory(byte[] tipp) throws IOException {
+        ZipDirectory outer = ZipDirectory.read(RandomAccessData.forBuffer(ByteBuffer.wrap(tipp)));
+        byte[] payload;
+        try (InputStream is = outer.open(outer.getEntry(PackageBase.PAYLOAD_FILE))) {
+            payload = readBytes(is);
+        }
+        return ZipDirectory.read(RandomAccessData.forBuffer(ByteBuffer.wrap(payload)));
+    }
+
+    private static byte[] readBytes(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FileUtil.copyStreamToStream(is, bytes);
+        return bytes.toByteArray();
+    }
+
+    private Map<String, Integer> getPayloadMethods(byte[] tipp) throws IOException {
+        Map<String, Integer> methods = new LinkedHashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(tipp))) {
+            for (ZipEntry e = zis.getNextEntry(); e != null; e = zis.getNextEntry()) {
+                if (e.getName().equals(PackageBase.PAYLOAD_FILE)) {
+                    ZipInputStream payload = new ZipInputStream(zis);
+                    for (ZipEntry f = payload.getNextEntry(); f != null; f = payload.getNextEntry()) {
+                        methods.put(f.getName(), f.getMethod());
+                    }
+                }
+            }
+        }
+        return methods;
+    }
+
     private TIPP getSamplePackage(String path, CollectingErrorHandler status)
             throws Exception {
         InputStream is = getClass().getResourceAsStream(path);
         return createFactory(status).openFromStream(is);
     }
 
+    private Path getSamplePath(String path) throws Exception {
+        return Paths.get(getClass().getResource(path).toURI());
+    }
+
     private void comparePackageParts(TIPP p1, TIPP p2) throws Exception {
         Collection<TIPPSection> s1 = p1.getSections();
         Collection<TIPPSection> s2 = p2.getSections();
@@ -470,8 +1633,8 @@ public class TestTIPPPackage {
         while (true) {
             Arrays.fill(b1, (byte)0);
             Arrays.fill(b2, (byte)0);
-            int read1 = is1.read(b1);
-            int read2 = is2.read(b2);
+            int read1 = readFully(is1, b1);
+            int read2 = readFully(is2, b2);
             assertEquals(read1, read2);
             if (read1 == -1) {
                 break;
@@ -479,4 +1642,18 @@ public class TestTIPPPackage {
             assertTrue(Arrays.equals(b1, b2));
         }
     }
+
+    // Streams may legitimately return short reads, so fill the whole
+    // buffer before comparing
+    private int readFully(InputStream is, byte[] b) throws IOException {
+        int total = 0;
+        while (total < b.length) {
+            int read = is.read(b, total, b.length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return (total == 0) ? -1 : total;
+    }
 }
@@ -1,6 +1,9 @@
 package com.spartansoftwareinc.tipp;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.*;
 
@@ -28,6 +31,63 @@ public class TestTIPPSection {
         checkFile(2, "test2", l.get(1));
     }
 
+    @Test
+    public void testLookups() {
+        TIPPSection s = sectionWithFiles(TIPPSectionType.BILINGUAL, "a", "b", "c", "b");
+        assertEquals("a", s.getFileBySequence(1).getName());
+        assertEquals("c", s.getFileBySequence(3).getName());
+        assertNull(s.getFileBySequence(0));
+        assertNull(s.getFileBySequence(5));
+        assertNull(s.getFileBySequence(Integer.MIN_VALUE));
+        assertEquals(3, s.getFileByName("c").getSequence());
+        // Duplicate names resolve to the lowest sequence
+        assertEquals(2, s.getFileByName("b").getSequence());
+        assertNull(s.getFileByName("d"));
+
+        // Gaps and duplicate sequences, out of order
+        List<TIPPFile> files = new ArrayList<>();
+        files.add(new TIPPFile(TIPPSectionType.BILINGUAL, "z", 100));
+        files.add(new TIPPFile(TIPPSectionType.BILINGUAL, "x", 7));
+        files.add(new TIPPFile(TIPPSectionType.BILINGUAL, "y", 7));
+        files.add(new TIPPFile(TIPPSectionType.BILINGUAL, "w", 2));
+        s = new TIPPSection(TIPPSectionType.BILINGUAL, files);
+        assertEquals("w", s.getFileBySequence(2).getName());
+        assertEquals("x", s.getFileBySequence(7).getName());
+        assertEquals("z", s.getFileBySequence(100).getName());
+        assertNull(s.getFileBySequence(3));
+        assertNull(s.getFileBySequence(101));
+        assertEquals(2, s.indexOf(new TIPPFile(TIPPSectionType.BILINGUAL, "y", 7)));
+        assertEquals(-1, s.indexOf(new TIPPFile(TIPPSectionType.BILINGUAL, "y", 2)));
+        // The section keeps its own copy
+        files.clear();
+        assertEquals(4, s.getFileResources().size());
+        assertNull(new TIPPSection(TIPPSectionType.BILINGUAL, files).getFileBySequence(1));
+    }
+
+    @Test
+    public void testManifestLocations() {
+        ManifestBuilder builder = new ManifestBuilder();
+        builder.setTaskType(StandardTaskType.TRANSLATE_STRICT_BITEXT);
+        builder.setSourceLocale(new String("en-US"));
+        Map<TIPPFile, String> locations = new HashMap<>();
+        TIPPFile bilingual = builder.addFile(TIPPSectionType.BILINGUAL, "a.xlf");
+        locations.put(bilingual, "1.xlf");
+        TIPPFile reference = builder.addReferenceFile("a.xlf", null);
+        locations.put(reference, "ref.txt");
+        builder.setLocationMap(locations);
+        Manifest manifest = builder.build();
+        assertEquals("1.xlf", manifest.getLocationForFile(bilingual));
+        // Lookups go by value, not identity
+        assertEquals("ref.txt", manifest.getLocationForFile(
+                new TIPPReferenceFile(TIPPSectionType.REFERENCE, "a.xlf", 1, null)));
+        assertNull(manifest.getLocationForFile(
+                new TIPPFile(TIPPSectionType.BILINGUAL, "b.xlf", 1)));
+        assertNull(manifest.getLocationForFile(
+                new TIPPFile(TIPPSectionType.STS, "a.xlf", 1)));
+        // Repeated strings are shared
+        assertSame("en-US", manifest.getSourceLocale());
+    }
+
     private void checkFile(int sequence, String name, TIPPFile f) {
         assertEquals(sequence, f.getSequence());
         assertEquals(name, f.getName());
@@ -0,0 +1,201 @@
+package com.spartansoftwareinc.tipp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class TestZipWriter {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] text = "Hello, world. Hello, world. Hello, world.".getBytes("UTF-8");
+        byte[] deflated = deflate(text);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (ZipWriter zip = new ZipWriter(os)) {
+            zip.writeEntry("stored.txt", ZipEntry.STORED, crc(text), text.length, text.length,
+                           new ByteArrayInputStream(text));
+            zip.writeEntry("dir/deflated.txt", ZipEntry.DEFLATED, crc(text), deflated.length,
+                           text.length, new ByteArrayInputStream(deflated));
+        }
+        byte[] archive = os.toByteArray();
+
+        // Readable in a single pass...
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            assertEquals("stored.txt", zis.getNextEntry().getName());
+            assertArrayEquals(text, readAll(zis));
+            assertEquals("dir/deflated.txt", zis.getNextEntry().getName());
+            assertArrayEquals(text, readAll(zis));
+            assertNull(zis.getNextEntry());
+        }
+        // ...and through the central directory
+        ZipDirectory dir = ZipDirectory.read(RandomAccessData.forBuffer(ByteBuffer.wrap(archive)));
+        List<ZipDirectory.Entry> entries = dir.getEntries();
+        assertEquals(2, entries.size());
+        for (ZipDirectory.Entry e : entries) {
+            assertEquals(text.length, e.getSize());
+            assertEquals(crc(text), e.getCrc());
+            try (InputStream is = dir.open(e)) {
+                assertArrayEquals(text, readAll(is));
+            }
+        }
+    }
+
+    @Test
+    public void testDeflatedEntry() throws Exception {
+        byte[] text = "Hello, world. Hello, world. Hello, world.".getBytes("UTF-8");
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (ZipWriter zip = new ZipWriter(os)) {
+            zip.writeDeflatedEntry("first.txt", Deflater.BEST_COMPRESSION,
+                                   new ByteArrayInputStream(text));
+            zip.writeDeflatedEntry("empty.txt", Deflater.DEFAULT_COMPRESSION,
+                                   new ByteArrayInputStream(new byte[0]));
+            zip.writeEntry("last.txt", ZipEntry.STORED, crc(text), text.length, text.length,
+                           new ByteArrayInputStream(text));
+        }
+        byte[] archive = os.toByteArray();
+        // Sizes follow the data, which single-pass readers have to cope with
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            assertEquals("first.txt", zis.getNextEntry().getName());
+            assertArrayEquals(text, readAll(zis));
+            assertEquals("empty.txt", zis.getNextEntry().getName());
+            assertArrayEquals(new byte[0], readAll(zis));
+            assertEquals("last.txt", zis.getNextEntry().getName());
+            assertArrayEquals(text, readAll(zis));
+            assertNull(zis.getNextEntry());
+        }
+        ZipDirectory dir = ZipDirectory.read(RandomAccessData.forBuffer(ByteBuffer.wrap(archive)));
+        ZipDirectory.Entry first = dir.getEntry("first.txt");
+        assertEquals(ZipEntry.DEFLATED, first.getMethod());
+        assertEquals(text.length, first.getSize());
+        assertEquals(crc(text), first.getCrc());
+        try (InputStream is = dir.open(first)) {
+            assertArrayEquals(text, readAll(is));
+        }
+    }
+
+    @Test
+    public void testManyEntries() throws Exception {
+        // More entries than the classic end header can count
+        int count = 0x10000 + 10;
+        byte[] data = new byte[] { 1 };
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (ZipWriter zip = new ZipWriter(os)) {
+            for (int i = 0; i < count; i++) {
+                zip.writeEntry(Integer.toString(i), ZipEntry.STORED, crc(data), 1, 1,
+                               new ByteArrayInputStream(data));
+            }
+        }
+        ZipDirectory dir = ZipDirectory.read(RandomAccessData.forBuffer(
+                ByteBuffer.wrap(os.toByteArray())));
+        assertEquals(count, dir.getEntries().size());
+        assertNotNull(dir.getEntry(Integer.toString(count - 1)));
+    }
+
+    @Test(expected = java.util.zip.ZipException.class)
+    public void testShortEntryData() throws Exception {
+        ZipWriter zip = new ZipWriter(new ByteArrayOutputStream());
+        zip.writeEntry("short", ZipEntry.STORED, 0, 10, 10, new ByteArrayInputStream(new byte[5]));
+    }
+
+    @Test
+    public void testCorruptEntries() throws Exception {
+        byte[] text = "Hello, world. Hello, world. Hello, world.".getBytes("UTF-8");
+        byte[] deflated = deflate(text);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (ZipWriter zip = new ZipWriter(os)) {
+            zip.writeEntry("good.txt", ZipEntry.STORED, crc(text), text.length, text.length,
+                           new ByteArrayInputStream(text));
+            zip.writeEntry("stored.txt", ZipEntry.STORED, crc(text), text.length, text.length,
+                           new ByteArrayInputStream(text));
+            zip.writeEntry("deflated.txt", ZipEntry.DEFLATED, crc(text) ^ 1, deflated.length,
+                           text.length, new ByteArrayInputStream(deflated));
+        }
+        byte[] archive = os.toByteArray();
+        // Flip a byte in the second copy of the stored text
+        String contents = new String(archive, "ISO-8859-1");
+        int pos = contents.indexOf("Hello", contents.indexOf("stored.txt"));
+        archive[pos] ^= 0x20;
+
+        ZipDirectory dir = ZipDirectory.read(RandomAccessData.forBuffer(ByteBuffer.wrap(archive)));
+        ZipDirectory.Entry good = dir.getEntry("good.txt");
+        assertFalse(good.isVerified());
+        try (InputStream is = dir.open(good)) {
+            assertArrayEquals(text, readAll(is));
+        }
+        assertTrue(good.isVerified());
+        for (String name : new String[] { "stored.txt", "deflated.txt" }) {
+            ZipDirectory.Entry e = dir.getEntry(name);
+            try (InputStream is = dir.open(e)) {
+                readAll(is);
+                fail("Read corrupt entry " + name);
+            }
+            catch (ZipException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().contains("invalid entry CRC"));
+            }
+            // Copying the raw data checks it too
+            try (InputStream is = dir.openRaw(e)) {
+                readAll(is);
+                fail("Copied corrupt entry " + name);
+            }
+            catch (ZipException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().contains("invalid entry CRC"));
+            }
+            assertFalse(e.isVerified());
+        }
+    }
+
+    @Test
+    public void testDuplicateEntries() throws Exception {
+        byte[] data = new byte[] { 1 };
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (ZipWriter zip = new ZipWriter(os)) {
+            for (int i = 0; i < 2; i++) {
+                zip.writeEntry("same", ZipEntry.STORED, crc(data), 1, 1,
+                               new ByteArrayInputStream(data));
+            }
+        }
+        try {
+            ZipDirectory.read(RandomAccessData.forBuffer(ByteBuffer.wrap(os.toByteArray())));
+            fail("Read duplicate entries");
+        }
+        catch (ZipException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Duplicate entry"));
+        }
+    }
+
+    private static long crc(byte[] b) {
+        CRC32 crc = new CRC32();
+        crc.update(b);
+        return crc.getValue();
+    }
+
+    private static byte[] deflate(byte[] b) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(b);
+        deflater.finish();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        while (!deflater.finished()) {
+            os.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        return os.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream is) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        FileUtil.copyStreamToStream(is, os);
+        return os.toByteArray();
+    }
+}